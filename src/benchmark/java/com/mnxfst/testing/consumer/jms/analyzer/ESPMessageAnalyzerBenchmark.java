@@ -0,0 +1,87 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+
+/**
+ * Measures the field extraction done by {@link ESPMessageAnalyzer#onEvent(JMSMessageEvent, long, boolean)} for
+ * text and bytes payloads of different sizes. Invalid messages are covered as the scanner stops early for them
+ * @author mnxfst
+ * @since 21.03.2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ESPMessageAnalyzerBenchmark {
+
+	@Param({EspPayloads.SAMPLE, "4096", "65536"})
+	public String payloadSize;
+	
+	@Param({"false", "true"})
+	public boolean bytesPayload;
+	
+	@Param({"true", "false"})
+	public boolean validMessage;
+	
+	private ESPMessageAnalyzer analyzer;
+	private JMSMessageEvent event;
+	
+	@Setup
+	public void setup() throws Exception {
+		analyzer = new ESPMessageAnalyzer();
+		analyzer.initialize(EspPayloads.configuration(false, null));
+		
+		String payload = EspPayloads.payload(payloadSize, validMessage);
+		event = new JMSMessageEvent();
+		if(bytesPayload) {
+			byte[] bytes = payload.getBytes(Charset.forName("UTF-8"));
+			System.arraycopy(bytes, 0, event.prepareBytes(bytes.length), 0, bytes.length);
+		} else {
+			event.setMessageText(payload);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		analyzer.shutdown();
+	}
+	
+	@Benchmark
+	public Object extractFields() throws Exception {
+		event.clearFields();
+		event.setValidity(JMSMessageEvent.VALIDITY_UNSET);
+		analyzer.onEvent(event, 0, true);
+		return event.getValidity();
+	}
+	
+}
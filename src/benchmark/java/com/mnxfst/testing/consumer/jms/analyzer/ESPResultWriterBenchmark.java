@@ -0,0 +1,84 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+
+/**
+ * Measures formatting and writing the result record of an analyzed event through the {@link ESPResultWriter}. 
+ * Records are written to <i>/dev/null</i> by default, thus the file sink's encoding and batching is included 
+ * but no disk io. The timestamp advances with every record to cover the formatter's per-second cache misses
+ * @author mnxfst
+ * @since 21.03.2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ESPResultWriterBenchmark {
+
+	@Param({"/dev/null"})
+	public String resultFile;
+	
+	/** records written per batch, the sink flushes at the end of each */
+	@Param({"1", "64"})
+	public int batchSize;
+	
+	private ESPResultWriter writer;
+	private JMSMessageEvent event;
+	private long sequence = 0;
+	private long timestamp = System.currentTimeMillis();
+	
+	@Setup
+	public void setup() throws Exception {
+		writer = new ESPResultWriter();
+		writer.initialize(EspPayloads.configuration(true, resultFile));
+		
+		// analyze once, the writer relies on the extracted fields only
+		ESPMessageAnalyzer analyzer = new ESPMessageAnalyzer();
+		analyzer.initialize(EspPayloads.configuration(false, null));
+		event = new JMSMessageEvent(EspPayloads.sample(true));
+		analyzer.onEvent(event, 0, true);
+		analyzer.shutdown();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		writer.shutdown();
+	}
+	
+	@Benchmark
+	public void writeRecord() throws Exception {
+		timestamp += 7;
+		event.setTimestamp(timestamp);
+		writer.onEvent(event, sequence, (++sequence % batchSize) == 0);
+	}
+	
+}
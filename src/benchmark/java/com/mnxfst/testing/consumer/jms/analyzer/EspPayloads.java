@@ -0,0 +1,113 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the payloads and analyzer configurations shared by the benchmarks. Payloads are derived from a
+ * sample product request, larger ones are padded with keyword elements in front of
+ * the tags to extract, thus the scanner has to walk over the padding
+ * @author mnxfst
+ * @since 21.03.2012
+ */
+public class EspPayloads {
+
+	public static final String SAMPLE = "sample";
+	public static final String DOMAIN_SIGN = "otto";
+	public static final String REQUEST_ID_PLACEHOLDER = "${run.requestId}";
+	
+	private static final String PADDING_ELEMENT = "<pub:keyword>padding</pub:keyword>";
+	private static final String PADDING_ANCHOR = "<pub:sourceParameter>";
+	
+	private static final String SAMPLE_REQUEST = "<pub:PublishProductRequest xmlns:pub=\"http://b2c.otto.de/schema/publishProduct\"><pub:sourceParameter><pub:Id>${global.scenarioId}-${global.productId}-${global.runId}-${global.threads}-${global.waitTime}-${run.requestId}</pub:Id><pub:orderingSystem>Internet</pub:orderingSystem><pub:domainSign>${run.domainSign}</pub:domainSign></pub:sourceParameter><pub:path>//localhost</pub:path><pub:keywords><pub:keyword>Hose</pub:keyword><pub:keyword>lang</pub:keyword></pub:keywords><pub:title>die lange Hose${run.randomInt}</pub:title><pub:descriptionShort>elegante Hose</pub:descriptionShort><pub:descriptionLong>die elegante Hose</pub:descriptionLong><pub:brand>Levis</pub:brand><pub:materialGroup>stoff</pub:materialGroup><pub:categoryList><pub:category>Kleidung</pub:category><pub:category>Mann</pub:category></pub:categoryList><pub:characteristicList><pub:map><pub:value>hose</pub:value><pub:value>f\u00e4llt klein aus${run.randomInt}</pub:value></pub:map></pub:characteristicList><pub:mediaList><pub:media><pub:media>Video</pub:media></pub:media></pub:mediaList><pub:constraints><pub:map><pub:value>Lieferservice gleich ${run.randomInt} Wochen</pub:value></pub:map></pub:constraints><pub:aktionen><pub:map><pub:value>bekannt aus tv</pub:value></pub:map></pub:aktionen><pub:onlineFrom>2001-10-26T21:32:52</pub:onlineFrom><pub:onlineTo>2010-10-26T21:32:52</pub:onlineTo></pub:PublishProductRequest>";
+	
+	/**
+	 * Returns the sample request with its placeholders replaced
+	 * @param valid the domain sign matches the required one if set
+	 * @return
+	 */
+	public static String sample(boolean valid) {
+		return template(valid).replace(REQUEST_ID_PLACEHOLDER, "4711");
+	}
+	
+	/**
+	 * Returns the sample request with all placeholders but the request id replaced
+	 * @param valid the domain sign matches the required one if set
+	 * @return
+	 */
+	public static String template(boolean valid) {
+		return SAMPLE_REQUEST
+				.replace("${global.scenarioId}", "scenario")
+				.replace("${global.productId}", "product")
+				.replace("${global.runId}", "run")
+				.replace("${global.threads}", "8")
+				.replace("${global.waitTime}", "0")
+				.replace("${run.domainSign}", (valid ? DOMAIN_SIGN : "other"))
+				.replace("${run.randomInt}", "42");
+	}
+	
+	/**
+	 * Returns a payload of the given size - or the sample request
+	 * @param size number of chars or {@link #SAMPLE}
+	 * @param valid
+	 * @return
+	 */
+	public static String payload(String size, boolean valid) {
+		String sample = sample(valid);
+		if(SAMPLE.equals(size))
+			return sample;
+		
+		int length = Integer.parseInt(size);
+		int anchor = sample.indexOf(PADDING_ANCHOR);
+		StringBuilder payload = new StringBuilder(length + PADDING_ELEMENT.length());
+		payload.append(sample, 0, anchor);
+		while(payload.length() + sample.length() - anchor < length)
+			payload.append(PADDING_ELEMENT);
+		payload.append(sample, anchor, sample.length());
+		return payload.toString();
+	}
+	
+	/**
+	 * Returns the analyzer configuration
+	 * @param writeResults
+	 * @param resultFile may be null
+	 * @return
+	 */
+	public static Map<String, List<String>> configuration(boolean writeResults, String resultFile) {
+		Map<String, List<String>> configuration = new HashMap<String, List<String>>();
+		put(configuration, "requiredDomainSign", DOMAIN_SIGN);
+		put(configuration, "writeResults", String.valueOf(writeResults));
+		put(configuration, "nodeId", "benchmark");
+		put(configuration, "measuringPointId", "mp1");
+		if(resultFile != null)
+			put(configuration, "resultFile", resultFile);
+		return configuration;
+	}
+	
+	private static void put(Map<String, List<String>> configuration, String key, String value) {
+		List<String> values = new ArrayList<String>();
+		values.add(value);
+		configuration.put(key, values);
+	}
+	
+}
@@ -0,0 +1,85 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.harness;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Samples garbage collection counters and - on HotSpot - the bytes allocated by all live threads. The allocation
+ * figures cover threads alive at both samples only, which holds for the consumer's pipeline and session threads 
+ * as long as they outlive a measurement
+ * @author mnxfst
+ * @since 22.03.2012
+ */
+public class AllocationMonitor {
+
+	private long gcCount = 0;
+	private long gcTimeMillis = 0;
+	private long allocatedBytes = 0;
+	
+	/**
+	 * Takes a sample of the current counters
+	 * @return
+	 */
+	public static AllocationMonitor sample() {
+		AllocationMonitor sample = new AllocationMonitor();
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample.gcCount += Math.max(0, gc.getCollectionCount());
+			sample.gcTimeMillis += Math.max(0, gc.getCollectionTime());
+		}
+		sample.allocatedBytes = readAllocatedBytes();
+		return sample;
+	}
+	
+	/**
+	 * Returns the bytes allocated by all live threads so far, -1 if not supported by the vm
+	 * @return
+	 */
+	private static long readAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean)threads;
+		if(!hotspotThreads.isThreadAllocatedMemorySupported() || !hotspotThreads.isThreadAllocatedMemoryEnabled())
+			return -1;
+		long total = 0;
+		for(long allocated : hotspotThreads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+			if(allocated > 0)
+				total += allocated;
+		return total;
+	}
+
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	public long getGcTimeMillis() {
+		return gcTimeMillis;
+	}
+
+	/**
+	 * @return bytes allocated by all live threads, -1 if not supported
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+}
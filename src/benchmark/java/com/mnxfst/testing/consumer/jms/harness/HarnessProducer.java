@@ -0,0 +1,144 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.harness;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.jms.analyzer.EspPayloads;
+import com.mnxfst.testing.consumer.jms.stats.EpochClock;
+
+/**
+ * Sends messages rendered from a payload template to a queue at a fixed rate - or as fast as possible. The 
+ * request id placeholder of the template is replaced by a number unique across all producers of a run, the send 
+ * time is attached in microseconds since epoch for measuring the delivery latency
+ * @author mnxfst
+ * @since 22.03.2012
+ */
+public class HarnessProducer implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(HarnessProducer.class.getName());
+	
+	public static final String REQUEST_ID_PLACEHOLDER = EspPayloads.REQUEST_ID_PLACEHOLDER;
+	public static final String PRODUCER_TIMESTAMP_PROPERTY = "producerTimestamp";
+	
+	private final Connection connection;
+	private final String queueName;
+	private final String templatePrefix;
+	private final String templateSuffix;
+	private final long messages;
+	/** nanos between two messages of this producer, 0 for no limit */
+	private final long sendInterval;
+	private final AtomicLong requestIds;
+	private final boolean persistent;
+	
+	private volatile long sent = 0;
+	private volatile Exception error = null;
+	
+	/**
+	 * Initializes the producer
+	 * @param connection
+	 * @param queueName
+	 * @param template payload, the first request id placeholder is replaced for each message
+	 * @param messages number of messages to send
+	 * @param rate messages per second, 0 for no limit
+	 * @param requestIds shared by all producers of a run
+	 * @param persistent
+	 */
+	public HarnessProducer(Connection connection, String queueName, String template, long messages, long rate, AtomicLong requestIds, boolean persistent) {
+		this.connection = connection;
+		this.queueName = queueName;
+		int placeholder = template.indexOf(REQUEST_ID_PLACEHOLDER);
+		this.templatePrefix = (placeholder >= 0 ? template.substring(0, placeholder) : template);
+		this.templateSuffix = (placeholder >= 0 ? template.substring(placeholder + REQUEST_ID_PLACEHOLDER.length()) : null);
+		this.messages = messages;
+		this.sendInterval = (rate > 0 ? 1000000000L / rate : 0);
+		this.requestIds = requestIds;
+		this.persistent = persistent;
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		Session session = null;
+		try {
+			session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageProducer producer = session.createProducer(session.createQueue(queueName));
+			producer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+			
+			StringBuilder payload = new StringBuilder(templatePrefix.length() + (templateSuffix != null ? templateSuffix.length() + 20 : 0));
+			long next = System.nanoTime();
+			for(long i = 0; i < messages; i++) {
+				if(sendInterval > 0) {
+					long wait = next - System.nanoTime();
+					if(wait > 0)
+						LockSupport.parkNanos(wait);
+					next += sendInterval;
+				}
+				
+				payload.setLength(0);
+				payload.append(templatePrefix);
+				if(templateSuffix != null)
+					payload.append(requestIds.incrementAndGet()).append(templateSuffix);
+				
+				TextMessage message = session.createTextMessage(payload.toString());
+				message.setLongProperty(PRODUCER_TIMESTAMP_PROPERTY, EpochClock.currentTimeMicros());
+				producer.send(message);
+				sent = i + 1;
+			}
+			producer.close();
+		} catch(JMSException e) {
+			logger.error("Producer failed after " + sent + " messages. Error: " + e.getMessage());
+			error = e;
+		} finally {
+			if(session != null) {
+				try {
+					session.close();
+				} catch(JMSException e) {
+					logger.error("Failed to close producer session. Error: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of messages sent so far
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return the error the producer stopped with, null if none
+	 */
+	public Exception getError() {
+		return error;
+	}
+	
+}
@@ -0,0 +1,440 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.harness;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.jms.JMSConsumerHandler;
+import com.mnxfst.testing.consumer.jms.analyzer.EspPayloads;
+import com.mnxfst.testing.consumer.jms.stats.DeliveryLatencyRegistry;
+import com.mnxfst.testing.consumer.jms.stats.JMSConsumerStatistics;
+import com.mnxfst.testing.consumer.jms.stats.LatencySummary;
+
+/**
+ * Measures the end-to-end capacity of the {@link JMSConsumerHandler} against an in-vm ActiveMQ broker. For each
+ * combination of the configured acknowledge modes, ring buffer sizes, wait strategies and receive modes a fresh
+ * consumer is initialized on its own queue and fed by producers rendering the ESP sample request - or a given 
+ * template. Each run reports the sustained throughput, the processing and producer to consumer latency 
+ * percentiles as well as gc activity and allocation rate. All of them cover the measured messages only as the 
+ * latencies are reset after the warmup. Runs without network or persistence, eg. through<br/>
+ * <i>mvn -Pbenchmark compile exec:java -Dexec.classpathScope=compile 
+ * -Dexec.mainClass=com.mnxfst.testing.consumer.jms.harness.ThroughputHarness -Dexec.args="-n 200000 -a auto,client"</i>
+ * @author mnxfst
+ * @since 22.03.2012
+ */
+public class ThroughputHarness {
+
+	private static final Logger logger = Logger.getLogger(ThroughputHarness.class.getName());
+	
+	private static final String BROKER_NAME = "harness";
+	private static final String BROKER_URL = "vm://" + BROKER_NAME + "?create=false";
+	private static final String NODE_ID = "harness";
+	
+	private static final String OPT_MESSAGES = "n";
+	private static final String OPT_WARMUP = "w";
+	private static final String OPT_RATE = "r";
+	private static final String OPT_PRODUCERS = "p";
+	private static final String OPT_CONSUMERS = "c";
+	private static final String OPT_TEMPLATE = "t";
+	private static final String OPT_ACK_MODES = "a";
+	private static final String OPT_RING_SIZES = "s";
+	private static final String OPT_WAIT_STRATEGIES = "y";
+	private static final String OPT_RECEIVE_MODES = "m";
+	private static final String OPT_ANALYZERS = "z";
+	private static final String OPT_RESULT_FILE = "f";
+	private static final String OPT_PROPERTIES = "D";
+	private static final String OPT_OUTPUT = "o";
+	private static final String OPT_TIMEOUT = "T";
+	private static final String OPT_PERSISTENT = "P";
+	private static final String OPT_HELP = "h";
+	
+	private final long messages;
+	private final long warmupMessages;
+	private final long rate;
+	private final int producers;
+	private final String consumers;
+	private final String template;
+	private final String analyzers;
+	private final String resultFile;
+	private final Map<String, String> properties;
+	private final long timeoutMillis;
+	private final boolean persistent;
+	
+	private BrokerService broker = null;
+	private Connection producerConnection = null;
+	private int runs = 0;
+	
+	public ThroughputHarness(long messages, long warmupMessages, long rate, int producers, String consumers, String template, String analyzers, String resultFile, Map<String, String> properties, long timeoutMillis, boolean persistent) {
+		this.messages = messages;
+		this.warmupMessages = warmupMessages;
+		this.rate = rate;
+		this.producers = producers;
+		this.consumers = consumers;
+		this.template = template;
+		this.analyzers = analyzers;
+		this.resultFile = resultFile;
+		this.properties = properties;
+		this.timeoutMillis = timeoutMillis;
+		this.persistent = persistent;
+	}
+	
+	/**
+	 * Starts the in-vm broker and the connection shared by the producers
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		broker = new BrokerService();
+		broker.setBrokerName(BROKER_NAME);
+		broker.setPersistent(persistent);
+		broker.setUseJmx(false);
+		broker.setUseShutdownHook(false);
+		broker.start();
+		broker.waitUntilStarted();
+		
+		producerConnection = new ActiveMQConnectionFactory(BROKER_URL).createConnection();
+		producerConnection.start();
+	}
+	
+	/**
+	 * Stops the producer connection and the broker
+	 */
+	public void stop() {
+		try {
+			if(producerConnection != null)
+				producerConnection.close();
+		} catch(JMSException e) {
+			logger.error("Failed to close producer connection. Error: " + e.getMessage());
+		}
+		try {
+			if(broker != null) {
+				broker.stop();
+				broker.waitUntilStopped();
+			}
+		} catch(Exception e) {
+			logger.error("Failed to stop broker. Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Runs a single configuration: initializes a consumer on a fresh queue, sends the warmup and the measured 
+	 * messages and waits until all of them have been analyzed
+	 * @param configuration consumer settings specific to this run
+	 * @return
+	 * @throws Exception
+	 */
+	public RunResult run(Map<String, String> configuration) throws Exception {
+		
+		int run = ++runs;
+		String queueName = "harness.run" + run;
+		String measuringPointId = "run" + run;
+		
+		Map<String, List<String>> consumerProperties = new HashMap<String, List<String>>();
+		put(consumerProperties, "initialCtxFactory", "org.apache.activemq.jndi.ActiveMQInitialContextFactory");
+		put(consumerProperties, "providerUrl", BROKER_URL);
+		put(consumerProperties, "connectionFactoryName", "ConnectionFactory");
+		put(consumerProperties, "destination", "dynamicQueues/" + queueName);
+		put(consumerProperties, "type", "queue");
+		put(consumerProperties, "consumers", consumers);
+		put(consumerProperties, "jmsMsgAnalyzers", analyzers);
+		put(consumerProperties, "requiredDomainSign", EspPayloads.DOMAIN_SIGN);
+		put(consumerProperties, "nodeId", NODE_ID);
+		put(consumerProperties, "measuringPointId", measuringPointId);
+		put(consumerProperties, "producerTimestampProperty", HarnessProducer.PRODUCER_TIMESTAMP_PROPERTY);
+		put(consumerProperties, "producerTimestampUnit", "us");
+		if(resultFile != null)
+			put(consumerProperties, "resultFile", resultFile);
+		else
+			put(consumerProperties, "writeResults", "false");
+		for(Map.Entry<String, String> property : properties.entrySet())
+			put(consumerProperties, property.getKey(), property.getValue());
+		for(Map.Entry<String, String> property : configuration.entrySet())
+			put(consumerProperties, property.getKey(), property.getValue());
+		
+		JMSConsumerHandler consumer = new JMSConsumerHandler();
+		consumer.setId("harness-" + run);
+		consumer.setType("jms");
+		consumer.initialize(consumerProperties);
+		try {
+			AtomicLong requestIds = new AtomicLong(0);
+			if(warmupMessages > 0) {
+				produce(queueName, warmupMessages, requestIds);
+				awaitAnalyzed(consumer, warmupMessages);
+				// the percentiles must cover the measured messages only
+				consumer.resetLatencies();
+			}
+			
+			JMSConsumerStatistics before = (JMSConsumerStatistics)consumer.getConsumerStatistics();
+			AllocationMonitor allocationBefore = AllocationMonitor.sample();
+			long start = System.nanoTime();
+			
+			produce(queueName, messages, requestIds);
+			JMSConsumerStatistics after = awaitAnalyzed(consumer, warmupMessages + messages);
+			
+			long elapsedNanos = System.nanoTime() - start;
+			AllocationMonitor allocationAfter = AllocationMonitor.sample();
+			
+			RunResult result = new RunResult(run, configuration);
+			result.analyzed = after.getMessagesAnalyzed() - before.getMessagesAnalyzed();
+			result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+			result.throughput = (elapsedNanos > 0 ? result.analyzed * 1000000000.0 / elapsedNanos : 0);
+			result.processingP50 = after.getProcessingLatencyP50();
+			result.processingP99 = after.getProcessingLatencyP99();
+			result.processingP999 = after.getProcessingLatencyP999();
+			result.processingMax = after.getProcessingLatencyMax();
+			LatencySummary delivery = after.getDeliveryLatencies().get(NODE_ID + "/" + measuringPointId + "/" + DeliveryLatencyRegistry.HOP_PRODUCER_TO_CONSUMER);
+			if(delivery != null) {
+				result.deliveryP50 = delivery.getP50();
+				result.deliveryP99 = delivery.getP99();
+				result.deliveryP999 = delivery.getP999();
+				result.deliveryMax = delivery.getMax();
+			}
+			result.gcCount = allocationAfter.getGcCount() - allocationBefore.getGcCount();
+			result.gcTimeMillis = allocationAfter.getGcTimeMillis() - allocationBefore.getGcTimeMillis();
+			if(allocationBefore.getAllocatedBytes() >= 0 && allocationAfter.getAllocatedBytes() >= allocationBefore.getAllocatedBytes() && elapsedNanos > 0) {
+				result.allocationRate = (allocationAfter.getAllocatedBytes() - allocationBefore.getAllocatedBytes()) * 1000000000.0 / elapsedNanos / (1024 * 1024);
+				result.allocatedBytesPerMessage = (result.analyzed > 0 ? (allocationAfter.getAllocatedBytes() - allocationBefore.getAllocatedBytes()) / result.analyzed : -1);
+			}
+			return result;
+		} finally {
+			consumer.shutdown();
+		}
+	}
+	
+	/**
+	 * Sends the given number of messages spread evenly across the producers and waits for them to finish
+	 * @param queueName
+	 * @param count
+	 * @param requestIds
+	 * @throws Exception
+	 */
+	private void produce(String queueName, long count, AtomicLong requestIds) throws Exception {
+		List<HarnessProducer> producerList = new ArrayList<HarnessProducer>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < producers; i++) {
+			long share = count / producers + (i < count % producers ? 1 : 0);
+			HarnessProducer producer = new HarnessProducer(producerConnection, queueName, template, share, rate / producers, requestIds, persistent);
+			Thread thread = new Thread(producer, "harness-producer-" + i);
+			producerList.add(producer);
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		for(HarnessProducer producer : producerList)
+			if(producer.getError() != null)
+				throw producer.getError();
+	}
+	
+	/**
+	 * Waits until the consumer has analyzed the given number of messages in total
+	 * @param consumer
+	 * @param count
+	 * @return the final statistics
+	 * @throws Exception if the messages are not analyzed in time
+	 */
+	private JMSConsumerStatistics awaitAnalyzed(JMSConsumerHandler consumer, long count) throws Exception {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(true) {
+			JMSConsumerStatistics stats = (JMSConsumerStatistics)consumer.getConsumerStatistics();
+			if(stats.getMessagesAnalyzed() >= count)
+				return stats;
+			if(System.currentTimeMillis() > deadline)
+				throw new Exception("Timed out after " + timeoutMillis + "ms waiting for " + count + " analyzed messages: " + stats);
+			Thread.sleep(1);
+		}
+	}
+	
+	private static void put(Map<String, List<String>> properties, String key, String value) {
+		List<String> values = new ArrayList<String>();
+		values.add(value);
+		properties.put(key, values);
+	}
+	
+	/**
+	 * Results of a single configuration
+	 */
+	public static class RunResult {
+		
+		public static final String CSV_HEADER = "run;configuration;analyzed;elapsedMs;msgsPerSec;processingP50Us;processingP99Us;processingP999Us;processingMaxUs;" +
+				"deliveryP50Us;deliveryP99Us;deliveryP999Us;deliveryMaxUs;gcCount;gcTimeMs;allocMBPerSec;allocBytesPerMsg";
+		
+		private final int run;
+		private final Map<String, String> configuration;
+		private long analyzed;
+		private long elapsedMillis;
+		private double throughput;
+		private long processingP50, processingP99, processingP999, processingMax;
+		private long deliveryP50, deliveryP99, deliveryP999, deliveryMax;
+		private long gcCount, gcTimeMillis;
+		private double allocationRate = -1;
+		private long allocatedBytesPerMessage = -1;
+		
+		public RunResult(int run, Map<String, String> configuration) {
+			this.run = run;
+			this.configuration = configuration;
+		}
+		
+		public String toCsv() {
+			return run + ";" + configuration + ";" + analyzed + ";" + elapsedMillis + ";" + String.format("%.0f", throughput) + ";" + 
+					processingP50 + ";" + processingP99 + ";" + processingP999 + ";" + processingMax + ";" +
+					deliveryP50 + ";" + deliveryP99 + ";" + deliveryP999 + ";" + deliveryMax + ";" +
+					gcCount + ";" + gcTimeMillis + ";" + String.format("%.1f", allocationRate) + ";" + allocatedBytesPerMessage;
+		}
+		
+		public String toString() {
+			return "run[" + run + "] " + configuration + ": " + String.format("%.0f", throughput) + " msgs/sec (" + analyzed + " in " + elapsedMillis + "ms), " +
+					"processing[p50=" + processingP50 + "us, p99=" + processingP99 + "us, p99.9=" + processingP999 + "us, max=" + processingMax + "us], " +
+					"producerToConsumer[p50=" + deliveryP50 + "us, p99=" + deliveryP99 + "us, p99.9=" + deliveryP999 + "us, max=" + deliveryMax + "us], " +
+					"gc[count=" + gcCount + ", time=" + gcTimeMillis + "ms], allocation[" + String.format("%.1f", allocationRate) + "MB/s, " + allocatedBytesPerMessage + " bytes/msg]";
+		}
+	}
+	
+	/**
+	 * Splits a comma separated list
+	 * @param value
+	 * @return
+	 */
+	private static List<String> split(String value) {
+		List<String> values = new ArrayList<String>();
+		for(String v : value.split(","))
+			if(!v.trim().isEmpty())
+				values.add(v.trim());
+		return values;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		
+		Options options = new Options();
+		options.addOption(OPT_MESSAGES, "messages", true, "number of measured messages per run (default: 100000)");
+		options.addOption(OPT_WARMUP, "warmup", true, "number of warmup messages per run (default: 20000)");
+		options.addOption(OPT_RATE, "rate", true, "messages per second summed over all producers, 0 for no limit (default: 0)");
+		options.addOption(OPT_PRODUCERS, "producers", true, "number of producer threads (default: 1)");
+		options.addOption(OPT_CONSUMERS, "consumers", true, "number of consumer sessions (default: 1)");
+		options.addOption(OPT_TEMPLATE, "template", true, "file holding the payload template, ${run.requestId} is replaced per message (default: esp sample request)");
+		options.addOption(OPT_ACK_MODES, "ackModes", true, "comma separated acknowledge modes (default: auto)");
+		options.addOption(OPT_RING_SIZES, "ringSizes", true, "comma separated ring buffer sizes (default: 8192)");
+		options.addOption(OPT_WAIT_STRATEGIES, "waitStrategies", true, "comma separated wait strategies (default: sleeping)");
+		options.addOption(OPT_RECEIVE_MODES, "receiveModes", true, "comma separated receive modes (default: push)");
+		options.addOption(OPT_ANALYZERS, "analyzers", true, "comma separated analyzers (default: esp,deliveryLatency)");
+		options.addOption(OPT_RESULT_FILE, "resultFile", true, "file the esp result records are written to, eg. /dev/null (default: records are not written)");
+		options.addOption(OPT_PROPERTIES, "property", true, "additional consumer property key=value applying to all runs, may be repeated");
+		options.addOption(OPT_OUTPUT, "output", true, "csv file the results are appended to");
+		options.addOption(OPT_TIMEOUT, "timeout", true, "seconds to wait for a run to be analyzed completely (default: 600)");
+		options.addOption(OPT_PERSISTENT, "persistent", false, "send persistent messages to a persistent broker");
+		options.addOption(OPT_HELP, "help", false, "prints this help");
+		
+		CommandLine cmd = null;
+		try {
+			cmd = new PosixParser().parse(options, args);
+		} catch(ParseException e) {
+			System.out.println("Invalid arguments: " + e.getMessage());
+			new HelpFormatter().printHelp(ThroughputHarness.class.getName(), options);
+			return;
+		}
+		if(cmd.hasOption(OPT_HELP)) {
+			new HelpFormatter().printHelp(ThroughputHarness.class.getName(), options);
+			return;
+		}
+		
+		String template = EspPayloads.template(true);
+		if(cmd.hasOption(OPT_TEMPLATE))
+			template = FileUtils.readFileToString(new File(cmd.getOptionValue(OPT_TEMPLATE)), "UTF-8");
+		
+		Map<String, String> properties = new HashMap<String, String>();
+		String[] propertyValues = cmd.getOptionValues(OPT_PROPERTIES);
+		if(propertyValues != null) {
+			for(String property : propertyValues) {
+				int separator = property.indexOf('=');
+				if(separator <= 0)
+					throw new IllegalArgumentException("Invalid consumer property: " + property + ". Expected key=value");
+				properties.put(property.substring(0, separator).trim(), property.substring(separator + 1).trim());
+			}
+		}
+		
+		ThroughputHarness harness = new ThroughputHarness(
+				Long.parseLong(cmd.getOptionValue(OPT_MESSAGES, "100000")),
+				Long.parseLong(cmd.getOptionValue(OPT_WARMUP, "20000")),
+				Long.parseLong(cmd.getOptionValue(OPT_RATE, "0")),
+				Integer.parseInt(cmd.getOptionValue(OPT_PRODUCERS, "1")),
+				cmd.getOptionValue(OPT_CONSUMERS, "1"),
+				template,
+				cmd.getOptionValue(OPT_ANALYZERS, "esp,deliveryLatency"),
+				cmd.getOptionValue(OPT_RESULT_FILE),
+				properties,
+				TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue(OPT_TIMEOUT, "600"))),
+				cmd.hasOption(OPT_PERSISTENT));
+		
+		PrintWriter output = null;
+		if(cmd.hasOption(OPT_OUTPUT)) {
+			File outputFile = new File(cmd.getOptionValue(OPT_OUTPUT));
+			boolean header = !outputFile.exists();
+			output = new PrintWriter(new FileWriter(outputFile, true));
+			if(header)
+				output.println(RunResult.CSV_HEADER);
+		}
+		
+		harness.start();
+		try {
+			for(String ackMode : split(cmd.getOptionValue(OPT_ACK_MODES, "auto")))
+				for(String ringSize : split(cmd.getOptionValue(OPT_RING_SIZES, "8192")))
+					for(String waitStrategy : split(cmd.getOptionValue(OPT_WAIT_STRATEGIES, "sleeping")))
+						for(String receiveMode : split(cmd.getOptionValue(OPT_RECEIVE_MODES, "push"))) {
+							Map<String, String> configuration = new LinkedHashMap<String, String>();
+							configuration.put("acknowledgeMode", ackMode);
+							configuration.put("ringBufferSize", ringSize);
+							configuration.put("waitStrategy", waitStrategy);
+							configuration.put("receiveMode", receiveMode);
+							
+							RunResult result = harness.run(configuration);
+							System.out.println(result);
+							if(output != null) {
+								output.println(result.toCsv());
+								output.flush();
+							}
+						}
+		} finally {
+			harness.stop();
+			if(output != null)
+				output.close();
+		}
+	}
+	
+}
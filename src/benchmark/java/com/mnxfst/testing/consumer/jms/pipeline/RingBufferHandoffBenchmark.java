@@ -0,0 +1,129 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.mnxfst.testing.consumer.jms.JMSConsumerHandler;
+import com.mnxfst.testing.consumer.jms.analyzer.EspPayloads;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.pipeline.RingBufferConfiguration.ClaimStrategyType;
+import com.mnxfst.testing.consumer.jms.pipeline.RingBufferConfiguration.WaitStrategyType;
+
+/**
+ * Measures handing a message over from the receiving thread to a {@link BatchEventProcessor} for each wait 
+ * strategy. Messages are published through {@link JMSConsumerHandler#publish(Message, int)}, thus the statistics
+ * and timestamp extraction of the handler are included. <i>publish</i> 
+ * measures the throughput of the receiving side - including back pressure once the ring buffer is full - while 
+ * <i>roundTrip</i> waits until the processor has seen the event and thus measures the wake-up latency. The
+ * ring buffer uses a single threaded claim strategy, thus there must be exactly one benchmark thread
+ * @author mnxfst
+ * @since 21.03.2012
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RingBufferHandoffBenchmark {
+
+	@Param({"BUSY_SPIN", "YIELDING", "SLEEPING", "BLOCKING"})
+	public WaitStrategyType waitStrategy;
+	
+	@Param({"8192"})
+	public int ringBufferSize;
+	
+	private RingBuffer<JMSMessageEvent> ringBuffer;
+	private BatchEventProcessor<JMSMessageEvent> processor;
+	private Thread processorThread;
+	private HandoffHandler handler;
+	private Message message;
+	
+	/**
+	 * Publishes through the consumer handler without connecting to a provider
+	 */
+	private static class HandoffHandler extends JMSConsumerHandler {
+		
+		private HandoffHandler(RingBuffer<JMSMessageEvent> ringBuffer) {
+			initializePublishing(ringBuffer);
+		}
+		
+		private long publish(Message message) {
+			return publish(message, 0);
+		}
+	}
+	
+	@Setup
+	public void setup() throws JMSException {
+		ActiveMQTextMessage textMessage = new ActiveMQTextMessage();
+		textMessage.setText(EspPayloads.sample(true));
+		message = textMessage;
+		ringBuffer = new RingBufferConfiguration(ringBufferSize, waitStrategy, ClaimStrategyType.SINGLE_THREADED).createRingBuffer();
+		processor = new BatchEventProcessor<JMSMessageEvent>(ringBuffer, ringBuffer.newBarrier(), new EventHandler<JMSMessageEvent>() {
+			private long length = 0;
+			public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+				// touch the event as an analyzer would
+				length += event.getCharsLength();
+			}
+		});
+		ringBuffer.setGatingSequences(processor.getSequence());
+		handler = new HandoffHandler(ringBuffer);
+		processorThread = new Thread(processor, "benchmark-processor");
+		processorThread.setDaemon(true);
+		processorThread.start();
+	}
+	
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		processor.halt();
+		processorThread.join(5000);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	public long publish() {
+		return handler.publish(message);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public long roundTrip() {
+		long sequence = handler.publish(message);
+		while(processor.getSequence().get() < sequence)
+			; // spin, any back off would add to the measured latency
+		return sequence;
+	}
+	
+}
@@ -21,16 +21,18 @@ package com.mnxfst.testing.consumer.jms;
 import java.util.List;
 import java.util.Map;
 
-import javax.jms.Message;
-
+import com.lmax.disruptor.EventHandler;
 import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
 
 /**
- * Provides an analyzer for selected messages received from a JMS destination
+ * Provides an analyzer for selected messages received from a JMS destination. Analyzers are attached to the
+ * ring buffer as event handlers and receive each {@link JMSMessageEvent} published by the consumer. Results
+ * which must be available to subsequent analyzers are attached to the event 
  * @author mnxfst
  * @since 22.02.2012
  */
-public interface IMessageAnalyzer extends Runnable {
+public interface IMessageAnalyzer extends EventHandler<JMSMessageEvent> {
 
 	/**
 	 * Initializes the analyzer
@@ -38,12 +40,6 @@ public interface IMessageAnalyzer extends Runnable {
 	 */
 	public void initialize(Map<String, List<String>> configuration) throws AsyncInputConsumerException;
 	
-	/**
-	 * Processes the incoming message
-	 * @param message
-	 */
-	public void onMessage(Message message);
-	
 	/**
 	 * Shutsdown the message analyzer
 	 */
@@ -19,17 +19,22 @@
 
 package com.mnxfst.testing.consumer.jms;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
@@ -46,16 +51,25 @@ import javax.naming.NamingException;
 
 import org.apache.log4j.Logger;
 
-import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.BatchDescriptor;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.SequenceBarrier;
-import com.lmax.disruptor.SingleThreadedClaimStrategy;
-import com.lmax.disruptor.SleepingWaitStrategy;
 import com.mnxfst.testing.consumer.async.AsyncInputConsumerStatistics;
 import com.mnxfst.testing.consumer.async.IAsyncInputConsumer;
 import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
-import com.mnxfst.testing.consumer.jms.analyzer.ESPMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.ack.AcknowledgeMode;
+import com.mnxfst.testing.consumer.jms.ack.BatchAcknowledger;
+import com.mnxfst.testing.consumer.jms.destination.DestinationRegistry;
 import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.flow.FlowController;
+import com.mnxfst.testing.consumer.jms.flow.PrefetchConfigurer;
+import com.mnxfst.testing.consumer.jms.journal.JournalWriter;
+import com.mnxfst.testing.consumer.jms.pipeline.MessageAnalyzerPipeline;
+import com.mnxfst.testing.consumer.jms.pipeline.RingBufferConfiguration;
+import com.mnxfst.testing.consumer.jms.runtime.ConsumerRuntime;
+import com.mnxfst.testing.consumer.jms.sampling.MessageSampler;
+import com.mnxfst.testing.consumer.jms.shard.ShardSelector;
+import com.mnxfst.testing.consumer.jms.stats.ConsumerStatisticsCollector;
+import com.mnxfst.testing.consumer.jms.stats.DeliveryTimestampExtractor;
 
 /**
  * Implements a simple JMS destination consumer 
@@ -70,6 +84,11 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 		TOPIC, QUEUE;
 	}
 	
+	/** push: the provider dispatches to a message listener, pull: dedicated threads receive in batches */
+	private enum ReceiveMode implements Serializable {
+		PUSH, PULL;
+	}
+	
 	private static final String REQUEST_PARAMETER_INITIAL_CONTEXT_FACTORY = "initialCtxFactory";
 	private static final String REQUEST_PARAMETER_CONNECTION_FACTORY_NAME = "connectionFactoryName";
 	private static final String REQUEST_PARAMETER_JMS_DESTINATION = "destination";
@@ -78,34 +97,96 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 	private static final String REQUEST_PARAMETER_SECURITY_CREDENTIALS = "secCredentials";
 	private static final String REQUEST_PARAMETER_JMS_DESTINATION_TYPE = "type";
 	private static final String REQUEST_PARAMETER_JMS_MESSAGE_SELECTOR = "messageSelector";
-	
+	private static final String REQUEST_PARAMETER_JMS_CONSUMERS = "consumers";
+	private static final String REQUEST_PARAMETER_ACKNOWLEDGE_MODE = "acknowledgeMode";
+	private static final String REQUEST_PARAMETER_ACK_BATCH_SIZE = "ackBatchSize";
+	/** maximum age of a batch in millis. In push mode it is checked on the next delivery only, thus a batch left over 
+	 * from an idle period is completed once the next message arrives or on shutdown */
+	private static final String REQUEST_PARAMETER_ACK_BATCH_TIMEOUT = "ackBatchTimeout";
+	private static final String REQUEST_PARAMETER_RECEIVE_MODE = "receiveMode";
+	private static final String REQUEST_PARAMETER_RECEIVE_BATCH_SIZE = "receiveBatchSize";
+	private static final String REQUEST_PARAMETER_RECEIVE_TIMEOUT = "receiveTimeout";
+	private static final String REQUEST_PARAMETER_FLOW_CONTROL = "flowControl";
+	private static final String REQUEST_PARAMETER_FLOW_HIGH_WATERMARK = "flowHighWatermark";
+	private static final String REQUEST_PARAMETER_FLOW_LOW_WATERMARK = "flowLowWatermark";
+	private static final String REQUEST_PARAMETER_FLOW_CHECK_INTERVAL = "flowCheckInterval";
+	private static final String REQUEST_PARAMETER_PREFETCH = "prefetch";
+	private static final String REQUEST_PARAMETER_RUNTIME = "runtime";
+	private static final String REQUEST_PARAMETER_MAX_DESTINATIONS = "maxDestinations";
+	private static final String REQUEST_PARAMETER_JOURNAL_DIRECTORY = "journalDirectory";
+	private static final String REQUEST_PARAMETER_JOURNAL_NAME = "journalName";
+	private static final String REQUEST_PARAMETER_JOURNAL_SEGMENT_SIZE = "journalSegmentSize";
+	private static final String REQUEST_PARAMETER_PRODUCER_TIMESTAMP_PROPERTY = "producerTimestampProperty";
+	private static final String REQUEST_PARAMETER_PRODUCER_TIMESTAMP_UNIT = "producerTimestampUnit";
+
 	private static final String REQUEST_PARAMETER_VENDOR_SPECIFC_PREFIX = "vendor-";
 	private static final String REQUEST_PARAMETER_JMS_MESSAGE_ANALYZERS = "jmsMsgAnalyzers";
-	
-	private static final String CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX = "consumer.async.jms.message-analyzer.";	
+	private static final String DEFAULT_JMS_MESSAGE_ANALYZER = "esp";
+	private static final int DEFAULT_ACK_BATCH_SIZE = 100;
+	private static final long DEFAULT_ACK_BATCH_TIMEOUT = 100;
+	/** time granted to the pipeline on shutdown for passing messages not yet acknowledged */
+	private static final long ACK_SHUTDOWN_TIMEOUT = 5000;
+	private static final int DEFAULT_RECEIVE_BATCH_SIZE = 64;
+	private static final long DEFAULT_RECEIVE_TIMEOUT = 100;
+	/** time granted to pull mode receivers on shutdown for publishing their current batch */
+	private static final long RECEIVER_SHUTDOWN_TIMEOUT = 5000;
+	/** time granted to the pipeline on shutdown for analyzing the messages received */
+	private static final long PIPELINE_DRAIN_TIMEOUT = 5000;
+	/** time granted to the executor on shutdown for finishing its threads */
+	private static final long EXECUTOR_SHUTDOWN_TIMEOUT = 1000;
+	/** time granted to each thread of the shared runtime for finishing its pass when released by the last consumer */
+	private static final long RUNTIME_HALT_TIMEOUT = 1000;
+	private static final double DEFAULT_FLOW_HIGH_WATERMARK = 0.9;
+	private static final double DEFAULT_FLOW_LOW_WATERMARK = 0.5;
+	private static final long DEFAULT_FLOW_CHECK_INTERVAL = 5;
+	private static final String DEFAULT_JOURNAL_NAME = "messages";
+	private static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
 	
 	private String id = null;
 	private String type = null;
 
 	private ConnectionFactory connectionFactory = null;
 	private Connection connection = null;
-	private Session session = null;
-	private Destination destination = null;
+	private List<Session> sessions = new ArrayList<Session>();
+	private List<Destination> destinations = new ArrayList<Destination>();
+	private DestinationRegistry destinationRegistry = null;
 	private JMSDestinationType jmsDestinationType = JMSDestinationType.QUEUE;
 	private String messageSelector = null;
+	private int numberOfConsumers = 1;
+	private AcknowledgeMode acknowledgeMode = AcknowledgeMode.AUTO;
+	private int ackBatchSize = DEFAULT_ACK_BATCH_SIZE;
+	private long ackBatchTimeout = DEFAULT_ACK_BATCH_TIMEOUT;
+	private List<BatchAcknowledger> acknowledgers = new ArrayList<BatchAcknowledger>();
+	private ReceiveMode receiveMode = ReceiveMode.PUSH;
+	private int receiveBatchSize = DEFAULT_RECEIVE_BATCH_SIZE;
+	private long receiveTimeout = DEFAULT_RECEIVE_TIMEOUT;
+	private List<PullMessageReceiver> receivers = new ArrayList<PullMessageReceiver>();
+	private boolean flowControl = false;
+	private double flowHighWatermark = DEFAULT_FLOW_HIGH_WATERMARK;
+	private double flowLowWatermark = DEFAULT_FLOW_LOW_WATERMARK;
+	private long flowCheckInterval = DEFAULT_FLOW_CHECK_INTERVAL;
+	/** messages pushed to a consumer ahead of delivery, 0 for the provider's default */
+	private int prefetch = 0;
+	private FlowController flowController = null;
+	private MessageSampler messageSampler = null;
+	private JournalWriter journalWriter = null;
+	private boolean sharedRuntime = false;
+	private ConsumerRuntime consumerRuntime = null;
 	
-	private int messagesReceived = 0;
 	private boolean running = false; 
 	
 	
 //	private static ExecutorService jmsMessageAnalyzerExecService = Executors.newCachedThreadPool();
 //	private static ConcurrentMap<String, IMessageAnalyzer> runningAnalyzers = new ConcurrentHashMap<String, IMessageAnalyzer>();
 
-	private Set<String> activatedAnalyzers = new HashSet<String>(); // TODO maybe we could get the other ones to sleep
+	private Set<String> activatedAnalyzers = new LinkedHashSet<String>(); // TODO maybe we could get the other ones to sleep
 
 	private RingBuffer<JMSMessageEvent> jmsMessageEventRingBuffer = null;
-	private final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4);
-	private static final int BUFFER_SIZE = 1024 * 8;
+	private MessageAnalyzerPipeline messageAnalyzerPipeline = null;
+	private ConsumerStatisticsCollector statisticsCollector = null;
+	private DeliveryTimestampExtractor deliveryTimestampExtractor = null;
+	/** runs the event processors and receivers, sized to their number */
+	private ExecutorService executor = null;
 	
 
 	
@@ -128,11 +209,32 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 		if(providerUrl == null || providerUrl.isEmpty())
 			throw new AsyncInputConsumerException("Missing required provider url");
 		
-		String jmsDestination = extractSingleString(REQUEST_PARAMETER_JMS_DESTINATION, properties);
-		if(jmsDestination == null || jmsDestination.isEmpty())
+		// destinations may be provided as multiple parameter values or as comma separated list 
+		List<String> jmsDestinations = new ArrayList<String>();
+		String[] destinationValues = extractMultiParameterValues(REQUEST_PARAMETER_JMS_DESTINATION, properties);
+		if(destinationValues != null) {
+			for(String destinationValue : destinationValues)
+				for(String name : destinationValue.split(","))
+					if(!name.trim().isEmpty() && !jmsDestinations.contains(name.trim()))
+						jmsDestinations.add(name.trim());
+		}
+		if(jmsDestinations.isEmpty())
 			throw new AsyncInputConsumerException("Missing required JMS destination lookup name");
 		
-		String tmp = extractSingleString(REQUEST_PARAMETER_JMS_DESTINATION_TYPE, properties);
+		int maxDestinations = DestinationRegistry.DEFAULT_MAX_DESTINATIONS;
+		String tmp = extractSingleString(REQUEST_PARAMETER_MAX_DESTINATIONS, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				maxDestinations = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid maximum number of destinations: " + tmp);
+			}
+		}
+		if(maxDestinations < jmsDestinations.size())
+			throw new AsyncInputConsumerException("Invalid maximum number of destinations: " + maxDestinations + ". At least " + jmsDestinations.size() + " destinations are subscribed");
+		destinationRegistry = new DestinationRegistry(maxDestinations);
+		
+		tmp = extractSingleString(REQUEST_PARAMETER_JMS_DESTINATION_TYPE, properties);
 		if(tmp != null && tmp.trim().equalsIgnoreCase("topic"))
 			jmsDestinationType = JMSDestinationType.TOPIC;
 		else
@@ -140,6 +242,182 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 		
 		messageSelector = extractSingleString(REQUEST_PARAMETER_JMS_MESSAGE_SELECTOR, properties);
 		
+		// nodes sharing a destination may each select their own shard of it
+		ShardSelector shardSelector = ShardSelector.fromProperties(properties);
+		if(shardSelector != null) {
+			logger.info("jmsConsumer[id="+id+", type="+type+"]: " + shardSelector);
+			messageSelector = shardSelector.combine(messageSelector);
+		}
+
+		tmp = extractSingleString(REQUEST_PARAMETER_JMS_CONSUMERS, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				numberOfConsumers = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid number of consumers: " + tmp);
+			}
+			if(numberOfConsumers < 1)
+				throw new AsyncInputConsumerException("Invalid number of consumers: " + numberOfConsumers);
+		}
+
+		// each subscriber of a topic receives a copy of every message, thus multiple consumers would only duplicate the input
+		if(jmsDestinationType == JMSDestinationType.TOPIC && numberOfConsumers > 1) {
+			logger.warn("jmsConsumer[id="+id+", type="+type+"]: multiple consumers are not supported for topics. Using a single consumer instead of " + numberOfConsumers);
+			numberOfConsumers = 1;
+		}
+
+		tmp = extractSingleString(REQUEST_PARAMETER_ACKNOWLEDGE_MODE, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			acknowledgeMode = AcknowledgeMode.fromName(tmp);
+			if(acknowledgeMode == null)
+				throw new AsyncInputConsumerException("Unsupported acknowledge mode: " + tmp);
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_ACK_BATCH_SIZE, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				ackBatchSize = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid acknowledge batch size: " + tmp);
+			}
+			if(ackBatchSize < 1)
+				throw new AsyncInputConsumerException("Invalid acknowledge batch size: " + ackBatchSize);
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_ACK_BATCH_TIMEOUT, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				ackBatchTimeout = Long.parseLong(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid acknowledge batch timeout: " + tmp);
+			}
+			if(ackBatchTimeout < 1)
+				throw new AsyncInputConsumerException("Invalid acknowledge batch timeout: " + ackBatchTimeout);
+		}
+
+		tmp = extractSingleString(REQUEST_PARAMETER_RECEIVE_MODE, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			if(tmp.trim().equalsIgnoreCase("pull"))
+				receiveMode = ReceiveMode.PULL;
+			else if(tmp.trim().equalsIgnoreCase("push"))
+				receiveMode = ReceiveMode.PUSH;
+			else
+				throw new AsyncInputConsumerException("Unsupported receive mode: " + tmp + ". Supported: push, pull");
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_RECEIVE_BATCH_SIZE, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				receiveBatchSize = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid receive batch size: " + tmp);
+			}
+			if(receiveBatchSize < 1)
+				throw new AsyncInputConsumerException("Invalid receive batch size: " + receiveBatchSize);
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_RECEIVE_TIMEOUT, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				receiveTimeout = Long.parseLong(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid receive timeout: " + tmp);
+			}
+			if(receiveTimeout < 1)
+				throw new AsyncInputConsumerException("Invalid receive timeout: " + receiveTimeout);
+		}
+
+		tmp = extractSingleString(REQUEST_PARAMETER_FLOW_CONTROL, properties);
+		flowControl = (tmp != null && tmp.trim().equalsIgnoreCase("true"));
+		tmp = extractSingleString(REQUEST_PARAMETER_FLOW_HIGH_WATERMARK, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				flowHighWatermark = Double.parseDouble(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid flow control high watermark: " + tmp);
+			}
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_FLOW_LOW_WATERMARK, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				flowLowWatermark = Double.parseDouble(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid flow control low watermark: " + tmp);
+			}
+		}
+		if(flowHighWatermark <= 0 || flowHighWatermark > 1 || flowLowWatermark < 0 || flowLowWatermark >= flowHighWatermark)
+			throw new AsyncInputConsumerException("Invalid flow control watermarks: high = " + flowHighWatermark + ", low = " + flowLowWatermark + ". Both must be fractions of the ring buffer size with 0 <= low < high <= 1");
+		tmp = extractSingleString(REQUEST_PARAMETER_FLOW_CHECK_INTERVAL, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				flowCheckInterval = Long.parseLong(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid flow control check interval: " + tmp);
+			}
+			if(flowCheckInterval < 1)
+				throw new AsyncInputConsumerException("Invalid flow control check interval: " + flowCheckInterval);
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_RUNTIME, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			// analyzers of all consumers sharing the runtime are polled by a bounded set of threads
+			if(tmp.trim().equalsIgnoreCase("shared"))
+				sharedRuntime = true;
+			else if(!tmp.trim().equalsIgnoreCase("dedicated"))
+				throw new AsyncInputConsumerException("Unsupported runtime: " + tmp + ". Supported: dedicated, shared");
+		}
+		tmp = extractSingleString(REQUEST_PARAMETER_PREFETCH, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				prefetch = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid prefetch: " + tmp);
+			}
+			if(prefetch < 1)
+				throw new AsyncInputConsumerException("Invalid prefetch: " + prefetch);
+		}
+
+		// under overload a sample of the messages may be analyzed only
+		messageSampler = MessageSampler.fromProperties(properties);
+		if(messageSampler != null)
+			logger.info("jmsConsumer[id="+id+", type="+type+"]: " + messageSampler);
+
+		// received messages may be recorded for replaying them later on
+		String journalDirectory = extractSingleString(REQUEST_PARAMETER_JOURNAL_DIRECTORY, properties);
+		String journalName = extractSingleString(REQUEST_PARAMETER_JOURNAL_NAME, properties);
+		if(journalName == null || journalName.trim().isEmpty())
+			journalName = DEFAULT_JOURNAL_NAME;
+		int journalSegmentSize = DEFAULT_JOURNAL_SEGMENT_SIZE;
+		if(journalDirectory != null && !journalDirectory.trim().isEmpty()) {
+			// messages are journaled once published, thus a sampled journal would miss the skipped ones
+			if(messageSampler != null)
+				throw new AsyncInputConsumerException("Journaling requires all messages to be published. Disable the sampling or the journal");
+			tmp = extractSingleString(REQUEST_PARAMETER_JOURNAL_SEGMENT_SIZE, properties);
+			if(tmp != null && !tmp.trim().isEmpty()) {
+				try {
+					journalSegmentSize = Integer.parseInt(tmp.trim());
+				} catch(NumberFormatException e) {
+					throw new AsyncInputConsumerException("Invalid journal segment size: " + tmp);
+				}
+				if(journalSegmentSize <= JournalWriter.HEADER_SIZE)
+					throw new AsyncInputConsumerException("Invalid journal segment size: " + journalSegmentSize);
+			}
+		}
+
+		// producers may attach a send timestamp of higher resolution than the JMSTimestamp
+		String producerTimestampProperty = extractSingleString(REQUEST_PARAMETER_PRODUCER_TIMESTAMP_PROPERTY, properties);
+		tmp = extractSingleString(REQUEST_PARAMETER_PRODUCER_TIMESTAMP_UNIT, properties);
+		TimeUnit producerTimestampUnit = DeliveryTimestampExtractor.parseTimeUnit(tmp);
+		if(producerTimestampUnit == null)
+			throw new AsyncInputConsumerException("Unsupported producer timestamp unit: " + tmp + ". Supported: ms, us, ns");
+		deliveryTimestampExtractor = new DeliveryTimestampExtractor((producerTimestampProperty != null && !producerTimestampProperty.trim().isEmpty() ? producerTimestampProperty.trim() : null), producerTimestampUnit);
+
+		// analyzers may be provided as multiple parameter values or as comma separated list 
+		String[] analyzerNames = extractMultiParameterValues(REQUEST_PARAMETER_JMS_MESSAGE_ANALYZERS, properties);
+		if(analyzerNames != null) {
+			for(String analyzerName : analyzerNames)
+				for(String name : analyzerName.split(","))
+					if(!name.trim().isEmpty())
+						activatedAnalyzers.add(name.trim());
+		}
+		if(activatedAnalyzers.isEmpty())
+			activatedAnalyzers.add(DEFAULT_JMS_MESSAGE_ANALYZER);
+
 		String securityPrincipal = extractSingleString(REQUEST_PARAMETER_SECURITY_PRINCIPAL, properties);
 		String securityCredentials = extractSingleString(REQUEST_PARAMETER_SECURITY_CREDENTIALS, properties);
 		
@@ -154,57 +432,139 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 		
 		jndiEnvironment.putAll(extractVendorSpecificValues(properties));
 
-		logger.info("JMSType: " + jmsDestinationType + ", selector = " + messageSelector);
+		logger.info("JMSType: " + jmsDestinationType + ", selector = " + messageSelector + ", consumers = " + numberOfConsumers + ", acknowledgeMode = " + acknowledgeMode.getName() + (acknowledgeMode.isBatched() ? " (batchSize = " + ackBatchSize + ", batchTimeout = " + ackBatchTimeout + "ms)" : "") + ", receiveMode = " + receiveMode + (receiveMode == ReceiveMode.PULL ? " (batchSize = " + receiveBatchSize + ", timeout = " + receiveTimeout + "ms)" : ""));
 		
 		if(logger.isDebugEnabled())
-			logger.debug("jmsConsumer[id="+id+", type="+type+", initialCtxFactory="+initialContextFactoryClass+", connectionFactory="+connectionFactoryName+", providerUrl="+providerUrl+", jmsDestination="+jmsDestination+", type="+jmsDestinationType+", selector=("+messageSelector+")]");
+			logger.debug("jmsConsumer[id="+id+", type="+type+", initialCtxFactory="+initialContextFactoryClass+", connectionFactory="+connectionFactoryName+", providerUrl="+providerUrl+", jmsDestinations="+jmsDestinations+", type="+jmsDestinationType+", selector=("+messageSelector+")]");
 
+		// nothing must be left running if the consumer cannot be set up completely
+		boolean initialized = false;
 		try {
+			// multiple consumers publish concurrently into the ring buffer and thus require a multi-threaded claim strategy
+			int numberOfPublishers = numberOfConsumers * jmsDestinations.size();
+			RingBufferConfiguration ringBufferConfiguration = RingBufferConfiguration.fromProperties(properties, numberOfPublishers);
+			logger.info("jmsConsumer[id="+id+", type="+type+"]: " + ringBufferConfiguration);
+			jmsMessageEventRingBuffer = ringBufferConfiguration.createRingBuffer();
+			// a batch can never claim more sequences than the ring buffer holds
+			if(receiveBatchSize > jmsMessageEventRingBuffer.getBufferSize())
+				receiveBatchSize = jmsMessageEventRingBuffer.getBufferSize();
+			// with flow control the messages prefetched by all consumers must fit into the room left above the high watermark
+			if(flowControl && prefetch == 0) {
+				int bufferSize = jmsMessageEventRingBuffer.getBufferSize();
+				prefetch = Math.max(1, (int)((bufferSize - (long)(bufferSize * flowHighWatermark)) / numberOfPublishers));
+			}
+			statisticsCollector = new ConsumerStatisticsCollector(jmsMessageEventRingBuffer);
+			statisticsCollector.setDestinationRegistry(destinationRegistry);
+			if(sharedRuntime)
+				consumerRuntime = ConsumerRuntime.getSharedRuntime();
+			messageAnalyzerPipeline = new MessageAnalyzerPipeline(jmsMessageEventRingBuffer, statisticsCollector, consumerRuntime);
+			if(consumerRuntime != null)
+				logger.info("jmsConsumer[id="+id+", type="+type+"]: " + consumerRuntime);
+			messageAnalyzerPipeline.initialize(activatedAnalyzers, properties);
+			if(messageSampler != null) {
+				messageSampler.setRingBuffer(jmsMessageEventRingBuffer, messageAnalyzerPipeline.getGatingSequences());
+				statisticsCollector.setMessageSampler(messageSampler);
+			}
+		
+			if(journalDirectory != null && !journalDirectory.trim().isEmpty()) {
+				try {
+					journalWriter = new JournalWriter(new File(journalDirectory.trim()), journalName.trim(), journalSegmentSize);
+				} catch(IOException e) {
+					throw new AsyncInputConsumerException("Failed to open journal " + journalName + " in " + journalDirectory + ". Error: " + e.getMessage());
+				}
+				logger.info("jmsConsumer[id="+id+", type="+type+"]: journal = " + journalDirectory.trim() + "/" + journalName.trim() + ", segmentSize = " + journalSegmentSize);
+			}
+
 			// create initial context from collected settings
 			InitialContext ctx = new InitialContext(jndiEnvironment);
 			
 			// lookup connection factory, create a connection and create a new session
 			connectionFactory = (ConnectionFactory)ctx.lookup(connectionFactoryName);
+			if(prefetch > 0) {
+				if(PrefetchConfigurer.configure(connectionFactory, prefetch))
+					logger.info("jmsConsumer[id="+id+", type="+type+"]: prefetch = " + prefetch);
+				else
+					logger.warn("jmsConsumer[id="+id+", type="+type+"]: prefetch is not supported for connection factory " + connectionFactory.getClass().getName());
+			}
 			connection = connectionFactory.createConnection();
 			try {
 				connection.setClientID("jmsConsumer@"+InetAddress.getLocalHost().getHostName());
 			} catch(Exception e) {
 				logger.error("jmsConsumer[id="+this.id+", type="+this.type+"]: host name lookup failed. Client id will not be set for JMS connection. Error: " + e.getMessage());
 			}
-			session = connection.createSession(false,  Session.AUTO_ACKNOWLEDGE);
 			
-			// find desired destination and create a message consumer
-			destination = (Destination)ctx.lookup(jmsDestination);
+			// listeners are paused by stopping the connection, receivers check the flow controller on their own
+			if(flowControl) {
+				flowController = new FlowController(jmsMessageEventRingBuffer, messageAnalyzerPipeline.getGatingSequences(), (receiveMode == ReceiveMode.PUSH ? connection : null), flowHighWatermark, flowLowWatermark, flowCheckInterval, statisticsCollector);
+				logger.info("jmsConsumer[id="+id+", type="+type+"]: " + flowController);
+			}
 			
-			switch(jmsDestinationType) {
-				case TOPIC: {
+			// find desired destinations, each one is assigned the index of its subscription
+			for(String jmsDestination : jmsDestinations) {
+				Destination destination = (Destination)ctx.lookup(jmsDestination);
+				int index = destinationRegistry.register(destination);
+				if(index < 0)
+					throw new AsyncInputConsumerException("Destination '"+jmsDestination+"' exceeds the maximum number of destinations: " + destinationRegistry.getMaxDestinations());
+				if(index != destinations.size())
+					throw new AsyncInputConsumerException("Destination '"+jmsDestination+"' is subscribed more than once");
+				destinations.add(destination);
+			}
+			
+			// create a session along with a message consumer for each configured consumer and destination. all of them feed the same 
+			// ring buffer. batched acknowledgements and commits are tracked per session as both cover all messages of a session
+			for(int i = 0; i < numberOfConsumers; i++) {
+				for(int d = 0; d < destinations.size(); d++) {
+					Session session = connection.createSession(acknowledgeMode.isTransacted(), acknowledgeMode.getSessionMode());
+					sessions.add(session);
+					BatchAcknowledger batchAcknowledger = null;
+					if(acknowledgeMode.isBatched()) {
+						batchAcknowledger = new BatchAcknowledger(session, acknowledgeMode.isTransacted(), messageAnalyzerPipeline.getGatingSequences(), ackBatchSize, ackBatchTimeout);
+						// receivers close their acknowledgers on their own thread
+						if(receiveMode != ReceiveMode.PULL)
+							acknowledgers.add(batchAcknowledger);
+					}
 					
-					TopicSubscriber topicMessageConsumer = null;
-					if(messageSelector != null && !messageSelector.isEmpty()) {
-						topicMessageConsumer = (TopicSubscriber)session.createConsumer(destination, messageSelector);
-						logger.info("topicMessageConsumer[destination="+jmsDestination+", messageSelector="+messageSelector+"]");
+					MessageConsumer messageConsumer = createMessageConsumer(session, destinations.get(d), jmsDestinations.get(d));
+					final int subscriptionIndex = d;
+					if(receiveMode == ReceiveMode.PULL) {
+						receivers.add(new PullMessageReceiver("jmsConsumer[id="+id+", type="+type+", receiver="+i+", destination="+jmsDestinations.get(d)+"]", this, messageConsumer, subscriptionIndex, batchAcknowledger, flowController, receiveBatchSize, receiveTimeout, ACK_SHUTDOWN_TIMEOUT));
+					} else if(batchAcknowledger != null) {
+						final BatchAcknowledger acknowledger = batchAcknowledger;
+						messageConsumer.setMessageListener(new MessageListener() {
+							public void onMessage(Message message) {
+								try {
+									acknowledger.messageReceived(message, publish(message, subscriptionIndex));
+								} catch(JMSException e) {
+									logger.error("jmsConsumer[id="+id+", type="+type+"]: failed to "+(acknowledgeMode.isTransacted() ? "commit" : "acknowledge")+" messages. Error: " + e.getMessage());
+								}
+							}
+						});
+					} else if(subscriptionIndex == 0) {
+						messageConsumer.setMessageListener(this);
 					} else {
-						topicMessageConsumer = (TopicSubscriber)session.createConsumer(destination);
-						logger.info("topicMessageConsumer[destination="+jmsDestination+", messageSelector=not provided]");
+						messageConsumer.setMessageListener(new MessageListener() {
+							public void onMessage(Message message) {
+								publish(message, subscriptionIndex);
+							}
+						});
 					}
-					topicMessageConsumer.setMessageListener(this);
-					break;
 				}
-				default: {
-					MessageConsumer messageConsumer = session.createConsumer(destination);
-					messageConsumer.setMessageListener(this);
-					logger.info("queueMessageConsumer[destination="+jmsDestination+"]");
-				}
-			}	
-			
-			
+			}
 			
-			// start listening
+			// each event processor and receiver occupies a thread of its own, processors polled by the runtime do not
+			executor = Executors.newFixedThreadPool(Math.max(1, messageAnalyzerPipeline.getNumberOfEventProcessors() + receivers.size()));
+			// the analyzing pipeline must be up before the first message is delivered
+			messageAnalyzerPipeline.start(executor);
 			connection.start();
+			for(PullMessageReceiver receiver : receivers)
+				executor.submit(receiver);
+			if(flowController != null)
+				flowController.start();
 
 			if(logger.isDebugEnabled())
-				logger.debug("jmsConsumer[id="+this.id+", type="+this.type+", providerUrl="+providerUrl+", jmsDestination="+destination+", initialCtxFactory="+initialContextFactoryClass+", connectionFactoryName="+connectionFactoryName+", clientId="+connection.getClientID()+"]");//, analyzers="+runningAnalyzers.size()+"]");
-			logger.info("jmsConsumer[id="+this.id+", type="+this.type+", providerUrl="+providerUrl+", jmsDestination="+destination+", initialCtxFactory="+initialContextFactoryClass+", connectionFactoryName="+connectionFactoryName+", clientId="+connection.getClientID()+"]");//, analyzers="+runningAnalyzers.size()+"]");
+				logger.debug("jmsConsumer[id="+this.id+", type="+this.type+", providerUrl="+providerUrl+", jmsDestinations="+jmsDestinations+", initialCtxFactory="+initialContextFactoryClass+", connectionFactoryName="+connectionFactoryName+", clientId="+connection.getClientID()+", consumers="+numberOfConsumers+", acknowledgeMode="+acknowledgeMode.getName()+", analyzers="+activatedAnalyzers+"]");
+			logger.info("jmsConsumer[id="+this.id+", type="+this.type+", providerUrl="+providerUrl+", jmsDestinations="+jmsDestinations+", initialCtxFactory="+initialContextFactoryClass+", connectionFactoryName="+connectionFactoryName+", clientId="+connection.getClientID()+", consumers="+numberOfConsumers+", analyzers="+activatedAnalyzers+"]");
+			initialized = true;
 
 		} catch(NamingException e) {
 			logger.error("Failed to initialize naming context, lookup required objects and establish a connection. Error: " + e.getMessage(), e);
@@ -212,19 +572,71 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 		} catch (JMSException e) {
 			logger.error("Failed to initialize naming context, lookup required objects and establish a connection. Error: " + e.getMessage(), e);
 			throw new AsyncInputConsumerException("Failed to initialize naming context, lookup required objects and establish a connection. Error: " + e.getMessage());
+		} finally {
+			if(!initialized)
+				abortInitialization();
 		}
 		
-		jmsMessageEventRingBuffer = new RingBuffer<JMSMessageEvent>(JMSMessageEvent.EVENT_FACTORY, new SingleThreadedClaimStrategy(BUFFER_SIZE), new SleepingWaitStrategy());
-		SequenceBarrier barrier = jmsMessageEventRingBuffer.newBarrier();
-		ESPMessageAnalyzer analyzer = new ESPMessageAnalyzer();
-		analyzer.initialize(properties);
-		BatchEventProcessor<JMSMessageEvent> eventProcessor = new BatchEventProcessor<JMSMessageEvent>(jmsMessageEventRingBuffer, barrier, analyzer);
-		jmsMessageEventRingBuffer.setGatingSequences(eventProcessor.getSequence());
-		EXECUTOR.submit(eventProcessor);
 	}
 
+	/**
+	 * Releases whatever a failed initialization has set up already. Closing the connection closes its sessions 
+	 * and message consumers as well
+	 */
+	private void abortInitialization() {
+		if(flowController != null)
+			flowController.close();
+		for(PullMessageReceiver receiver : receivers)
+			receiver.stop(0);
+		if(connection != null) {
+			try {
+				connection.close();
+			} catch(JMSException e) {
+				logger.error("jmsConsumer[id="+id+", type="+type+"]: failed to close connection. Error: " + e.getMessage());
+			}
+		}
+		if(messageAnalyzerPipeline != null)
+			messageAnalyzerPipeline.shutdown();
+		if(journalWriter != null)
+			journalWriter.close();
+		if(executor != null)
+			executor.shutdownNow();
+		if(consumerRuntime != null) {
+			consumerRuntime.release(RUNTIME_HALT_TIMEOUT);
+			consumerRuntime = null;
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the current statistics, may be called at any time while consuming
+	 * @see com.mnxfst.testing.consumer.async.IAsyncInputConsumer#getConsumerStatistics()
+	 */
 	public AsyncInputConsumerStatistics getConsumerStatistics() {
-		return new AsyncInputConsumerStatistics();
+		ConsumerStatisticsCollector collector = statisticsCollector;
+		return (collector != null ? collector.snapshot() : new AsyncInputConsumerStatistics());
+	}
+
+	/**
+	 * Sets up publishing into the given ring buffer without connecting to a provider, thus the hand-off may be 
+	 * measured on its own. Messages are accounted to a single destination, delivery timestamps are taken from the
+	 * JMS headers only
+	 * @param ringBuffer
+	 */
+	protected void initializePublishing(RingBuffer<JMSMessageEvent> ringBuffer) {
+		this.jmsMessageEventRingBuffer = ringBuffer;
+		this.destinationRegistry = new DestinationRegistry(1);
+		this.statisticsCollector = new ConsumerStatisticsCollector(ringBuffer);
+		this.statisticsCollector.setDestinationRegistry(destinationRegistry);
+		this.deliveryTimestampExtractor = new DeliveryTimestampExtractor(null, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Discards the latencies recorded so far, eg. once the warmup messages have been analyzed. Counters are kept
+	 */
+	public void resetLatencies() {
+		ConsumerStatisticsCollector collector = statisticsCollector;
+		if(collector != null)
+			collector.resetLatencies();
 	}
 	
 
@@ -236,22 +648,162 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 
 
 	/**
+	 * Receives the messages of the first destination
 	 * @see javax.jms.MessageListener#onMessage(javax.jms.Message)
 	 */
 	public void onMessage(Message message) {
+		publish(message, 0);
+	}
+
+	/**
+	 * Copies the message into the next ring buffer event and publishes it 
+	 * @param message
+	 * @param subscriptionIndex index of the destination the message has been received through
+	 * @return the sequence the message was published with, -1 if its type is not supported or it was skipped by the sampling
+	 */
+	protected long publish(Message message, int subscriptionIndex) {
+		
+		long receivedNanos = System.nanoTime();
+		statisticsCollector.incrementMessagesReceived();
+		
+		if(message == null || !(message instanceof TextMessage || message instanceof BytesMessage)) {
+			if(message != null)
+				statisticsCollector.addDestinationMessagesReceived(destinationRegistry.resolve(message, subscriptionIndex), 1);
+			if(logger.isDebugEnabled())
+				logger.debug("jmsConsumer[id="+id+", type="+type+"]: unsupported message type " + (message != null ? message.getClass().getName() : "null"));
+			return -1;
+		}
+		int destinationIndex = destinationRegistry.resolve(message, subscriptionIndex);
+		statisticsCollector.addDestinationMessagesReceived(destinationIndex, 1);
+		
+		double sampleWeight = 1;
+		if(messageSampler != null) {
+			double samplingRate = messageSampler.getRate();
+			if(!messageSampler.sample(samplingRate)) {
+				statisticsCollector.incrementMessagesSkipped();
+				return -1;
+			}
+			sampleWeight = 1 / samplingRate;
+		}
+		
+		// a claimed sequence must be published in any case as the ring buffer would stall otherwise
+		long sequence = jmsMessageEventRingBuffer.next();
+		try {
+			copyToEvent(message, jmsMessageEventRingBuffer.get(sequence), sequence, receivedNanos, sampleWeight, destinationIndex);
+		} finally {
+			jmsMessageEventRingBuffer.publish(sequence);
+			statisticsCollector.incrementMessagesPublished();
+		}
+		return sequence;
+	}
+
+	/**
+	 * Copies a batch of messages into a single range of ring buffer events and publishes them at once. Messages
+	 * of unsupported types or skipped by the sampling are not published
+	 * @param messages
+	 * @param count number of messages in the array
+	 * @param batchDescriptors descriptors owned by the calling thread indexed by batch size, missing ones are created on demand
+	 * @param subscriptionIndex index of the destination the messages have been received through
+	 * @return the highest sequence published, -1 if none of the messages is published
+	 */
+	protected long publish(Message[] messages, int count, BatchDescriptor[] batchDescriptors, int subscriptionIndex) {
+		
+		long receivedNanos = System.nanoTime();
+		statisticsCollector.addMessagesReceived(count);
+		// messages received through a wildcard subscription are counted by the destination they have been sent to
+		boolean wildcard = destinationRegistry.isWildcard(subscriptionIndex);
+		if(!wildcard)
+			statisticsCollector.addDestinationMessagesReceived(subscriptionIndex, count);
+		
+		// the sampling rate is determined once for the whole batch
+		double samplingRate = (messageSampler != null ? messageSampler.getRate() : 1);
+		
+		// move the messages to be published to the head of the array
+		int supported = 0;
+		int skipped = 0;
+		for(int i = 0; i < count; i++) {
+			Message message = messages[i];
+			if(wildcard)
+				statisticsCollector.addDestinationMessagesReceived(destinationRegistry.resolve(message, subscriptionIndex), 1);
+			if(message instanceof TextMessage || message instanceof BytesMessage) {
+				if(messageSampler == null || messageSampler.sample(samplingRate))
+					messages[supported++] = message;
+				else
+					skipped++;
+			} else if(logger.isDebugEnabled()) {
+				logger.debug("jmsConsumer[id="+id+", type="+type+"]: unsupported message type " + (message != null ? message.getClass().getName() : "null"));
+			}
+		}
+		if(skipped > 0)
+			statisticsCollector.addMessagesSkipped(skipped);
+		if(supported == 0)
+			return -1;
+		
+		BatchDescriptor batchDescriptor = batchDescriptors[supported];
+		if(batchDescriptor == null) {
+			batchDescriptor = jmsMessageEventRingBuffer.newBatchDescriptor(supported);
+			batchDescriptors[supported] = batchDescriptor;
+		}
+		
+		// claimed sequences must be published in any case as the ring buffer would stall otherwise
+		jmsMessageEventRingBuffer.next(batchDescriptor);
+		try {
+			long sequence = batchDescriptor.getStart();
+			for(int i = 0; i < supported; i++, sequence++)
+				copyToEvent(messages[i], jmsMessageEventRingBuffer.get(sequence), sequence, receivedNanos, 1 / samplingRate, (wildcard ? destinationRegistry.resolve(messages[i], subscriptionIndex) : subscriptionIndex));
+		} finally {
+			jmsMessageEventRingBuffer.publish(batchDescriptor);
+			statisticsCollector.addMessagesPublished(supported);
+		}
+		return batchDescriptor.getEnd();
+	}
+
+	/**
+	 * Copies the content of the message into the buffers owned by the provided ring buffer event, thus the 
+	 * message may be collected right away. If the content cannot be read, the event is published
+	 * without payload and thus ignored by the analyzers
+	 * @param message
+	 * @param event
+	 * @param sequence
+	 * @param receivedNanos System.nanoTime() taken when the message was received
+	 * @param sampleWeight number of received messages the event stands for
+	 * @param destinationIndex index of the destination the message has been received from
+	 */
+	protected void copyToEvent(Message message, JMSMessageEvent event, long sequence, long receivedNanos, double sampleWeight, int destinationIndex) {
+		
+		event.clearFields();
+		event.setSequence(sequence);
+		event.setTimestamp(System.currentTimeMillis());
+		event.setReceivedNanos(receivedNanos);
+		event.setSampleWeight(sampleWeight);
+		event.setDestinationIndex(destinationIndex);
+		event.setValidity(JMSMessageEvent.VALIDITY_UNSET);
 		
 		try {
-			if(message != null && message instanceof TextMessage) {
-				long sequence = jmsMessageEventRingBuffer.next();
-				JMSMessageEvent event = jmsMessageEventRingBuffer.get(sequence);
+			deliveryTimestampExtractor.extract(message, event);
+			if(message instanceof BytesMessage) {
+				BytesMessage bytesMessage = (BytesMessage)message;
+				byte[] buffer = event.prepareBytes((int)bytesMessage.getBodyLength());
+				if(buffer != null) // null if dropped due to its size, a truncated payload is read up to the limit 
+					bytesMessage.readBytes(buffer, event.getBytesLength());
+			} else {
 				event.setMessageText(((TextMessage)message).getText());
-				event.setTimestamp(System.currentTimeMillis());
-				jmsMessageEventRingBuffer.publish(sequence);
 			}
+			if(event.isPayloadOverflow() && logger.isDebugEnabled())
+				logger.debug("Payload of event [sequence="+sequence+"] exceeds the maximum payload size");
 		} catch(JMSException e) {
-			logger.error("Failed to process JMS text message: " + e.getMessage());
+			event.clearPayload();
+			logger.error("Failed to process JMS message: " + e.getMessage());
 		}
 		
+		if(journalWriter != null) {
+			try {
+				journalWriter.append(event);
+			} catch(IOException e) {
+				// recording must not interfere with consuming
+				logger.error("Failed to journal JMS message: " + e.getMessage());
+			}
+		}
 	}
 
 
@@ -260,18 +812,100 @@ public class JMSConsumerHandler implements IAsyncInputConsumer, MessageListener
 	 */
 	public void shutdown() throws AsyncInputConsumerException {
 		running = false;
+		// must not restart the connection while shutting down
+		if(flowController != null)
+			flowController.close();
 		try {
+			// receivers must be done with their sessions - including the final batch - before closing
+			for(PullMessageReceiver receiver : receivers)
+				if(!receiver.stop(RECEIVER_SHUTDOWN_TIMEOUT + ACK_SHUTDOWN_TIMEOUT))
+					logger.warn("jmsConsumer[id="+id+", type="+type+"]: receiver did not stop within " + (RECEIVER_SHUTDOWN_TIMEOUT + ACK_SHUTDOWN_TIMEOUT) + "ms");
+			// once stopped the listener sessions are no longer dedicated to the dispatching thread, thus the
+			// pending batches may be acknowledged or committed from here before the sessions are gone
 			connection.stop();
-			session.close();
+			for(BatchAcknowledger acknowledger : acknowledgers)
+				acknowledger.close(ACK_SHUTDOWN_TIMEOUT);
+			try {
+				for(Session session : sessions)
+					session.close();
+			} finally {
+				// releases the client id, otherwise the broker rejects the next consumer using it
+				connection.close();
+			}
 		} catch (JMSException e) {
 			throw new AsyncInputConsumerException("Failed to shutdown " + JMSConsumerHandler.class.getName() + " (id="+id+") properly. Error: " + e.getMessage());
-		} 
+		} finally {
+			// nothing is appended anymore as the connection is stopped
+			if(journalWriter != null)
+				journalWriter.close();
+			if(messageAnalyzerPipeline != null) {
+				if(!messageAnalyzerPipeline.drain(PIPELINE_DRAIN_TIMEOUT))
+					logger.warn("jmsConsumer[id="+id+", type="+type+"]: pipeline did not drain within " + PIPELINE_DRAIN_TIMEOUT + "ms");
+				messageAnalyzerPipeline.shutdown();
+			}
+			// histograms are kept per consumer, thus runs do not accumulate
+			if(statisticsCollector != null)
+				statisticsCollector.getDeliveryLatencyRegistry().clear();
+			// processors and receivers have been halted, thus their threads finish
+			if(executor != null) {
+				executor.shutdown();
+				try {
+					if(!executor.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+						executor.shutdownNow();
+				} catch(InterruptedException e) {
+					executor.shutdownNow();
+					Thread.currentThread().interrupt();
+				}
+			}
+			// the pipeline has unregistered its processors, the last consumer halts the shared runtime
+			if(consumerRuntime != null) {
+				consumerRuntime.release(RUNTIME_HALT_TIMEOUT);
+				consumerRuntime = null;
+			}
+		}
 		
 		if(logger.isDebugEnabled())
 			logger.debug("Successfully shut down " + JMSConsumerHandler.class.getName());
 	}
 
 
+	/**
+	 * Creates a message consumer for the given session and destination type
+	 * @param session
+	 * @param destination
+	 * @param jmsDestination lookup name of the destination
+	 * @return
+	 * @throws JMSException
+	 */
+	protected MessageConsumer createMessageConsumer(Session session, Destination destination, String jmsDestination) throws JMSException {
+		
+		switch(jmsDestinationType) {
+			case TOPIC: {
+				
+				TopicSubscriber topicMessageConsumer = null;
+				if(messageSelector != null && !messageSelector.isEmpty()) {
+					topicMessageConsumer = (TopicSubscriber)session.createConsumer(destination, messageSelector);
+					logger.info("topicMessageConsumer[destination="+jmsDestination+", messageSelector="+messageSelector+"]");
+				} else {
+					topicMessageConsumer = (TopicSubscriber)session.createConsumer(destination);
+					logger.info("topicMessageConsumer[destination="+jmsDestination+", messageSelector=not provided]");
+				}
+				return topicMessageConsumer;
+			}
+			default: {
+				MessageConsumer messageConsumer = null;
+				if(messageSelector != null && !messageSelector.isEmpty()) {
+					messageConsumer = session.createConsumer(destination, messageSelector);
+					logger.info("queueMessageConsumer[destination="+jmsDestination+", messageSelector="+messageSelector+"]");
+				} else {
+					messageConsumer = session.createConsumer(destination);
+					logger.info("queueMessageConsumer[destination="+jmsDestination+", messageSelector=not provided]");
+				}
+				return messageConsumer;
+			}
+		}
+	}
+
 	/**
 	 * Extracts a single value for the parameter referenced
 	 * @param values
@@ -0,0 +1,175 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+
+import org.apache.log4j.Logger;
+
+import com.lmax.disruptor.BatchDescriptor;
+import com.mnxfst.testing.consumer.jms.ack.BatchAcknowledger;
+import com.mnxfst.testing.consumer.jms.flow.FlowController;
+
+/**
+ * Drains a single message consumer on a dedicated thread instead of having the provider dispatch to a
+ * {@link javax.jms.MessageListener}. The receiver blocks for the first message of a batch, fetches whatever
+ * else is available right away through {@link MessageConsumer#receiveNoWait()} and hands the batch to the
+ * {@link JMSConsumerHandler} which claims and publishes a single range of ring buffer sequences for it.<br/>
+ * If the session acknowledges in batches, pending batches are completed by the receiver itself whenever a 
+ * receive call times out or delivery is paused by the {@link FlowController}. The final batch is completed by
+ * the receiver as well when it stops, thus the session is acknowledged or committed on the receiver thread only
+ * @author mnxfst
+ * @since 19.03.2012
+ */
+public class PullMessageReceiver implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(PullMessageReceiver.class.getName());
+	
+	/** time to sleep between two checks while delivery is paused */
+	private static final long PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final String name;
+	private final JMSConsumerHandler handler;
+	private final MessageConsumer messageConsumer;
+	/** index of the destination the consumer is subscribed to */
+	private final int subscriptionIndex;
+	private final BatchAcknowledger acknowledger;
+	private final FlowController flowController;
+	private final Message[] batch;
+	/** batch descriptors by size, re-used for claiming sequences */
+	private final BatchDescriptor[] batchDescriptors;
+	private final long receiveTimeout;
+	private final long ackShutdownTimeout;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	
+	private volatile boolean running = true;
+	
+	/**
+	 * Initializes the receiver
+	 * @param name used for logging
+	 * @param handler
+	 * @param messageConsumer
+	 * @param subscriptionIndex index of the destination the consumer is subscribed to
+	 * @param acknowledger acknowledges the received messages in batches, null if the session acknowledges on its own
+	 * @param flowController pauses receiving while the analyzers lag behind, null if not enabled
+	 * @param batchSize maximum number of messages published at once
+	 * @param receiveTimeout millis to wait for the first message of a batch before checking for shutdown
+	 * @param ackShutdownTimeout millis to wait for the pipeline to pass the final batch when stopping
+	 */
+	public PullMessageReceiver(String name, JMSConsumerHandler handler, MessageConsumer messageConsumer, int subscriptionIndex, BatchAcknowledger acknowledger, FlowController flowController, int batchSize, long receiveTimeout, long ackShutdownTimeout) {
+		this.name = name;
+		this.handler = handler;
+		this.messageConsumer = messageConsumer;
+		this.subscriptionIndex = subscriptionIndex;
+		this.acknowledger = acknowledger;
+		this.flowController = flowController;
+		this.batch = new Message[batchSize];
+		this.batchDescriptors = new BatchDescriptor[batchSize + 1];
+		this.receiveTimeout = receiveTimeout;
+		this.ackShutdownTimeout = ackShutdownTimeout;
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		
+		if(logger.isDebugEnabled())
+			logger.debug("Receiver " + name + " started");
+		
+		try {
+			while(running) {
+				try {
+					if(flowController != null && flowController.isPaused()) {
+						if(acknowledger != null)
+							acknowledger.flushAnalyzed();
+						LockSupport.parkNanos(PAUSE_NANOS);
+						continue;
+					}
+					
+					int count = receiveBatch();
+					if(count == 0) {
+						if(acknowledger != null)
+							acknowledger.flushAnalyzed();
+						continue;
+					}
+					
+					long sequence = handler.publish(batch, count, batchDescriptors, subscriptionIndex);
+					if(acknowledger != null)
+						acknowledger.messagesReceived(batch[count - 1], count, sequence);
+					
+					// drop the references as the events hold copies
+					for(int i = 0; i < count; i++)
+						batch[i] = null;
+				} catch(JMSException e) {
+					if(running)
+						logger.error("Receiver " + name + " failed to consume messages. Error: " + e.getMessage());
+				}
+			}
+		} finally {
+			// acknowledge what the pipeline has passed while the session is still owned by this thread
+			if(acknowledger != null)
+				acknowledger.close(ackShutdownTimeout);
+			stopped.countDown();
+		}
+		
+		if(logger.isDebugEnabled())
+			logger.debug("Receiver " + name + " stopped");
+	}
+	
+	/**
+	 * Waits for the first message and adds all further messages immediately available to the batch
+	 * @return number of received messages
+	 * @throws JMSException
+	 */
+	private int receiveBatch() throws JMSException {
+		Message message = messageConsumer.receive(receiveTimeout);
+		if(message == null)
+			return 0;
+		
+		int count = 0;
+		batch[count++] = message;
+		while(count < batch.length && (message = messageConsumer.receiveNoWait()) != null)
+			batch[count++] = message;
+		return count;
+	}
+	
+	/**
+	 * Signals the receiver to stop after the current batch and waits for it to complete the final batch. Must
+	 * be called before closing the session
+	 * @param timeoutMillis
+	 * @return true if the receiver stopped in time
+	 */
+	public boolean stop(long timeoutMillis) {
+		running = false;
+		try {
+			return stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+}
@@ -0,0 +1,80 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.ack;
+
+import javax.jms.Session;
+
+/**
+ * Supported acknowledge modes. Client acknowledged sessions are acknowledged and transacted sessions are committed 
+ * in batches by a {@link BatchAcknowledger} once the analyzers have passed the messages, with dups-ok the provider 
+ * batches the acknowledgements on its own 
+ * @author mnxfst
+ * @since 18.03.2012
+ */
+public enum AcknowledgeMode {
+
+	AUTO("auto", Session.AUTO_ACKNOWLEDGE), CLIENT("client", Session.CLIENT_ACKNOWLEDGE), DUPS_OK("dups-ok", Session.DUPS_OK_ACKNOWLEDGE), TRANSACTED("transacted", Session.SESSION_TRANSACTED);
+	
+	private final String name;
+	private final int sessionMode;
+	
+	private AcknowledgeMode(String name, int sessionMode) {
+		this.name = name;
+		this.sessionMode = sessionMode;
+	}
+	
+	/**
+	 * Returns the mode of the given name. Case, dashes and underscores are ignored
+	 * @param name
+	 * @return null if not supported
+	 */
+	public static AcknowledgeMode fromName(String name) {
+		String normalized = name.trim().toLowerCase().replace("_", "").replace("-", "");
+		for(AcknowledgeMode mode : values())
+			if(mode.name.replace("-", "").equals(normalized))
+				return mode;
+		return null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the acknowledge mode to create the session with
+	 */
+	public int getSessionMode() {
+		return sessionMode;
+	}
+	
+	/**
+	 * @return true if the messages are acknowledged by a {@link BatchAcknowledger}
+	 */
+	public boolean isBatched() {
+		return this == CLIENT || this == TRANSACTED;
+	}
+	
+	/**
+	 * @return true if the session must be created as transacted one
+	 */
+	public boolean isTransacted() {
+		return this == TRANSACTED;
+	}
+	
+}
@@ -0,0 +1,205 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.ack;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.log4j.Logger;
+
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Util;
+
+/**
+ * Acknowledges the messages received by a single session in batches - for transacted sessions by committing the
+ * transaction. As acknowledging a message (or committing) covers all messages the session has delivered so far, 
+ * a batch is only acknowledged after the trailing sequences of the analyzer pipeline have passed the sequence of 
+ * its last message. Thus messages not yet analyzed are redelivered if the consumer crashes.<br/>
+ * A batch is completed after <i>batchSize</i> messages or when a message arrives more than <i>batchTimeout</i> ms 
+ * after the first one of the batch - waiting for the pipeline to catch up if necessary. As the session delivers
+ * further messages before the listener has published them, acknowledging from any other thread could cover 
+ * messages not yet in the ring buffer. All methods must therefore be called on the thread the session is dedicated 
+ * to: the listener completes a batch left over from an idle period with the next delivery, pull receivers complete
+ * it whenever they run idle. Not thread-safe
+ * @author mnxfst
+ * @since 18.03.2012
+ */
+public class BatchAcknowledger {
+
+	private static final Logger logger = Logger.getLogger(BatchAcknowledger.class.getName());
+	
+	private final Session session;
+	private final boolean transacted;
+	private final Sequence[] trailingSequences;
+	private final int batchSize;
+	private final long batchTimeout;
+	
+	/** last message of the current batch, acknowledging it covers the whole batch */
+	private Message lastMessage = null;
+	private long lastSequence = -1;
+	private int pending = 0;
+	private long batchStarted = 0;
+	/** set on shutdown while the owning thread may still wait for the pipeline */
+	private volatile boolean closed = false;
+	
+	/**
+	 * Initializes the acknowledger
+	 * @param session
+	 * @param transacted commits the session instead of acknowledging the messages
+	 * @param trailingSequences sequences of the final pipeline stage
+	 * @param batchSize maximum number of messages per batch
+	 * @param batchTimeout maximum age of a batch in millis
+	 */
+	public BatchAcknowledger(Session session, boolean transacted, Sequence[] trailingSequences, int batchSize, long batchTimeout) {
+		this.session = session;
+		this.transacted = transacted;
+		this.trailingSequences = trailingSequences;
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
+	}
+	
+	/**
+	 * Adds the message to the current batch and completes the batch if it is full or expired
+	 * @param message
+	 * @param sequence ring buffer sequence of the message, -1 if it has not been published
+	 * @throws JMSException
+	 */
+	public void messageReceived(Message message, long sequence) throws JMSException {
+		messagesReceived(message, 1, sequence);
+	}
+	
+	/**
+	 * Adds a number of messages received in a row to the current batch and completes the batch if it is full or expired
+	 * @param lastMessage last one of the received messages
+	 * @param count
+	 * @param sequence highest ring buffer sequence of the messages, -1 if none of them has been published
+	 * @throws JMSException
+	 */
+	public void messagesReceived(Message lastMessage, int count, long sequence) throws JMSException {
+		this.lastMessage = lastMessage;
+		if(sequence >= 0)
+			lastSequence = sequence;
+		if(pending == 0)
+			batchStarted = System.currentTimeMillis();
+		pending += count;
+
+		if(pending >= batchSize || System.currentTimeMillis() - batchStarted >= batchTimeout) {
+			if(awaitAnalyzed(lastSequence, Long.MAX_VALUE))
+				complete();
+		}
+	}
+	
+	/**
+	 * Completes the pending batch if the pipeline has passed it already. Called by pull receivers whenever no
+	 * message is available, thus no further message has been delivered to the session
+	 */
+	public void flushAnalyzed() {
+		try {
+			if(pending > 0 && !closed && Util.getMinimumSequence(trailingSequences) >= lastSequence)
+				complete();
+		} catch(JMSException e) {
+			logger.error("Failed to acknowledge batch of " + pending + " messages. Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Waits until the trailing sequences have passed the given sequence
+	 * @param sequence
+	 * @param timeoutNanos
+	 * @return false if closed or timed out before
+	 */
+	private boolean awaitAnalyzed(long sequence, long timeoutNanos) {
+		long start = System.nanoTime();
+		int spins = 0;
+		while(Util.getMinimumSequence(trailingSequences) < sequence) {
+			if(closed && timeoutNanos == Long.MAX_VALUE)
+				return false;
+			if(System.nanoTime() - start > timeoutNanos)
+				return false;
+			if(++spins < 100)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+		return true;
+	}
+	
+	/**
+	 * Acknowledges - or commits - the current batch. If the commit fails, the provider rolls back the transaction 
+	 * and the batch is redelivered
+	 * @throws JMSException
+	 */
+	protected void complete() throws JMSException {
+		Message message = lastMessage;
+		int count = pending;
+		lastMessage = null;
+		pending = 0;
+		if(transacted)
+			session.commit();
+		else
+			message.acknowledge();
+		if(logger.isDebugEnabled())
+			logger.debug((transacted ? "Committed" : "Acknowledged") + " batch of " + count + " messages up to sequence " + lastSequence);
+	}
+	
+	/**
+	 * Completes the pending batch as soon as the pipeline has passed it - or leaves it for redelivery if this does
+	 * not happen within the given time. Must be called before closing the session, either on the thread the session 
+	 * is dedicated to or after the connection has been stopped
+	 * @param timeoutMillis
+	 */
+	public void close(long timeoutMillis) {
+		closed = true;
+		try {
+			if(pending > 0) {
+				if(awaitAnalyzed(lastSequence, TimeUnit.MILLISECONDS.toNanos(timeoutMillis)))
+					complete();
+				else if(transacted)
+					rollback();
+				else
+					logger.warn("Pipeline did not pass " + pending + " received messages in time. They are left unacknowledged and will be redelivered");
+			}
+		} catch(JMSException e) {
+			logger.error("Failed to acknowledge batch of " + pending + " messages. Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rolls back the pending batch, the messages will be redelivered
+	 * @throws JMSException
+	 */
+	private void rollback() throws JMSException {
+		logger.warn("Pipeline did not pass " + pending + " received messages in time. Rolling back, the messages will be redelivered");
+		lastMessage = null;
+		pending = 0;
+		session.rollback();
+	}
+
+	/**
+	 * @return the session
+	 */
+	public Session getSession() {
+		return session;
+	}
+	
+}
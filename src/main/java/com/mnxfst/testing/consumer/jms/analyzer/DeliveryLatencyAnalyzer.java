@@ -0,0 +1,113 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.IMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.stats.DeliveryLatencyRegistry;
+import com.mnxfst.testing.consumer.jms.stats.DeliveryLatencyRegistry.DeliveryLatencies;
+import com.mnxfst.testing.consumer.jms.stats.EpochClock;
+import com.mnxfst.testing.consumer.jms.stats.LatencySummary;
+
+/**
+ * Records the producer to broker to consumer latency of each message with the {@link DeliveryLatencyRegistry}
+ * entry of the configured node and measuring point. The registry is provided by the pipeline from the consumer's
+ * statistics collector, thus the percentiles are reported through the consumer statistics. They are logged on 
+ * shutdown as well
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class DeliveryLatencyAnalyzer implements IMessageAnalyzer {
+
+	private static final Logger logger = Logger.getLogger(DeliveryLatencyAnalyzer.class.getName());
+
+	private static final String CFG_PROP_NODE_ID = "nodeId";
+	private static final String CFG_PROP_MEASURING_POINT_ID = "measuringPointId";
+
+	private String nodeId = null;
+	private String measuringPointId = null;
+	private DeliveryLatencyRegistry deliveryLatencyRegistry = null;
+	private DeliveryLatencies deliveryLatencies = null;
+
+	/**
+	 * Sets the registry to record with, must be called before {@link #initialize(Map)}. If not set, the analyzer
+	 * keeps its histograms to itself
+	 * @param deliveryLatencyRegistry
+	 */
+	public void setDeliveryLatencyRegistry(DeliveryLatencyRegistry deliveryLatencyRegistry) {
+		this.deliveryLatencyRegistry = deliveryLatencyRegistry;
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#initialize(java.util.Map)
+	 */
+	public void initialize(Map<String, List<String>> configuration) throws AsyncInputConsumerException {
+
+		this.nodeId = extractSingleString(CFG_PROP_NODE_ID, configuration);
+		if(this.nodeId == null || this.nodeId.isEmpty())
+			throw new AsyncInputConsumerException("Missing required configuration option 'nodeId'");
+		this.measuringPointId = extractSingleString(CFG_PROP_MEASURING_POINT_ID, configuration);
+		if(this.measuringPointId == null || this.measuringPointId.isEmpty())
+			throw new AsyncInputConsumerException("Missing required configuration option 'measuringPointId'");
+		
+		if(this.deliveryLatencyRegistry == null)
+			this.deliveryLatencyRegistry = new DeliveryLatencyRegistry();
+		this.deliveryLatencies = deliveryLatencyRegistry.getDeliveryLatencies(nodeId, measuringPointId);
+	}
+
+	/**
+	 * @see com.lmax.disruptor.EventHandler#onEvent(java.lang.Object, long, boolean)
+	 */
+	public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+		if(event.hasPayload())
+			deliveryLatencies.record(event.getProducerTimestamp(), event.getBrokerInTime(), EpochClock.toEpochMicros(event.getReceivedNanos()));
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#shutdown()
+	 */
+	public void shutdown() {
+		if(deliveryLatencies == null)
+			return;
+		logger.info("deliveryLatency[nodeId="+nodeId+", measuringPointId="+measuringPointId+"] in microseconds: "+
+					DeliveryLatencyRegistry.HOP_PRODUCER_TO_BROKER+"="+LatencySummary.summarize(deliveryLatencies.getProducerToBroker(), TimeUnit.MICROSECONDS, TimeUnit.MICROSECONDS)+", "+
+					DeliveryLatencyRegistry.HOP_BROKER_TO_CONSUMER+"="+LatencySummary.summarize(deliveryLatencies.getBrokerToConsumer(), TimeUnit.MICROSECONDS, TimeUnit.MICROSECONDS)+", "+
+					DeliveryLatencyRegistry.HOP_PRODUCER_TO_CONSUMER+"="+LatencySummary.summarize(deliveryLatencies.getProducerToConsumer(), TimeUnit.MICROSECONDS, TimeUnit.MICROSECONDS));
+		deliveryLatencies = null;
+		deliveryLatencyRegistry = null;
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+}
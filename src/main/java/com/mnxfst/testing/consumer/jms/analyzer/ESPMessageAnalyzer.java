@@ -18,51 +18,47 @@
  */
 package com.mnxfst.testing.consumer.jms.analyzer;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import com.ibm.icu.text.SimpleDateFormat;
-import com.ibm.icu.util.TimeZone;
-import com.lmax.disruptor.EventHandler;
 import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.IMessageAnalyzer;
 import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
 
 /**
- * esp project specifc log analyzer
+ * esp project specifc log analyzer. The request identifier, the domain sign and the additional tags configured
+ * through <i>espTags</i> are located within a single pass over the message. Extracted values are attached to the event. Unless disabled through
+ * <i>writeResults=false</i> (eg. when running as worker pool in front of an {@link ESPResultWriter}) the
+ * analyzer writes the result record itself 
  * @author mnxfst
  * @since 22.02.2012
  */
-public class ESPMessageAnalyzer implements EventHandler<JMSMessageEvent> {
+public class ESPMessageAnalyzer implements IMessageAnalyzer {
 
 	private static final Logger logger = Logger.getLogger(ESPMessageAnalyzer.class.getName());			
 
-	private static final String CFG_PROP_NODE_ID = "nodeId";
-	private static final String CFG_PROP_MEASURING_POINT_ID = "measuringPointId";
 	private static final String CFG_PROP_REQUIRED_DOMAIN_SIGN = "requiredDomainSign";
+	private static final String CFG_PROP_WRITE_RESULTS = "writeResults";
 
-	private static final String REQ_ID_START_TAG = "<pub:Id>";
-	private static final int REQ_ID_START_TAG_LENGTH = 8;
-	private static final String REQ_ID_END_TAG = "</pub:Id>";
-	
-	private static final String DOM_SIGN_START_TAG = "<pub:domainSign>";
-	private static final int DOM_SIGN_START_TAG_LENGTH = 16;
-	private static final String DOM_SIGN_END_TAG = "</pub:domainSign>";
-	
-	private static final String TITLE_START_TAG = "<pub:title>";
-	private static final int TITLE_START_TAG_LENGTH = 11;
-	private static final String TITLE_END_TAG = "</pub:title>";
+	private static final String CFG_PROP_REQUEST_ID_TAG = "espRequestIdTag";
+	private static final String CFG_PROP_DOMAIN_SIGN_TAG = "espDomainSignTag";
+	private static final String CFG_PROP_TAGS = "espTags";
 
-	private static final String MAT_GROUP_START_TAG = "<pub:materialGroup>";
-	private static final int MAT_GROUP_START_TAG_LENGTH = 19;
-	private static final String MAT_GROUP_END_TAG = "</pub:materialGroup>";
+	private static final String DEFAULT_REQUEST_ID_TAG = "pub:Id";
+	private static final String DEFAULT_DOMAIN_SIGN_TAG = "pub:domainSign";
+	private static final String[] DEFAULT_TAGS = new String[]{"pub:title", "pub:materialGroup"};
+
+	/** event fields provided to subsequent analyzers, the values of the additional tags (espTags) follow in configured order */ 
+	public static final int FIELD_REQUEST_ID = 0;
+	public static final int FIELD_DOMAIN_SIGN = 1;
 
-	private static final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-	
-	private String nodeId = null;
-	private String measuringPointId = null;
 	private String requiredDomainSign = null;
+	private TagScanner tagScanner = null;
+	/** writes the result record for each analyzed message, null if records are written by a subsequent ordered stage */
+	private ESPResultWriter resultWriter = null;
 	
 	private boolean running = false;
 	
@@ -71,21 +67,66 @@ public class ESPMessageAnalyzer implements EventHandler<JMSMessageEvent> {
 	 */
 	public void initialize(Map<String, List<String>> configuration) throws AsyncInputConsumerException {
 		
-		this.nodeId = extractSingleString(CFG_PROP_NODE_ID, configuration);
-		if(this.nodeId == null || this.nodeId.isEmpty())
-			throw new AsyncInputConsumerException("Missing required configuration option 'nodeId'");
-		this.measuringPointId = extractSingleString(CFG_PROP_MEASURING_POINT_ID, configuration);
-		if(this.measuringPointId == null || this.measuringPointId.isEmpty())
-			throw new AsyncInputConsumerException("Missing required configuration option 'measuringPointId'");
 		this.requiredDomainSign = extractSingleString(CFG_PROP_REQUIRED_DOMAIN_SIGN, configuration);
 		if(this.requiredDomainSign == null || this.requiredDomainSign.isEmpty())
 			throw new AsyncInputConsumerException("Missing required configuration option 'requiredDomainSign'");
 		else
 			this.requiredDomainSign = this.requiredDomainSign.trim();
 		
+		// the request identifier is required for the result record, thus it is extracted for invalid messages as well 
+		this.tagScanner = new TagScanner(getTagNames(configuration));
+		this.tagScanner.setExtractAlways(FIELD_REQUEST_ID);
+		this.tagScanner.setRequiredValue(FIELD_DOMAIN_SIGN, requiredDomainSign);
+		
+		String writeResults = extractSingleString(CFG_PROP_WRITE_RESULTS, configuration);
+		if(writeResults == null || !writeResults.trim().equalsIgnoreCase("false")) {
+			this.resultWriter = new ESPResultWriter();
+			this.resultWriter.initialize(configuration);
+		}
 		
-		// switch to utc
-		dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+		running = true;
+	}
+	
+	/**
+	 * Returns the names of all tags to extract from a message. The index of a tag denotes the event field
+	 * its value is stored in 
+	 * @param configuration
+	 * @return
+	 */
+	public static String[] getTagNames(Map<String, List<String>> configuration) {
+		
+		List<String> tagNames = new ArrayList<String>();
+		List<String> values = configuration.get(CFG_PROP_REQUEST_ID_TAG);
+		tagNames.add((values != null && !values.isEmpty() && !values.get(0).trim().isEmpty()) ? values.get(0).trim() : DEFAULT_REQUEST_ID_TAG);
+		values = configuration.get(CFG_PROP_DOMAIN_SIGN_TAG);
+		tagNames.add((values != null && !values.isEmpty() && !values.get(0).trim().isEmpty()) ? values.get(0).trim() : DEFAULT_DOMAIN_SIGN_TAG);
+
+		values = configuration.get(CFG_PROP_TAGS);
+		if(values != null && !values.isEmpty()) {
+			for(String v : values)
+				if(v != null)
+					for(String tag : v.split(","))
+						if(!tag.trim().isEmpty())
+							tagNames.add(tag.trim());
+		} else {
+			for(String tag : DEFAULT_TAGS)
+				tagNames.add(tag);
+		}		
+		return tagNames.toArray(new String[tagNames.size()]);
+	}
+	
+	/**
+	 * Returns the index of the event field holding the value of the named tag, -1 if the tag is not extracted
+	 * @param tagName
+	 * @param configuration
+	 * @return
+	 */
+	public static int getFieldIndex(String tagName, Map<String, List<String>> configuration) {
+		String[] tagNames = getTagNames(configuration);
+		for(int i = 0; i < tagNames.length; i++)
+			if(tagNames[i].equals(tagName))
+				return i;
+		return -1;
 	}
 	
 	/**
@@ -103,122 +144,28 @@ public class ESPMessageAnalyzer implements EventHandler<JMSMessageEvent> {
 	 */
 	public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
 
-		if(event != null && event.getMessageText() != null) {						
+		if(event != null && event.hasPayload()) {						
 
-			long incomingTime = event.getTimestamp();
-			String msg = event.getMessageText();
-			
-			int reqIdStartIdx = msg.indexOf(REQ_ID_START_TAG);
-			int reqIdEndIdx = msg.indexOf(REQ_ID_END_TAG);					
-			String requestId = msg.substring(reqIdStartIdx + REQ_ID_START_TAG_LENGTH, reqIdEndIdx);
-			
-			int domainIdStartIdx = msg.indexOf(DOM_SIGN_START_TAG);
-			int domainidEndIdx = msg.indexOf(DOM_SIGN_END_TAG);
-			String domainSign = msg.substring(domainIdStartIdx + DOM_SIGN_START_TAG_LENGTH, domainidEndIdx);
-			
-			int titleIdxStart = msg.indexOf(TITLE_START_TAG);
-			int titleIdxEnd = msg.indexOf(TITLE_END_TAG);
-			String title = msg.substring(titleIdxStart + TITLE_START_TAG_LENGTH, titleIdxEnd);
-			
-			int matIdxStart = msg.indexOf(MAT_GROUP_START_TAG);
-			int matIdxEnd = msg.indexOf(MAT_GROUP_END_TAG);
-			String materialGroup = msg.substring(matIdxStart + MAT_GROUP_START_TAG_LENGTH, matIdxEnd);
-		
-			boolean validMessage = (requestId != null && !requestId.isEmpty());
-			
-			if(validMessage)
-				validMessage = (domainSign != null && domainSign.trim().equalsIgnoreCase(requiredDomainSign));
-			if(validMessage)
-				validMessage = (title != null && !title.isEmpty());
-			if(validMessage)
-				validMessage = (materialGroup != null && !materialGroup.isEmpty());
+			// single walk over the message, stops early if the domain sign does not match. bytes are parsed in place, as is the text held by the event
+			boolean validMessage = (event.isBytesPayload() ? tagScanner.scan(event.getBytes(), event.getBytesLength()) : tagScanner.scan(event.getChars(), event.getCharsLength()));
+			for(int i = 0; i < tagScanner.getNumberOfTags(); i++) {
+				if(tagScanner.getValueEnd(i) >= 0)
+					event.setField(i, tagScanner.getValueStart(i), tagScanner.getValueEnd(i));
+			}
+			event.setValid(validMessage);
 			
-			StringBuffer logBuffer = new StringBuffer();
-			logBuffer.append(requestId).append(";").append(nodeId).append(";").append(measuringPointId).append(";").append(incomingTime).append(";").append(dateFormatter.format(incomingTime)).append(";").append("true;").append(validMessage); // TODO validate request
-			logger.info(logBuffer.toString());
+			if(resultWriter != null)
+				resultWriter.onEvent(event, sequence, endOfBatch);
 		}
 	}
 
 	/**
-	 * @see java.lang.Runnable#run()
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#shutdown()
 	 */
-	public void run() {
-		running = true;
-		while(running);
-	}
-	
 	public void shutdown() {
 		running = false;
+		if(resultWriter != null)
+			resultWriter.shutdown();
 	}
 
-	static String msg = "<pub:PublishProductRequest xmlns:pub=\"http://b2c.otto.de/schema/publishProduct\"><pub:sourceParameter><pub:Id>${global.scenarioId}-${global.productId}-${global.runId}-${global.threads}-${global.waitTime}-${run.requestId}</pub:Id><pub:orderingSystem>Internet</pub:orderingSystem><pub:domainSign>${run.domainSign}</pub:domainSign></pub:sourceParameter><pub:path>//localhost</pub:path><pub:keywords><pub:keyword>Hose</pub:keyword><pub:keyword>lang</pub:keyword></pub:keywords><pub:title>die lange Hose${run.randomInt}</pub:title><pub:descriptionShort>elegante Hose</pub:descriptionShort><pub:descriptionLong>die elegante Hose</pub:descriptionLong><pub:brand>Levis</pub:brand><pub:materialGroup>stoff</pub:materialGroup><pub:categoryList><pub:category>Kleidung</pub:category><pub:category>Mann</pub:category></pub:categoryList><pub:characteristicList><pub:map><pub:value>hose</pub:value><pub:value>fllt klein aus${run.randomInt}</pub:value></pub:map></pub:characteristicList><pub:mediaList><pub:media><pub:media>Video</pub:media></pub:media></pub:mediaList><pub:constraints><pub:map><pub:value>Lieferservice gleich ${run.randomInt} Wochen</pub:value></pub:map></pub:constraints><pub:aktionen><pub:map><pub:value>bekannt aus tv</pub:value></pub:map></pub:aktionen><pub:onlineFrom>2001-10-26T21:32:52</pub:onlineFrom><pub:onlineTo>2010-10-26T21:32:52</pub:onlineTo></pub:PublishProductRequest>";
-	
-	public static void main(String[] args) {
-		long s = 1330097760527L;
-		long e = 1330097761038L;
-		System.out.println("4000 / " + (e-s) + ": " + (4000/ (e-s)));
-		
-		s = 1330103192754L;
-		e = 1330103584047L;
-		System.out.println("128000 / " + (e-s) + ": " + (128000/ (e-s)));
-		
-		s = 1330103732985L;
-		e = 1330103733470L;
-		System.out.println("6000 / " + (e-s) + ": " + (6000/ (e-s)));
-		
-		s = 1330104230754L;
-		e = 1330104250260L;
-		System.out.println("6000 / " + (e-s) + ": " + (6000/ (e-s)));
-
-		s = 1330116558133L;
-		e = 1330116734692L;
-		System.out.println("server: 64000 / " + (e-s) + ": " + (64000/ (e-s)));
-		
-		s = 1330121587250L;
-		e = 1330121599968L;
-		System.out.println("mock: 64000 / " + (e-s) + ": " + (64000/ (e-s)));
-		
-		s = 1330122126921L;
-		e = 1330122126968L;
-		System.out.println((e-s));
-		
-		s = 1330122126984L;
-		e = 1330122126984L;
-		System.out.println((e-s));
-		
-		s = 1330334633382L;
-		e = 1330335026324L;
-		System.out.println((e-s) + "ms");
-		
-		s = 1330341530333L;
-		e = 1330341533559L;
-		System.out.println((e-s) + "ms");
-
-		s = 1330341960768L;
-		e = 1330342149822L;
-		System.out.println((e-s) + "ms");
-
-		int reqIdStartIdx = msg.indexOf(REQ_ID_START_TAG);
-		int reqIdEndIdx = msg.indexOf(REQ_ID_END_TAG);					
-		String requestId = msg.substring(reqIdStartIdx + REQ_ID_START_TAG_LENGTH, reqIdEndIdx);
-		
-		int domainIdStartIdx = msg.indexOf(DOM_SIGN_START_TAG);
-		int domainidEndIdx = msg.indexOf(DOM_SIGN_END_TAG);
-		String domainSign = msg.substring(domainIdStartIdx + DOM_SIGN_START_TAG_LENGTH, domainidEndIdx);
-		
-		int titleIdxStart = msg.indexOf(TITLE_START_TAG);
-		int titleIdxEnd = msg.indexOf(TITLE_END_TAG);
-		String title = msg.substring(titleIdxStart + TITLE_START_TAG_LENGTH, titleIdxEnd);
-		
-		int matIdxStart = msg.indexOf(MAT_GROUP_START_TAG);
-		int matIdxEnd = msg.indexOf(MAT_GROUP_END_TAG);
-		String materialGroup = msg.substring(matIdxStart + MAT_GROUP_START_TAG_LENGTH, matIdxEnd);
-		
-		
-		System.out.println(requestId);
-		System.out.println(domainSign);
-		System.out.println(title);
-		System.out.println(materialGroup);
-	}
-	
 }
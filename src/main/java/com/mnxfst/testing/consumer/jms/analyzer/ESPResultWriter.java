@@ -0,0 +1,110 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.IMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.output.IResultSink;
+import com.mnxfst.testing.consumer.jms.output.ResultSinkFactory;
+import com.mnxfst.testing.consumer.jms.output.UtcTimestampFormatter;
+
+/**
+ * Writes the result record for each event analyzed by the {@link ESPMessageAnalyzer}. When depending on an
+ * analyzer run by a worker pool, the writer receives the events in sequence and thus keeps the output ordered.
+ * Records are assembled in a re-used buffer and handed to an {@link IResultSink} which writes them in batches
+ * @author mnxfst
+ * @since 14.03.2012
+ */
+public class ESPResultWriter implements IMessageAnalyzer {
+
+	// without result file, records are written to the analyzer category to keep existing logging configurations working
+	private static final Logger logger = Logger.getLogger(ESPMessageAnalyzer.class.getName());
+
+	private static final String CFG_PROP_NODE_ID = "nodeId";
+	private static final String CFG_PROP_MEASURING_POINT_ID = "measuringPointId";
+
+	private String nodeId = null;
+	private String measuringPointId = null;
+	
+	private IResultSink resultSink = null;
+	private final StringBuilder recordBuffer = new StringBuilder(256);
+	/** owned by this writer as formatting is not thread-safe */
+	private final UtcTimestampFormatter dateFormatter = new UtcTimestampFormatter();
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#initialize(java.util.Map)
+	 */
+	public void initialize(Map<String, List<String>> configuration) throws AsyncInputConsumerException {
+
+		this.nodeId = extractSingleString(CFG_PROP_NODE_ID, configuration);
+		if(this.nodeId == null || this.nodeId.isEmpty())
+			throw new AsyncInputConsumerException("Missing required configuration option 'nodeId'");
+		this.measuringPointId = extractSingleString(CFG_PROP_MEASURING_POINT_ID, configuration);
+		if(this.measuringPointId == null || this.measuringPointId.isEmpty())
+			throw new AsyncInputConsumerException("Missing required configuration option 'measuringPointId'");
+		
+		this.resultSink = ResultSinkFactory.createResultSink(configuration, logger);
+	}
+
+	/**
+	 * @see com.lmax.disruptor.EventHandler#onEvent(java.lang.Object, long, boolean)
+	 */
+	public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+
+		byte validity = event.getValidity();
+		if(validity == JMSMessageEvent.VALIDITY_UNSET) { // not analyzed
+			if(endOfBatch)
+				resultSink.flush();
+			return;
+		}
+
+		long incomingTime = event.getTimestamp();
+		StringBuilder logBuffer = recordBuffer;
+		logBuffer.setLength(0);
+		event.appendFieldValue(ESPMessageAnalyzer.FIELD_REQUEST_ID, logBuffer);
+		logBuffer.append(";").append(nodeId).append(";").append(measuringPointId).append(";").append(incomingTime).append(";");
+		dateFormatter.format(incomingTime, logBuffer).append(";").append("true;").append(validity == JMSMessageEvent.VALIDITY_VALID); // TODO validate request
+		resultSink.append(logBuffer, endOfBatch);
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#shutdown()
+	 */
+	public void shutdown() {
+		if(resultSink != null)
+			resultSink.close();
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+}
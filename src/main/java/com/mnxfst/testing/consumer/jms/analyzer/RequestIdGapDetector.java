@@ -0,0 +1,235 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.IStatefulMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.stats.ChunkedBitSet;
+
+/**
+ * Detects lost and redelivered messages from the request identifiers extracted by the {@link ESPMessageAnalyzer}.
+ * Identifiers are expected as <i>scenarioId-productId-runId-threads-waitTime-requestId</i>: everything before the
+ * trailing numeric request id identifies the run. The request ids seen per run are recorded in a {@link ChunkedBitSet},
+ * thus ten million ids occupy about 1.25 MB while distant outliers add a single chunk each. Missing ids are computed for 
+ * the range between the lowest and the highest id seen, no matter in which order parallel producers or consumers 
+ * deliver them - while running this includes messages still in flight. The counts are logged every 
+ * <i>requestIdReportInterval</i> seconds (default: 10, 0 disables) and - along with the first 
+ * <i>requestIdMaxReportedGaps</i> missing ranges - on shutdown
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class RequestIdGapDetector implements IStatefulMessageAnalyzer {
+
+	private static final Logger logger = Logger.getLogger(RequestIdGapDetector.class.getName());
+
+	private static final String CFG_PROP_REPORT_INTERVAL = "requestIdReportInterval";
+	private static final String CFG_PROP_MAX_REPORTED_GAPS = "requestIdMaxReportedGaps";
+	
+	private static final long DEFAULT_REPORT_INTERVAL = 10;
+	private static final int DEFAULT_MAX_REPORTED_GAPS = 20;
+	
+	private static final long HASH_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
+	
+	/**
+	 * Request ids seen for a single run
+	 */
+	private static class RunTracker {
+		final String name;
+		final ChunkedBitSet seen = new ChunkedBitSet();
+		long received = 0;
+		long duplicates = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		
+		RunTracker(String name) {
+			this.name = name;
+		}
+		
+		void record(long id) {
+			received++;
+			if(!seen.set(id))
+				duplicates++;
+			if(id < min)
+				min = id;
+			if(id > max)
+				max = id;
+		}
+		
+		long getMissing() {
+			return (max >= min ? (max - min + 1) - seen.cardinality() : 0);
+		}
+	}
+	
+	private final Map<Long, RunTracker> runs = new LinkedHashMap<Long, RunTracker>();
+	/** the run of the previous event, saves the map lookup as long as the run does not change */
+	private long lastRunKey = 0;
+	private RunTracker lastRun = null;
+	private long unparsable = 0;
+	
+	private long reportInterval = DEFAULT_REPORT_INTERVAL * 1000;
+	private int maxReportedGaps = DEFAULT_MAX_REPORTED_GAPS;
+	private long nextReport = 0;
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#initialize(java.util.Map)
+	 */
+	public void initialize(Map<String, List<String>> configuration) throws AsyncInputConsumerException {
+		
+		String tmp = extractSingleString(CFG_PROP_REPORT_INTERVAL, configuration);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				reportInterval = Long.parseLong(tmp.trim()) * 1000;
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid request id report interval: " + tmp);
+			}
+			if(reportInterval < 0)
+				throw new AsyncInputConsumerException("Invalid request id report interval: " + tmp);
+		}
+		
+		tmp = extractSingleString(CFG_PROP_MAX_REPORTED_GAPS, configuration);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				maxReportedGaps = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid maximum number of reported gaps: " + tmp);
+			}
+		}
+	}
+
+	/**
+	 * @see com.lmax.disruptor.EventHandler#onEvent(java.lang.Object, long, boolean)
+	 */
+	public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+		
+		if(!event.hasField(ESPMessageAnalyzer.FIELD_REQUEST_ID))
+			return;
+		
+		int start = event.getFieldStart(ESPMessageAnalyzer.FIELD_REQUEST_ID);
+		int end = event.getFieldEnd(ESPMessageAnalyzer.FIELD_REQUEST_ID);
+		boolean bytesPayload = event.isBytesPayload();
+		byte[] bytes = event.getBytes();
+		char[] chars = event.getChars();
+
+		// parse the trailing request id backwards up to the last separator
+		long requestId = 0;
+		long factor = 1;
+		int pos = end - 1;
+		while(pos >= start && factor <= 100000000000000000L) {
+			int c = (bytesPayload ? bytes[pos] : chars[pos]);
+			if(c < '0' || c > '9')
+				break;
+			requestId = requestId + (c - '0') * factor;
+			factor = factor * 10;
+			pos--;
+		}
+		if(pos < start || pos == end - 1 || (bytesPayload ? bytes[pos] : chars[pos]) != '-') {
+			unparsable++;
+			return;
+		}
+		
+		long runKey = HASH_OFFSET_BASIS;
+		for(int i = start; i < pos; i++)
+			runKey = (runKey ^ (bytesPayload ? bytes[i] : chars[i])) * HASH_PRIME;
+		
+		RunTracker run = lastRun;
+		if(run == null || runKey != lastRunKey) {
+			run = runs.get(runKey);
+			if(run == null) {
+				StringBuilder name = new StringBuilder();
+				event.appendFieldValue(ESPMessageAnalyzer.FIELD_REQUEST_ID, name);
+				name.setLength(name.lastIndexOf("-"));
+				run = new RunTracker(name.toString());
+				runs.put(runKey, run);
+			}
+			lastRun = run;
+			lastRunKey = runKey;
+		}
+		run.record(requestId);
+		
+		if(reportInterval > 0 && event.getTimestamp() >= nextReport) {
+			if(nextReport > 0)
+				report(false);
+			nextReport = event.getTimestamp() + reportInterval;
+		}
+	}
+	
+	/**
+	 * Logs the counts of all runs
+	 * @param listGaps adds the first missing ranges 
+	 */
+	protected void report(boolean listGaps) {
+		for(RunTracker run : runs.values()) {
+			StringBuilder report = new StringBuilder();
+			report.append("requestIds[run=").append(run.name).append(", received=").append(run.received).append(", distinct=").append(run.seen.cardinality());
+			report.append(", duplicates=").append(run.duplicates).append(", missing=").append(run.getMissing());
+			if(run.max >= run.min)
+				report.append(", range=[").append(run.min).append(",").append(run.max).append("]");
+			report.append(", memory=").append(run.seen.getMemoryUsage() / 1024).append("KB");
+			
+			if(listGaps && run.max >= run.min) {
+				report.append(", gaps=[");
+				long from = run.seen.nextClearBit(run.min);
+				int gaps = 0;
+				while(from <= run.max && gaps < maxReportedGaps) {
+					long to = run.seen.nextSetBit(from) - 1;
+					if(gaps > 0)
+						report.append(",");
+					report.append(from);
+					if(to > from)
+						report.append("-").append(to);
+					gaps++;
+					from = run.seen.nextClearBit(to + 1);
+				}
+				if(from <= run.max)
+					report.append(",...");
+				report.append("]");
+			}
+			report.append("]");
+			logger.info(report.toString());
+		}
+		if(unparsable > 0)
+			logger.info("requestIds[unparsable=" + unparsable + "]");
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#shutdown()
+	 */
+	public void shutdown() {
+		report(true);
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+}
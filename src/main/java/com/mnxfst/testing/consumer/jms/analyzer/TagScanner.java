@@ -0,0 +1,348 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.nio.charset.Charset;
+
+/**
+ * Locates the values of a set of xml tags within a single walk over the message. Only plain tags
+ * (eg. <i>&lt;pub:Id&gt;</i>) are recognized, the first occurrence of each tag wins. Values are
+ * reported as offsets into the scanned message, no substrings are created. A tag may be assigned a
+ * required value: as soon as it does not match, scanning stops for all tags but those marked as
+ * to be extracted always. Besides chars the scanner works on utf-8 encoded bytes in place. As tag names
+ * and required values are compared byte-wise there, case is ignored for ascii characters only. The scanner 
+ * is not thread-safe and is meant to be re-used by a single analyzer.
+ * @author mnxfst
+ * @since 15.03.2012
+ */
+public class TagScanner {
+
+	private static final int NOT_FOUND = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String[] tagNames;
+	private final int[] tagNameLengths;
+	private final char[][] tagNameChars;
+	private final char[][] requiredValueChars;
+	private final byte[][] tagNameBytes;
+	private final byte[][] requiredValueBytes;
+	private final boolean[] extractAlways;
+
+	private final int[] valueStarts;
+	private final int[] valueEnds;
+
+	public TagScanner(String[] tagNames) {
+		this.tagNames = tagNames;
+		this.tagNameLengths = new int[tagNames.length];
+		this.tagNameChars = new char[tagNames.length][];
+		this.tagNameBytes = new byte[tagNames.length][];
+		for(int i = 0; i < tagNames.length; i++) {
+			if(tagNames[i] == null || tagNames[i].isEmpty())
+				throw new IllegalArgumentException("Empty tag names are not allowed");
+			this.tagNameLengths[i] = tagNames[i].length();
+			this.tagNameChars[i] = tagNames[i].toCharArray();
+			this.tagNameBytes[i] = tagNames[i].getBytes(UTF8);
+		}
+		this.requiredValueChars = new char[tagNames.length][];
+		this.requiredValueBytes = new byte[tagNames.length][];
+		this.extractAlways = new boolean[tagNames.length];
+		this.valueStarts = new int[tagNames.length];
+		this.valueEnds = new int[tagNames.length];
+	}
+
+	/**
+	 * Assigns a value the referenced tag must contain. Leading and trailing whitespaces are ignored
+	 * as is the case
+	 * @param tag
+	 * @param value
+	 */
+	public void setRequiredValue(int tag, String value) {
+		this.requiredValueChars[tag] = (value != null ? value.trim().toCharArray() : null);
+		this.requiredValueBytes[tag] = (value != null ? value.trim().getBytes(UTF8) : null);
+	}
+
+	/**
+	 * Marks the referenced tag as to be extracted even if another tag failed its required value
+	 * @param tag
+	 */
+	public void setExtractAlways(int tag) {
+		this.extractAlways[tag] = true;
+	}
+
+	/**
+	 * Scans the given message for all configured tags. The reported offsets refer to the char array
+	 * @param msg
+	 * @param length number of valid chars
+	 * @return true if all tags were found, contain a value and match their required value (if any)
+	 */
+	public boolean scan(char[] msg, int length) {
+
+		for(int i = 0; i < tagNames.length; i++) {
+			valueStarts[i] = NOT_FOUND;
+			valueEnds[i] = NOT_FOUND;
+		}
+
+		int pending = tagNames.length;
+		boolean valid = true;
+		int pos = indexOf(msg, '<', 0, length);
+
+		while(pos >= 0 && pending > 0) {
+
+			int nameStart = pos + 1;
+			boolean closing = (nameStart < length && msg[nameStart] == '/');
+			if(closing)
+				nameStart++;
+
+			if(nameStart < length) {
+				char firstChar = msg[nameStart];
+				for(int i = 0; i < tagNames.length; i++) {
+
+					if(tagNameChars[i][0] != firstChar || (!valid && !extractAlways[i]))
+						continue;
+					if(closing ? (valueStarts[i] == NOT_FOUND || valueEnds[i] != NOT_FOUND) : valueStarts[i] != NOT_FOUND)
+						continue;
+					int nameEnd = nameStart + tagNameLengths[i];
+					if(nameEnd >= length || msg[nameEnd] != '>' || !regionMatches(msg, nameStart, tagNameChars[i], false))
+						continue;
+
+					if(!closing) {
+						valueStarts[i] = nameEnd + 1;
+					} else {
+						valueEnds[i] = pos;
+						pending--;
+
+						if(valid && (valueStarts[i] == valueEnds[i] || (requiredValueChars[i] != null && !matches(msg, valueStarts[i], valueEnds[i], requiredValueChars[i])))) {
+							// short-circuit: the message is invalid, only the tags to be extracted always are of interest
+							valid = false;
+							pending = 0;
+							for(int j = 0; j < tagNames.length; j++)
+								if(extractAlways[j] && valueEnds[j] == NOT_FOUND)
+									pending++;
+						}
+					}
+					break;
+				}
+			}
+
+			pos = indexOf(msg, '<', nameStart, length);
+		}
+
+		return valid && pending == 0;
+	}
+
+	/**
+	 * Scans the given utf-8 encoded message for all configured tags. The reported offsets refer to the byte array 
+	 * @param msg
+	 * @param length number of valid bytes
+	 * @return true if all tags were found, contain a value and match their required value (if any)
+	 */
+	public boolean scan(byte[] msg, int length) {
+
+		for(int i = 0; i < tagNames.length; i++) {
+			valueStarts[i] = NOT_FOUND;
+			valueEnds[i] = NOT_FOUND;
+		}
+
+		int pending = tagNames.length;
+		boolean valid = true;
+		int pos = indexOf(msg, (byte)'<', 0, length);
+
+		while(pos >= 0 && pending > 0) {
+
+			int nameStart = pos + 1;
+			boolean closing = (nameStart < length && msg[nameStart] == '/');
+			if(closing)
+				nameStart++;
+
+			if(nameStart < length) {
+				byte firstByte = msg[nameStart];
+				for(int i = 0; i < tagNames.length; i++) {
+
+					if(tagNameBytes[i][0] != firstByte || (!valid && !extractAlways[i]))
+						continue;
+					if(closing ? (valueStarts[i] == NOT_FOUND || valueEnds[i] != NOT_FOUND) : valueStarts[i] != NOT_FOUND)
+						continue;
+					int nameEnd = nameStart + tagNameBytes[i].length;
+					if(nameEnd >= length || msg[nameEnd] != '>' || !regionMatches(msg, nameStart, tagNameBytes[i], false))
+						continue;
+
+					if(!closing) {
+						valueStarts[i] = nameEnd + 1;
+					} else {
+						valueEnds[i] = pos;
+						pending--;
+
+						if(valid && (valueStarts[i] == valueEnds[i] || (requiredValueBytes[i] != null && !matches(msg, valueStarts[i], valueEnds[i], requiredValueBytes[i])))) {
+							// short-circuit: the message is invalid, only the tags to be extracted always are of interest
+							valid = false;
+							pending = 0;
+							for(int j = 0; j < tagNames.length; j++)
+								if(extractAlways[j] && valueEnds[j] == NOT_FOUND)
+									pending++;
+						}
+					}
+					break;
+				}
+			}
+
+			pos = indexOf(msg, (byte)'<', nameStart, length);
+		}
+
+		return valid && pending == 0;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the given byte within [from, length), -1 if not found
+	 * @param msg
+	 * @param b
+	 * @param from
+	 * @param length
+	 * @return
+	 */
+	private static int indexOf(byte[] msg, byte b, int from, int length) {
+		for(int i = from; i < length; i++)
+			if(msg[i] == b)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the given char within [from, length), -1 if not found
+	 * @param msg
+	 * @param c
+	 * @param from
+	 * @param length
+	 * @return
+	 */
+	private static int indexOf(char[] msg, char c, int from, int length) {
+		for(int i = from; i < length; i++)
+			if(msg[i] == c)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Compares the chars found at the given offset with the expected ones, optionally ignoring the case
+	 * @param msg
+	 * @param offset
+	 * @param expected
+	 * @param ignoreCase
+	 * @return
+	 */
+	private static boolean regionMatches(char[] msg, int offset, char[] expected, boolean ignoreCase) {
+		for(int i = 0; i < expected.length; i++) {
+			char a = msg[offset + i];
+			char b = expected[i];
+			if(a != b && (!ignoreCase || Character.toLowerCase(a) != Character.toLowerCase(b)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the bytes found at the given offset with the expected ones, optionally ignoring the case of ascii characters
+	 * @param msg
+	 * @param offset
+	 * @param expected
+	 * @param ignoreCase
+	 * @return
+	 */
+	private static boolean regionMatches(byte[] msg, int offset, byte[] expected, boolean ignoreCase) {
+		for(int i = 0; i < expected.length; i++) {
+			byte a = msg[offset + i];
+			byte b = expected[i];
+			if(a != b && (!ignoreCase || toLowerCase(a) != toLowerCase(b)))
+				return false;
+		}
+		return true;
+	}
+
+	private static byte toLowerCase(byte b) {
+		return (b >= 'A' && b <= 'Z') ? (byte)(b + ('a' - 'A')) : b;
+	}
+
+	/**
+	 * Compares the trimmed byte region to the expected value ignoring the case of ascii characters
+	 * @param msg
+	 * @param start
+	 * @param end
+	 * @param expected
+	 * @return
+	 */
+	private static boolean matches(byte[] msg, int start, int end, byte[] expected) {
+		while(start < end && msg[start] <= ' ' && msg[start] >= 0)
+			start++;
+		while(end > start && msg[end - 1] <= ' ' && msg[end - 1] >= 0)
+			end--;
+		return (end - start) == expected.length && regionMatches(msg, start, expected, true);
+	}
+
+	/**
+	 * Compares the trimmed region to the expected value ignoring the case
+	 * @param msg
+	 * @param start
+	 * @param end
+	 * @param expected
+	 * @return
+	 */
+	private static boolean matches(char[] msg, int start, int end, char[] expected) {
+		while(start < end && Character.isWhitespace(msg[start]))
+			start++;
+		while(end > start && Character.isWhitespace(msg[end - 1]))
+			end--;
+		return (end - start) == expected.length && regionMatches(msg, start, expected, true);
+	}
+
+	/**
+	 * Returns the offset of the first value character of the referenced tag, -1 if not found
+	 * @param tag
+	 * @return
+	 */
+	public int getValueStart(int tag) {
+		return valueStarts[tag];
+	}
+
+	/**
+	 * Returns the offset following the last value character of the referenced tag, -1 if not found
+	 * @param tag
+	 * @return
+	 */
+	public int getValueEnd(int tag) {
+		return valueEnds[tag];
+	}
+
+	/**
+	 * Returns the number of configured tags
+	 * @return
+	 */
+	public int getNumberOfTags() {
+		return tagNames.length;
+	}
+
+	/**
+	 * Returns the name of the referenced tag
+	 * @param tag
+	 * @return
+	 */
+	public String getTagName(int tag) {
+		return tagNames[tag];
+	}
+
+}
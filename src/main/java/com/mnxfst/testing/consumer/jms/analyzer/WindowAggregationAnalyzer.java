@@ -0,0 +1,402 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.IStatefulMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.output.IResultSink;
+import com.mnxfst.testing.consumer.jms.output.ResultSinkFactory;
+import com.mnxfst.testing.consumer.jms.output.UtcTimestampFormatter;
+import com.mnxfst.testing.consumer.jms.stats.LongCounterMap;
+
+/**
+ * Aggregates the output of the {@link ESPMessageAnalyzer} into time windows and writes one summary per window
+ * instead of one record per message. Messages are counted per value of the group tags (default: domain sign
+ * and material group if extracted) and validity. Windows are configured through <i>windows</i> as comma separated list of 
+ * <i>size[/slide]</i> in seconds, eg. <i>1,10/1</i> for a tumbling 1s window and a 10s window sliding each second.<br/>
+ * Internally the counts are kept in panes of the greatest common divisor of all sizes and slides. The panes form a 
+ * ring covering the largest window, thus memory is bounded by the number of panes times the maximum number of 
+ * groups per pane (<i>windowMaxGroups</i>). Groups exceeding the limit are reported as rejected. Windows are 
+ * closed by the receive timestamps of the messages, the last one on shutdown. The summaries are written to
+ * <i>windowResultFile</i> (log4j if missing, the remaining result options apply) as
+ * <i>window;&lt;size ms&gt;;&lt;start ms&gt;;&lt;start&gt;;&lt;messages&gt;;&lt;estimated messages&gt;;&lt;sampling rate&gt;;&lt;valid&gt;;&lt;invalid&gt;;&lt;rejected&gt;;&lt;group&gt;=&lt;count&gt;,...</i>
+ * where a group is rendered as <i>&lt;value&gt;/.../&lt;valid|invalid|unknown&gt;</i>. The estimated messages are the
+ * sum of the sample weights of the events counted, the sampling rate is the ratio of both, thus the remaining
+ * counts may be extrapolated if the consumer samples its input
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class WindowAggregationAnalyzer implements IStatefulMessageAnalyzer {
+
+	private static final Logger logger = Logger.getLogger(WindowAggregationAnalyzer.class.getName());
+
+	private static final String CFG_PROP_WINDOWS = "windows";
+	private static final String CFG_PROP_WINDOW_GROUP_TAGS = "windowGroupTags";
+	private static final String CFG_PROP_WINDOW_MAX_GROUPS = "windowMaxGroups";
+	private static final String CFG_PROP_WINDOW_RESULT_FILE = "windowResultFile";
+	
+	private static final String DEFAULT_WINDOWS = "1,10";
+	private static final int DEFAULT_WINDOW_MAX_GROUPS = 1024;
+	private static final String DEFAULT_WINDOW_GROUP_TAG = "pub:materialGroup";
+	
+	private static final long HASH_PRIME = 0x100000001b3L;
+	/** indexed by the validity of the event */
+	private static final String[] VALIDITY_NAMES = new String[]{"unknown", "valid", "invalid"};
+
+	/**
+	 * Counts of a single pane
+	 */
+	private static class Pane {
+		long index = Long.MIN_VALUE;
+		long messages = 0;
+		double estimatedMessages = 0;
+		long valid = 0;
+		long invalid = 0;
+		long rejected = 0;
+		final LongCounterMap groups;
+		
+		Pane(int maxGroups) {
+			this.groups = new LongCounterMap(maxGroups);
+		}
+		
+		void reset(long index) {
+			this.index = index;
+			this.messages = 0;
+			this.estimatedMessages = 0;
+			this.valid = 0;
+			this.invalid = 0;
+			this.rejected = 0;
+			this.groups.clear();
+		}
+	}
+	
+	/** window sizes and slides in panes */
+	private int[] windowSizes = null;
+	private int[] windowSlides = null;
+	private long paneMillis = 0;
+	private Pane[] panes = null;
+	private long currentPane = Long.MIN_VALUE;
+	
+	private int[] groupFields = null;
+	private String[] groupTags = null;
+	private int maxGroups = DEFAULT_WINDOW_MAX_GROUPS;
+	/** rendered group names by key, filled on first occurrence */
+	private final Map<Long, String> groupNames = new HashMap<Long, String>();
+	
+	/** scratch space for merging the panes of a window */
+	private LongCounterMap windowGroups = null;
+	private final StringBuilder summaryBuffer = new StringBuilder(1024);
+	private final UtcTimestampFormatter dateFormatter = new UtcTimestampFormatter();
+	private IResultSink resultSink = null;
+	
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#initialize(java.util.Map)
+	 */
+	public void initialize(Map<String, List<String>> configuration) throws AsyncInputConsumerException {
+		
+		String tmp = extractSingleString(CFG_PROP_WINDOWS, configuration);
+		String[] windows = (tmp != null && !tmp.trim().isEmpty() ? tmp : DEFAULT_WINDOWS).split(",");
+		long[] sizeMillis = new long[windows.length];
+		long[] slideMillis = new long[windows.length];
+		long gcd = 0;
+		long maxSize = 0;
+		for(int i = 0; i < windows.length; i++) {
+			String[] sizeAndSlide = windows[i].trim().split("/");
+			sizeMillis[i] = parseSeconds(sizeAndSlide[0], windows[i]) * 1000;
+			slideMillis[i] = (sizeAndSlide.length > 1 ? parseSeconds(sizeAndSlide[1], windows[i]) * 1000 : sizeMillis[i]);
+			if(slideMillis[i] > sizeMillis[i] || sizeAndSlide.length > 2)
+				throw new AsyncInputConsumerException("Invalid window: " + windows[i] + ". Expected size[/slide] in seconds with slide <= size");
+			gcd = gcd(gcd(gcd, sizeMillis[i]), slideMillis[i]);
+			maxSize = Math.max(maxSize, sizeMillis[i]);
+		}
+		
+		this.paneMillis = gcd;
+		this.windowSizes = new int[windows.length];
+		this.windowSlides = new int[windows.length];
+		for(int i = 0; i < windows.length; i++) {
+			windowSizes[i] = (int)(sizeMillis[i] / paneMillis);
+			windowSlides[i] = (int)(slideMillis[i] / paneMillis);
+		}
+		if(maxSize / paneMillis > 3600)
+			throw new AsyncInputConsumerException("Windows '" + tmp + "' require " + (maxSize / paneMillis) + " panes. Choose sizes and slides with a larger common divisor");
+		
+		tmp = extractSingleString(CFG_PROP_WINDOW_MAX_GROUPS, configuration);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				maxGroups = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid maximum number of window groups: " + tmp);
+			}
+			if(maxGroups < 1)
+				throw new AsyncInputConsumerException("Invalid maximum number of window groups: " + maxGroups);
+		}
+		
+		this.panes = new Pane[(int)(maxSize / paneMillis)];
+		for(int i = 0; i < panes.length; i++)
+			panes[i] = new Pane(maxGroups);
+		this.windowGroups = new LongCounterMap(maxGroups);
+
+		// group tags must be extracted by the esp analyzer
+		tmp = extractSingleString(CFG_PROP_WINDOW_GROUP_TAGS, configuration);
+		String[] tagNames = ESPMessageAnalyzer.getTagNames(configuration);
+		if(tmp != null && !tmp.trim().isEmpty())
+			this.groupTags = tmp.split(",");
+		else if(ESPMessageAnalyzer.getFieldIndex(DEFAULT_WINDOW_GROUP_TAG, configuration) >= 0)
+			this.groupTags = new String[]{tagNames[ESPMessageAnalyzer.FIELD_DOMAIN_SIGN], DEFAULT_WINDOW_GROUP_TAG};
+		else
+			this.groupTags = new String[]{tagNames[ESPMessageAnalyzer.FIELD_DOMAIN_SIGN]};
+		this.groupFields = new int[groupTags.length];
+		for(int i = 0; i < groupTags.length; i++) {
+			groupTags[i] = groupTags[i].trim();
+			groupFields[i] = ESPMessageAnalyzer.getFieldIndex(groupTags[i], configuration);
+			if(groupFields[i] < 0)
+				throw new AsyncInputConsumerException("Window group tag '" + groupTags[i] + "' is not extracted by the esp analyzer. Add it to 'espTags'");
+		}
+		
+		// the esp records and the summaries must not share a file, the file sinks are shared per path
+		String windowResultFile = extractSingleString(CFG_PROP_WINDOW_RESULT_FILE, configuration);
+		String resultFile = extractSingleString(ResultSinkFactory.CFG_PROP_RESULT_FILE, configuration);
+		if(windowResultFile != null && !windowResultFile.trim().isEmpty() && resultFile != null && new File(windowResultFile.trim()).getAbsoluteFile().equals(new File(resultFile.trim()).getAbsoluteFile()))
+			throw new AsyncInputConsumerException("Window result file '" + windowResultFile + "' must differ from the result file");
+		this.resultSink = ResultSinkFactory.createResultSink(configuration, CFG_PROP_WINDOW_RESULT_FILE, logger);
+	}
+	
+	/**
+	 * @see com.lmax.disruptor.EventHandler#onEvent(java.lang.Object, long, boolean)
+	 */
+	public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+		
+		if(!event.hasPayload())
+			return;
+		
+		long paneIndex = floorDiv(event.getTimestamp(), paneMillis);
+		advance(paneIndex);
+		
+		// late messages are counted with the pane they belong to as long as it is kept, otherwise with the current one
+		Pane pane = panes[(int)(floorMod(paneIndex, panes.length))];
+		if(pane.index != paneIndex)
+			pane = panes[(int)(floorMod(currentPane, panes.length))];
+		
+		byte validity = event.getValidity();
+		long key = HASH_PRIME * validity;
+		for(int i = 0; i < groupFields.length; i++)
+			key = (key ^ event.hashFieldValue(groupFields[i])) * HASH_PRIME;
+		
+		pane.messages++;
+		pane.estimatedMessages += event.getSampleWeight();
+		if(validity == JMSMessageEvent.VALIDITY_VALID)
+			pane.valid++;
+		else if(validity == JMSMessageEvent.VALIDITY_INVALID)
+			pane.invalid++;
+		
+		if(pane.groups.get(key) == 0 && !groupNames.containsKey(key))
+			registerGroupName(key, event, validity);
+		if(!pane.groups.add(key, 1))
+			pane.rejected++;
+	}
+	
+	/**
+	 * Moves the current pane forward to the given one, emitting all windows closed in between. After a gap longer
+	 * than the ring, all panes are reset at once 
+	 * @param paneIndex
+	 * @throws Exception
+	 */
+	protected void advance(long paneIndex) throws Exception {
+		if(currentPane == Long.MIN_VALUE) {
+			currentPane = paneIndex;
+			panes[(int)floorMod(currentPane, panes.length)].reset(currentPane);
+			return;
+		}
+		
+		int steps = 0;
+		while(currentPane < paneIndex && steps++ < panes.length) {
+			closePane(currentPane);
+			currentPane++;
+			panes[(int)floorMod(currentPane, panes.length)].reset(currentPane);
+		}
+		if(currentPane < paneIndex) {
+			for(Pane pane : panes)
+				pane.reset(Long.MIN_VALUE);
+			currentPane = paneIndex;
+			panes[(int)floorMod(currentPane, panes.length)].reset(currentPane);
+		}
+	}
+	
+	/**
+	 * Emits all windows ending with the given pane
+	 * @param paneIndex
+	 * @throws Exception
+	 */
+	protected void closePane(long paneIndex) throws Exception {
+		for(int i = 0; i < windowSizes.length; i++)
+			if(floorMod(paneIndex + 1, windowSlides[i]) == 0)
+				emitWindow(paneIndex, windowSizes[i]);
+	}
+	
+	/**
+	 * Merges the panes of the window ending with the given pane and writes the summary
+	 * @param lastPane
+	 * @param size number of panes
+	 * @throws Exception
+	 */
+	protected void emitWindow(long lastPane, int size) throws Exception {
+		
+		long messages = 0, valid = 0, invalid = 0, rejected = 0;
+		double estimatedMessages = 0;
+		windowGroups.clear();
+		for(long p = lastPane - size + 1; p <= lastPane; p++) {
+			Pane pane = panes[(int)floorMod(p, panes.length)];
+			if(pane.index != p)
+				continue;
+			messages += pane.messages;
+			estimatedMessages += pane.estimatedMessages;
+			valid += pane.valid;
+			invalid += pane.invalid;
+			rejected += pane.rejected + windowGroups.addAll(pane.groups);
+		}
+		
+		long start = (lastPane - size + 1) * paneMillis;
+		summaryBuffer.setLength(0);
+		summaryBuffer.append("window;").append(size * paneMillis).append(';').append(start).append(';');
+		dateFormatter.format(start, summaryBuffer).append(';').append(messages).append(';').append(Math.round(estimatedMessages)).append(';');
+		summaryBuffer.append(estimatedMessages > 0 ? Math.round(messages / estimatedMessages * 1000) / 1000.0 : 1.0).append(';').append(valid).append(';').append(invalid).append(';').append(rejected).append(';');
+		boolean first = true;
+		for(int slot = 0; slot < windowGroups.capacity(); slot++) {
+			if(!windowGroups.isUsed(slot))
+				continue;
+			if(!first)
+				summaryBuffer.append(',');
+			String name = groupNames.get(windowGroups.keyAt(slot));
+			if(name != null)
+				summaryBuffer.append(name);
+			else
+				summaryBuffer.append(Long.toHexString(windowGroups.keyAt(slot)));
+			summaryBuffer.append('=').append(windowGroups.counterAt(slot));
+			first = false;
+		}
+		resultSink.append(summaryBuffer, true);
+	}
+	
+	/**
+	 * Renders the name of a newly seen group. The number of names kept is bounded, if exceeded the names of groups
+	 * no longer counted by any pane are dropped. Groups without a name are reported by their key
+	 * @param key
+	 * @param event
+	 * @param validity
+	 */
+	private void registerGroupName(long key, JMSMessageEvent event, int validity) {
+		if(groupNames.size() >= maxGroups * 4) {
+			for(Iterator<Long> it = groupNames.keySet().iterator(); it.hasNext(); )
+				if(!isLive(it.next()))
+					it.remove();
+			if(groupNames.size() >= maxGroups * 4)
+				return;
+		}
+		StringBuilder name = new StringBuilder();
+		for(int i = 0; i < groupFields.length; i++) {
+			event.appendFieldValue(groupFields[i], name);
+			name.append('/');
+		}
+		name.append(VALIDITY_NAMES[validity]);
+		groupNames.put(key, name.toString());
+	}
+
+	/**
+	 * Returns true if the group is counted by any pane kept
+	 * @param key
+	 * @return
+	 */
+	private boolean isLive(long key) {
+		for(Pane pane : panes)
+			if(pane.index != Long.MIN_VALUE && pane.groups.get(key) != 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.IMessageAnalyzer#shutdown()
+	 */
+	public void shutdown() {
+		if(resultSink == null)
+			return;
+		try {
+			// emit the windows covering the current pane even if incomplete
+			if(currentPane != Long.MIN_VALUE) {
+				for(int i = 0; i < windowSizes.length; i++)
+					emitWindow(currentPane, windowSizes[i]);
+			}
+		} catch(Exception e) {
+			logger.error("Failed to write window summaries. Error: " + e.getMessage());
+		}
+		resultSink.close();
+	}
+	
+	private static long parseSeconds(String value, String window) throws AsyncInputConsumerException {
+		String tmp = value.trim();
+		if(tmp.endsWith("s"))
+			tmp = tmp.substring(0, tmp.length() - 1);
+		try {
+			long seconds = Long.parseLong(tmp);
+			if(seconds > 0)
+				return seconds;
+		} catch(NumberFormatException e) {
+			// handled below
+		}
+		throw new AsyncInputConsumerException("Invalid window: " + window + ". Expected size[/slide] in seconds");
+	}
+	
+	private static long gcd(long a, long b) {
+		while(b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+	
+	private static long floorDiv(long value, long divisor) {
+		long result = value / divisor;
+		return (value % divisor < 0) ? result - 1 : result;
+	}
+	
+	private static long floorMod(long value, long divisor) {
+		long mod = value % divisor;
+		return (mod < 0) ? mod + divisor : mod;
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+}
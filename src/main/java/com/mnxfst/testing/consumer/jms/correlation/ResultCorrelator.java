@@ -0,0 +1,384 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.correlation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+import com.mnxfst.testing.consumer.jms.stats.LatencyHistogram;
+import com.mnxfst.testing.consumer.jms.stats.LatencySummary;
+
+/**
+ * Joins the result records written by multiple nodes and measuring points by their request identifier and records
+ * the latencies between consecutive measuring points a request passed. The result files of all nodes are merged
+ * by their incoming time in a single streaming pass, each file must therefore be sorted by time, which holds for
+ * the files written by the {@link com.mnxfst.testing.consumer.jms.analyzer.ESPResultWriter}. 
+ * <br/><br/>
+ * Memory is bounded by keeping requests pending for a limited time only: a request is finished as soon as it has
+ * passed the expected number of measuring points (if known), once no record has been seen within the eviction
+ * window since its first record or when the maximum number of pending requests is exceeded. Hops are named
+ * <i>&lt;nodeId&gt;/&lt;measuringPointId&gt; -&gt; &lt;nodeId&gt;/&lt;measuringPointId&gt;</i>, latencies are given
+ * in milliseconds. As the timestamps originate from different hosts, the results depend on their clocks being synchronized. 
+ * Not thread-safe
+ * @author mnxfst
+ * @since 24.03.2012
+ */
+public class ResultCorrelator {
+
+	public static final long DEFAULT_EVICTION_WINDOW = 60000;
+	public static final int DEFAULT_MAX_PENDING_REQUESTS = 1000000;
+	
+	private static final String HOP_SEPARATOR = " -> ";
+	
+	private static final String OPT_EVICTION_WINDOW = "w";
+	private static final String OPT_MAX_PENDING = "m";
+	private static final String OPT_EXPECTED_POINTS = "p";
+	private static final String OPT_OUTPUT = "o";
+	private static final String OPT_HELP = "h";
+
+	/**
+	 * Measuring points a request has passed so far
+	 */
+	private static class PendingRequest {
+		
+		private final long firstTime;
+		private String[] points = new String[2];
+		private int numberOfPoints = 0;
+		private long lastTime;
+		
+		private PendingRequest(long firstTime) {
+			this.firstTime = firstTime;
+		}
+		
+		private boolean contains(String point) {
+			// measuring points are canonical instances
+			for(int i = 0; i < numberOfPoints; i++)
+				if(points[i] == point)
+					return true;
+			return false;
+		}
+		
+		private void add(String point, long time) {
+			if(numberOfPoints == points.length) {
+				String[] tmp = new String[points.length * 2];
+				System.arraycopy(points, 0, tmp, 0, numberOfPoints);
+				points = tmp;
+			}
+			points[numberOfPoints++] = point;
+			lastTime = time;
+		}
+		
+		private String getLastPoint() {
+			return points[numberOfPoints - 1];
+		}
+	}
+	
+	private final long evictionWindow;
+	private final int maxPendingRequests;
+	private final int expectedPoints;
+	
+	/** canonical instances of the measuring point names */
+	private final Map<String, String> measuringPoints = new HashMap<String, String>();
+	/** requests in order of their first record */
+	private final LinkedHashMap<String, PendingRequest> pendingRequests = new LinkedHashMap<String, PendingRequest>();
+	private final Map<String, LatencyHistogram> hops = new TreeMap<String, LatencyHistogram>();
+	private final StringBuilder keyBuffer = new StringBuilder(64);
+	
+	private long currentTime = Long.MIN_VALUE;
+	private long records = 0;
+	private long outOfOrderRecords = 0;
+	private long duplicateRecords = 0;
+	private long correlatedRequests = 0;
+	private long unmatchedRequests = 0;
+	private long completedRequests = 0;
+	private long evictedRequests = 0;
+	
+	/**
+	 * Initializes the correlator
+	 * @param evictionWindow millis a request is kept pending for after its first record
+	 * @param maxPendingRequests
+	 * @param expectedPoints number of measuring points each request passes, 0 if unknown
+	 */
+	public ResultCorrelator(long evictionWindow, int maxPendingRequests, int expectedPoints) {
+		if(evictionWindow < 1)
+			throw new IllegalArgumentException("Invalid eviction window: " + evictionWindow);
+		if(maxPendingRequests < 1)
+			throw new IllegalArgumentException("Invalid maximum number of pending requests: " + maxPendingRequests);
+		if(expectedPoints < 0 || expectedPoints == 1)
+			throw new IllegalArgumentException("Invalid number of expected measuring points: " + expectedPoints);
+		this.evictionWindow = evictionWindow;
+		this.maxPendingRequests = maxPendingRequests;
+		this.expectedPoints = expectedPoints;
+	}
+	
+	/**
+	 * Merges the records of all readers by their incoming time and correlates them. All requests still pending 
+	 * are finished afterwards
+	 * @param readers
+	 * @throws IOException
+	 */
+	public void correlate(List<ResultFileReader> readers) throws IOException {
+		
+		PriorityQueue<ResultFileReader> queue = new PriorityQueue<ResultFileReader>(Math.max(1, readers.size()), new Comparator<ResultFileReader>() {
+			public int compare(ResultFileReader a, ResultFileReader b) {
+				long timeA = a.getCurrent().getIncomingTime();
+				long timeB = b.getCurrent().getIncomingTime();
+				return (timeA < timeB ? -1 : (timeA == timeB ? 0 : 1));
+			}
+		});
+		for(ResultFileReader reader : readers)
+			if(reader.next())
+				queue.add(reader);
+		
+		while(!queue.isEmpty()) {
+			ResultFileReader reader = queue.poll();
+			process(reader.getCurrent());
+			if(reader.next())
+				queue.add(reader);
+			else
+				reader.close();
+		}
+		
+		finish();
+	}
+	
+	/**
+	 * Correlates a single record. Records must be provided in order of their incoming time, records slightly out
+	 * of order are accepted but may miss a request already evicted
+	 * @param record
+	 */
+	public void process(ResultRecord record) {
+		
+		records++;
+		long time = record.getIncomingTime();
+		if(time < currentTime) {
+			outOfOrderRecords++;
+		} else {
+			currentTime = time;
+			evict(currentTime - evictionWindow);
+		}
+		
+		String point = getMeasuringPoint(record.getNodeId(), record.getMeasuringPointId());
+		PendingRequest request = pendingRequests.get(record.getRequestId());
+		if(request == null) {
+			request = new PendingRequest(time);
+			request.add(point, time);
+			pendingRequests.put(record.getRequestId(), request);
+			if(pendingRequests.size() > maxPendingRequests) {
+				Iterator<PendingRequest> eldest = pendingRequests.values().iterator();
+				finish(eldest.next());
+				eldest.remove();
+				evictedRequests++;
+			}
+			return;
+		}
+		
+		if(request.contains(point)) {
+			duplicateRecords++;
+			return;
+		}
+		
+		keyBuffer.setLength(0);
+		String hop = keyBuffer.append(request.getLastPoint()).append(HOP_SEPARATOR).append(point).toString();
+		LatencyHistogram histogram = hops.get(hop);
+		if(histogram == null) {
+			histogram = new LatencyHistogram();
+			hops.put(hop, histogram);
+		}
+		histogram.record(time - request.lastTime);
+		request.add(point, time);
+		
+		if(expectedPoints > 0 && request.numberOfPoints >= expectedPoints) {
+			pendingRequests.remove(record.getRequestId());
+			finish(request);
+			completedRequests++;
+		}
+	}
+	
+	/**
+	 * Finishes all requests whose first record is older than the given time
+	 * @param threshold
+	 */
+	private void evict(long threshold) {
+		Iterator<PendingRequest> iterator = pendingRequests.values().iterator();
+		while(iterator.hasNext()) {
+			PendingRequest request = iterator.next();
+			if(request.firstTime >= threshold)
+				break;
+			finish(request);
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Finishes all pending requests
+	 */
+	public void finish() {
+		for(PendingRequest request : pendingRequests.values())
+			finish(request);
+		pendingRequests.clear();
+	}
+	
+	private void finish(PendingRequest request) {
+		if(request.numberOfPoints > 1)
+			correlatedRequests++;
+		else
+			unmatchedRequests++;
+	}
+	
+	/**
+	 * Returns the canonical instance of the measuring point name
+	 * @param nodeId
+	 * @param measuringPointId
+	 * @return
+	 */
+	private String getMeasuringPoint(String nodeId, String measuringPointId) {
+		keyBuffer.setLength(0);
+		String point = keyBuffer.append(nodeId).append('/').append(measuringPointId).toString();
+		String canonical = measuringPoints.get(point);
+		if(canonical == null) {
+			measuringPoints.put(point, point);
+			canonical = point;
+		}
+		return canonical;
+	}
+	
+	/**
+	 * Summarizes the latencies of all hops, values are given in milliseconds
+	 * @return
+	 */
+	public Map<String, LatencySummary> getSummaries() {
+		Map<String, LatencySummary> summaries = new TreeMap<String, LatencySummary>();
+		for(Map.Entry<String, LatencyHistogram> entry : hops.entrySet())
+			summaries.put(entry.getKey(), LatencySummary.summarize(entry.getValue(), TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS));
+		return summaries;
+	}
+	
+	/**
+	 * Writes the hop latencies as semicolon separated lines followed by the correlation statistics 
+	 * @param out
+	 */
+	public void report(PrintStream out) {
+		out.println("hop;count;mean;p50;p99;p999;max");
+		for(Map.Entry<String, LatencySummary> entry : getSummaries().entrySet()) {
+			LatencySummary summary = entry.getValue();
+			out.println(entry.getKey() + ";" + summary.getCount() + ";" + summary.getMean() + ";" + summary.getP50() + ";" + summary.getP99() + ";" + summary.getP999() + ";" + summary.getMax());
+		}
+		out.println();
+		out.println("records: " + records + " (out of order: " + outOfOrderRecords + ", duplicates: " + duplicateRecords + ")");
+		out.println("requests: " + (correlatedRequests + unmatchedRequests + pendingRequests.size()) + " (correlated: " + correlatedRequests + ", completed: " + completedRequests + 
+				", unmatched: " + unmatchedRequests + ", evicted early: " + evictedRequests + ", pending: " + pendingRequests.size() + ")");
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public long getOutOfOrderRecords() {
+		return outOfOrderRecords;
+	}
+
+	public long getDuplicateRecords() {
+		return duplicateRecords;
+	}
+
+	public long getCorrelatedRequests() {
+		return correlatedRequests;
+	}
+
+	public long getUnmatchedRequests() {
+		return unmatchedRequests;
+	}
+
+	public long getCompletedRequests() {
+		return completedRequests;
+	}
+
+	/**
+	 * @return number of requests evicted as the maximum number of pending requests has been exceeded
+	 */
+	public long getEvictedRequests() {
+		return evictedRequests;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		
+		Options options = new Options();
+		options.addOption(OPT_EVICTION_WINDOW, "window", true, "millis a request is kept pending for after its first record (default: " + DEFAULT_EVICTION_WINDOW + ")");
+		options.addOption(OPT_MAX_PENDING, "maxPending", true, "maximum number of pending requests (default: " + DEFAULT_MAX_PENDING_REQUESTS + ")");
+		options.addOption(OPT_EXPECTED_POINTS, "points", true, "number of measuring points each request passes, finishes requests early (default: unknown)");
+		options.addOption(OPT_OUTPUT, "output", true, "file the report is written to (default: stdout)");
+		options.addOption(OPT_HELP, "help", false, "prints this help");
+		
+		CommandLine cmd = null;
+		try {
+			cmd = new PosixParser().parse(options, args);
+		} catch(ParseException e) {
+			System.out.println("Invalid arguments: " + e.getMessage());
+			new HelpFormatter().printHelp(ResultCorrelator.class.getName() + " [options] <result file> ...", options);
+			return;
+		}
+		if(cmd.hasOption(OPT_HELP) || cmd.getArgs().length == 0) {
+			new HelpFormatter().printHelp(ResultCorrelator.class.getName() + " [options] <result file> ...", options);
+			return;
+		}
+		
+		ResultCorrelator correlator = new ResultCorrelator(
+				Long.parseLong(cmd.getOptionValue(OPT_EVICTION_WINDOW, String.valueOf(DEFAULT_EVICTION_WINDOW))),
+				Integer.parseInt(cmd.getOptionValue(OPT_MAX_PENDING, String.valueOf(DEFAULT_MAX_PENDING_REQUESTS))),
+				Integer.parseInt(cmd.getOptionValue(OPT_EXPECTED_POINTS, "0")));
+		
+		List<ResultFileReader> readers = new ArrayList<ResultFileReader>();
+		for(String fileName : cmd.getArgs())
+			readers.add(new ResultFileReader(new File(fileName)));
+		correlator.correlate(readers);
+		
+		long skippedLines = 0;
+		for(ResultFileReader reader : readers)
+			skippedLines = skippedLines + reader.getSkippedLines();
+		
+		PrintStream out = (cmd.hasOption(OPT_OUTPUT) ? new PrintStream(new FileOutputStream(cmd.getOptionValue(OPT_OUTPUT)), false, "UTF-8") : System.out);
+		try {
+			correlator.report(out);
+			out.println("skipped lines: " + skippedLines);
+		} finally {
+			if(out != System.out)
+				out.close();
+		}
+	}
+	
+}
@@ -0,0 +1,166 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.correlation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the result records of a single node. A result file may have been rolled over by the
+ * {@link com.mnxfst.testing.consumer.jms.output.FileResultSink}, thus the rolled files <i>&lt;file&gt;.&lt;n&gt;</i>
+ * are read in the order of their index before the file itself. Lines not holding a valid record are skipped
+ * @author mnxfst
+ * @since 24.03.2012
+ */
+public class ResultFileReader {
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	
+	private final String name;
+	private final List<File> files;
+	private int fileIndex = 0;
+	private BufferedReader reader = null;
+	private ResultRecord current = null;
+	private long skippedLines = 0;
+	
+	/**
+	 * Initializes the reader for the given result file including its rolled files
+	 * @param file
+	 * @throws IOException if neither the file nor any rolled file exists
+	 */
+	public ResultFileReader(File file) throws IOException {
+		this.name = file.getPath();
+		this.files = listFiles(file);
+		if(files.isEmpty())
+			throw new IOException("Result file " + file + " not found");
+	}
+	
+	/**
+	 * Lists the rolled files in the order of their index followed by the file itself
+	 * @param file
+	 * @return
+	 */
+	protected static List<File> listFiles(File file) {
+		
+		Map<Long, File> rolledFiles = new TreeMap<Long, File>();
+		File directory = file.getAbsoluteFile().getParentFile();
+		String prefix = file.getName() + ".";
+		File[] candidates = (directory != null ? directory.listFiles() : null);
+		if(candidates != null) {
+			for(File candidate : candidates) {
+				String candidateName = candidate.getName();
+				if(!candidate.isFile() || !candidateName.startsWith(prefix))
+					continue;
+				try {
+					rolledFiles.put(Long.parseLong(candidateName.substring(prefix.length())), candidate);
+				} catch(NumberFormatException e) {
+					// not a rolled file
+				}
+			}
+		}
+		
+		List<File> files = new ArrayList<File>(rolledFiles.values());
+		if(file.isFile())
+			files.add(file);
+		return Collections.unmodifiableList(files);
+	}
+	
+	/**
+	 * Moves to the next record
+	 * @return false if all files have been read
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while(true) {
+			if(reader == null) {
+				if(fileIndex >= files.size()) {
+					current = null;
+					return false;
+				}
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(files.get(fileIndex++)), "UTF-8"), READ_BUFFER_SIZE);
+			}
+			
+			String line = reader.readLine();
+			if(line == null) {
+				reader.close();
+				reader = null;
+				continue;
+			}
+			if(line.trim().isEmpty())
+				continue;
+			
+			current = ResultRecord.parse(line);
+			if(current != null)
+				return true;
+			skippedLines++;
+		}
+	}
+	
+	/**
+	 * Closes the file currently read
+	 */
+	public void close() {
+		if(reader != null) {
+			try {
+				reader.close();
+			} catch(IOException e) {
+				// nothing to do
+			}
+			reader = null;
+		}
+		fileIndex = files.size();
+	}
+
+	/**
+	 * @return the record the reader is positioned on, null before the first and after the last record 
+	 */
+	public ResultRecord getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return number of lines skipped as they do not hold a valid record
+	 */
+	public long getSkippedLines() {
+		return skippedLines;
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the files read in order
+	 */
+	public List<File> getFiles() {
+		return files;
+	}
+	
+}
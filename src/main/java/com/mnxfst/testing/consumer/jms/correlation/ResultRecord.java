@@ -0,0 +1,99 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.correlation;
+
+/**
+ * Leading fields of a result record as written by the {@link com.mnxfst.testing.consumer.jms.analyzer.ESPResultWriter}:
+ * <i>requestId;nodeId;measuringPointId;incomingTime;...</i>. Any further fields are ignored
+ * @author mnxfst
+ * @since 24.03.2012
+ */
+public class ResultRecord {
+
+	private static final char FIELD_SEPARATOR = ';';
+	
+	private final String requestId;
+	private final String nodeId;
+	private final String measuringPointId;
+	private final long incomingTime;
+	
+	public ResultRecord(String requestId, String nodeId, String measuringPointId, long incomingTime) {
+		this.requestId = requestId;
+		this.nodeId = nodeId;
+		this.measuringPointId = measuringPointId;
+		this.incomingTime = incomingTime;
+	}
+	
+	/**
+	 * Parses the given line
+	 * @param line
+	 * @return null if the line does not hold a valid record
+	 */
+	public static ResultRecord parse(String line) {
+		int requestIdEnd = line.indexOf(FIELD_SEPARATOR);
+		if(requestIdEnd < 1)
+			return null;
+		int nodeIdEnd = line.indexOf(FIELD_SEPARATOR, requestIdEnd + 1);
+		if(nodeIdEnd < 0)
+			return null;
+		int measuringPointIdEnd = line.indexOf(FIELD_SEPARATOR, nodeIdEnd + 1);
+		if(measuringPointIdEnd < 0)
+			return null;
+		int incomingTimeEnd = line.indexOf(FIELD_SEPARATOR, measuringPointIdEnd + 1);
+		if(incomingTimeEnd < 0)
+			incomingTimeEnd = line.length();
+		
+		long incomingTime = 0;
+		try {
+			incomingTime = Long.parseLong(line.substring(measuringPointIdEnd + 1, incomingTimeEnd).trim());
+		} catch(NumberFormatException e) {
+			return null;
+		}
+		return new ResultRecord(line.substring(0, requestIdEnd), line.substring(requestIdEnd + 1, nodeIdEnd), line.substring(nodeIdEnd + 1, measuringPointIdEnd), incomingTime);
+	}
+
+	/**
+	 * @return the requestId
+	 */
+	public String getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * @return the nodeId
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @return the measuringPointId
+	 */
+	public String getMeasuringPointId() {
+		return measuringPointId;
+	}
+
+	/**
+	 * @return time the message was received at in milliseconds since epoch
+	 */
+	public long getIncomingTime() {
+		return incomingTime;
+	}
+	
+}
@@ -0,0 +1,174 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.destination;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+/**
+ * Assigns compact indices to the destinations a consumer receives messages from. The subscribed destinations are 
+ * registered on startup in the order configured. A subscription to a wildcard destination (eg. <i>orders.&gt;</i>) 
+ * covers any number of physical destinations, those are registered as messages from them arrive. The number of 
+ * destinations is bounded: as soon as the registry is full, messages from further physical destinations are 
+ * accounted to the wildcard subscription they have been received through. Registering subscriptions is expected
+ * to be completed before any message is resolved
+ * @author mnxfst
+ * @since 26.03.2012
+ */
+public class DestinationRegistry {
+
+	public static final int DEFAULT_MAX_DESTINATIONS = 256;
+	
+	private final int maxDestinations;
+	private final ConcurrentMap<String, Integer> indices = new ConcurrentHashMap<String, Integer>();
+	private final AtomicReferenceArray<String> names;
+	private final boolean[] wildcards;
+	private volatile int size = 0;
+	
+	public DestinationRegistry(int maxDestinations) {
+		if(maxDestinations < 1)
+			throw new IllegalArgumentException("Invalid maximum number of destinations: " + maxDestinations);
+		this.maxDestinations = maxDestinations;
+		this.names = new AtomicReferenceArray<String>(maxDestinations);
+		this.wildcards = new boolean[maxDestinations];
+	}
+	
+	/**
+	 * Registers a subscribed destination
+	 * @param destination
+	 * @return index of the destination, -1 if the registry is full
+	 * @throws JMSException
+	 */
+	public synchronized int register(Destination destination) throws JMSException {
+		String name = getDestinationName(destination);
+		Integer index = indices.get(name);
+		if(index != null)
+			return index.intValue();
+		int newIndex = add(name);
+		if(newIndex >= 0)
+			wildcards[newIndex] = isWildcard(name);
+		return newIndex;
+	}
+	
+	/**
+	 * Returns the index of the destination the message has been sent to
+	 * @param message
+	 * @param subscriptionIndex index of the destination the message has been received through
+	 * @return
+	 */
+	public int resolve(Message message, int subscriptionIndex) {
+		if(!wildcards[subscriptionIndex])
+			return subscriptionIndex;
+		
+		try {
+			Destination destination = message.getJMSDestination();
+			if(destination == null)
+				return subscriptionIndex;
+			String name = getDestinationName(destination);
+			Integer index = indices.get(name);
+			if(index != null)
+				return index.intValue();
+			synchronized(this) {
+				index = indices.get(name);
+				int newIndex = (index != null ? index.intValue() : add(name));
+				return (newIndex >= 0 ? newIndex : subscriptionIndex);
+			}
+		} catch(JMSException e) {
+			return subscriptionIndex;
+		}
+	}
+	
+	/**
+	 * Adds the named destination, must be called while holding the lock
+	 * @param name
+	 * @return
+	 */
+	private int add(String name) {
+		int index = size;
+		if(index >= maxDestinations)
+			return -1;
+		names.set(index, name);
+		indices.put(name, Integer.valueOf(index));
+		size = index + 1;
+		return index;
+	}
+	
+	/**
+	 * Returns the name of the given destination
+	 * @param destination
+	 * @return
+	 * @throws JMSException
+	 */
+	public static String getDestinationName(Destination destination) throws JMSException {
+		if(destination instanceof Queue)
+			return ((Queue)destination).getQueueName();
+		if(destination instanceof Topic)
+			return ((Topic)destination).getTopicName();
+		return String.valueOf(destination);
+	}
+	
+	/**
+	 * Returns true if the destination name contains a wildcard as used by ActiveMQ
+	 * @param name
+	 * @return
+	 */
+	public static boolean isWildcard(String name) {
+		return name != null && (name.indexOf('*') >= 0 || name.indexOf('>') >= 0);
+	}
+	
+	/**
+	 * Returns the name of the referenced destination
+	 * @param index
+	 * @return null if not registered
+	 */
+	public String getName(int index) {
+		return (index >= 0 && index < maxDestinations ? names.get(index) : null);
+	}
+	
+	/**
+	 * Returns true if the referenced destination is a wildcard subscription
+	 * @param index
+	 * @return
+	 */
+	public boolean isWildcard(int index) {
+		return wildcards[index];
+	}
+	
+	/**
+	 * @return number of registered destinations
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return maximum number of destinations
+	 */
+	public int getMaxDestinations() {
+		return maxDestinations;
+	}
+	
+}
@@ -19,27 +19,95 @@
 package com.mnxfst.testing.consumer.jms.event;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
 
 import com.lmax.disruptor.EventFactory;
 
 /**
- * Simple container
+ * Simple container. The payload is either held as message text or - for bytes messages - as utf-8 encoded
+ * bytes. Both are copied into buffers owned by the event which are re-used for subsequent messages, thus no
+ * reference to per-message objects survives the copy. The buffers grow on demand up to the configured 
+ * maximum payload size - oversized payloads are truncated or dropped depending on the {@link PayloadOverflowPolicy} 
  * @author mnxfst
  *
  */
 public class JMSMessageEvent implements Serializable {
 
 	private static final long serialVersionUID = 7075152919216201371L;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Handling of payloads exceeding the maximum payload size
+	 */
+	public enum PayloadOverflowPolicy {
+		/** keep the payload up to the maximum size */
+		TRUNCATE,
+		/** publish the event without payload */
+		DROP;
+	}
+
+	/** outcome of the analysis: not analyzed, valid or invalid message. Evaluated by the statistics */
+	public static final byte VALIDITY_UNSET = 0;
+	public static final byte VALIDITY_VALID = 1;
+	public static final byte VALIDITY_INVALID = 2;
 
-	private String messageText = null;
+	/** text message payload, valid up to charsLength */
+	private char[] chars = null;
+	private int charsLength = 0;
+	private boolean textPayload = false;
+	/** bytes message payload, valid up to bytesLength */
+	private byte[] bytes = null;
+	private int bytesLength = 0;
+	private boolean bytesPayload = false;
+	/** payload size limit (chars or bytes), 0 for no limit */
+	private final int maxPayloadSize;
+	private final PayloadOverflowPolicy payloadOverflowPolicy;
+	/** set if the payload exceeded the maximum payload size */
+	private boolean payloadOverflow = false;
 	private long timestamp = 0;
+	/** System.nanoTime() taken on receipt, used for measuring the processing latency */
+	private long receivedNanos = 0;
+	/** JMSTimestamp of the message, 0 if disabled by the producer */
+	private long jmsTimestamp = 0;
+	/** send time reported by the producer in microseconds since epoch, 0 if unknown */
+	private long producerTimestamp = 0;
+	/** arrival time at the broker in milliseconds since epoch, 0 if unknown */
+	private long brokerInTime = 0;
+	/** number of received messages this event stands for, the inverse of the sampling rate */
+	private double sampleWeight = 1;
+	/** index assigned to the destination the message has been received from by the consumer's destination registry */
+	private int destinationIndex = 0;
+	/** outcome of the analysis, one of the VALIDITY constants */
+	private byte validity = VALIDITY_UNSET;
+	private long sequence = -1;
+	/** offsets of the field values extracted from the message by analyzers */
+	private int[] fieldStarts = new int[0];
+	private int[] fieldEnds = new int[0];
+	private int fieldCount = 0;
 	
 	public JMSMessageEvent() {
-		
+		this(0, 0, PayloadOverflowPolicy.TRUNCATE);
 	}
 	
 	public JMSMessageEvent(String messageText) {
-		this.messageText = messageText;
+		this();
+		setMessageText(messageText);
+	}
+	
+	/**
+	 * Initializes the event
+	 * @param initialPayloadSize number of chars and bytes respectively preallocated for the payload
+	 * @param maxPayloadSize maximum payload size, 0 for no limit
+	 * @param payloadOverflowPolicy
+	 */
+	public JMSMessageEvent(int initialPayloadSize, int maxPayloadSize, PayloadOverflowPolicy payloadOverflowPolicy) {
+		this.chars = new char[initialPayloadSize];
+		this.bytes = new byte[initialPayloadSize];
+		this.maxPayloadSize = maxPayloadSize;
+		this.payloadOverflowPolicy = payloadOverflowPolicy;
 	}
 
 	/**
@@ -57,17 +125,448 @@ public class JMSMessageEvent implements Serializable {
 	}
 
 	/**
+	 * @return the receivedNanos
+	 */
+	public long getReceivedNanos() {
+		return receivedNanos;
+	}
+
+	/**
+	 * @param receivedNanos the receivedNanos to set
+	 */
+	public void setReceivedNanos(long receivedNanos) {
+		this.receivedNanos = receivedNanos;
+	}
+
+	/**
+	 * @return number of received messages this event stands for if the consumer samples its input, 1 otherwise
+	 */
+	public double getSampleWeight() {
+		return sampleWeight;
+	}
+
+	/**
+	 * @param sampleWeight the sampleWeight to set
+	 */
+	public void setSampleWeight(double sampleWeight) {
+		this.sampleWeight = sampleWeight;
+	}
+
+	/**
+	 * @return outcome of the analysis: {@link #VALIDITY_UNSET}, {@link #VALIDITY_VALID} or {@link #VALIDITY_INVALID}
+	 */
+	public byte getValidity() {
+		return validity;
+	}
+
+	/**
+	 * @param validity the validity to set
+	 */
+	public void setValidity(byte validity) {
+		this.validity = validity;
+	}
+
+	/**
+	 * Marks the message as valid or invalid
+	 * @param valid
+	 */
+	public void setValid(boolean valid) {
+		this.validity = (valid ? VALIDITY_VALID : VALIDITY_INVALID);
+	}
+
+	/**
+	 * @return index of the destination the message has been received from
+	 */
+	public int getDestinationIndex() {
+		return destinationIndex;
+	}
+
+	/**
+	 * @param destinationIndex the destinationIndex to set
+	 */
+	public void setDestinationIndex(int destinationIndex) {
+		this.destinationIndex = destinationIndex;
+	}
+
+	/**
+	 * @return the jmsTimestamp
+	 */
+	public long getJmsTimestamp() {
+		return jmsTimestamp;
+	}
+
+	/**
+	 * @param jmsTimestamp the jmsTimestamp to set
+	 */
+	public void setJmsTimestamp(long jmsTimestamp) {
+		this.jmsTimestamp = jmsTimestamp;
+	}
+
+	/**
+	 * @return the producerTimestamp in microseconds since epoch
+	 */
+	public long getProducerTimestamp() {
+		return producerTimestamp;
+	}
+
+	/**
+	 * @param producerTimestamp the producerTimestamp to set
+	 */
+	public void setProducerTimestamp(long producerTimestamp) {
+		this.producerTimestamp = producerTimestamp;
+	}
+
+	/**
+	 * @return the brokerInTime in milliseconds since epoch
+	 */
+	public long getBrokerInTime() {
+		return brokerInTime;
+	}
+
+	/**
+	 * @param brokerInTime the brokerInTime to set
+	 */
+	public void setBrokerInTime(long brokerInTime) {
+		this.brokerInTime = brokerInTime;
+	}
+
+	/**
+	 * @return the ring buffer sequence the event was published with
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @param sequence the sequence to set
+	 */
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the message text. As this creates a new string, analyzers should work on {@link #getChars()} instead  
 	 * @return the messageText
 	 */
 	public String getMessageText() {
-		return messageText;
+		return (textPayload ? new String(chars, 0, charsLength) : null);
 	}
 
 	/**
+	 * Copies the message text into the buffer owned by the event 
 	 * @param messageText the messageText to set
 	 */
 	public void setMessageText(String messageText) {
-		this.messageText = messageText;
+		clearPayload();
+		if(messageText == null)
+			return;
+		
+		int length = limitPayloadSize(messageText.length());
+		if(length < 0)
+			return;
+		if(chars.length < length)
+			chars = new char[newCapacity(chars.length, length)];
+		messageText.getChars(0, length, chars, 0);
+		this.charsLength = length;
+		this.textPayload = true;
+	}
+
+	/**
+	 * Prepares the event for receiving a bytes payload of the given length. The returned buffer is owned by 
+	 * the event and is only re-allocated if it is too small. If the payload exceeds the maximum size, the 
+	 * number of bytes to copy is reduced to {@link #getBytesLength()} or - if the payload is dropped - null
+	 * is returned
+	 * @param length
+	 * @return buffer to copy the payload into
+	 */
+	public byte[] prepareBytes(int length) {
+		clearPayload();
+		length = limitPayloadSize(length);
+		if(length < 0)
+			return null;
+		if(bytes.length < length)
+			bytes = new byte[newCapacity(bytes.length, length)];
+		this.bytesLength = length;
+		this.bytesPayload = true;
+		return bytes;
+	}
+
+	/**
+	 * Prepares the event for receiving a text payload of the given length, see {@link #prepareBytes(int)}
+	 * @param length
+	 * @return buffer to copy the chars into, null if the payload is dropped
+	 */
+	public char[] prepareChars(int length) {
+		clearPayload();
+		length = limitPayloadSize(length);
+		if(length < 0)
+			return null;
+		if(chars.length < length)
+			chars = new char[newCapacity(chars.length, length)];
+		this.charsLength = length;
+		this.textPayload = true;
+		return chars;
+	}
+
+	/**
+	 * Applies the maximum payload size to the given length
+	 * @param length
+	 * @return the number of chars or bytes to copy, -1 if the payload must be dropped
+	 */
+	private int limitPayloadSize(int length) {
+		if(maxPayloadSize <= 0 || length <= maxPayloadSize)
+			return length;
+		this.payloadOverflow = true;
+		return (payloadOverflowPolicy == PayloadOverflowPolicy.TRUNCATE ? maxPayloadSize : -1);
+	}
+
+	/**
+	 * Computes the size of a grown buffer: doubles the current capacity to avoid frequent re-allocations
+	 * but never exceeds the maximum payload size
+	 * @param current
+	 * @param required
+	 * @return
+	 */
+	private int newCapacity(int current, int required) {
+		int capacity = Math.max(required, current << 1);
+		if(maxPayloadSize > 0 && capacity > maxPayloadSize)
+			capacity = maxPayloadSize;
+		return Math.max(capacity, required);
+	}
+
+	/**
+	 * Returns the text payload buffer. Only the first {@link #getCharsLength()} chars are valid
+	 * @return
+	 */
+	public char[] getChars() {
+		return chars;
+	}
+
+	/**
+	 * @return the number of valid chars
+	 */
+	public int getCharsLength() {
+		return charsLength;
+	}
+
+	/**
+	 * Returns true if the event carries a text payload
+	 * @return
+	 */
+	public boolean isTextPayload() {
+		return textPayload;
+	}
+
+	/**
+	 * Returns true if the payload exceeded the maximum payload size and has been truncated or dropped
+	 * @return
+	 */
+	public boolean isPayloadOverflow() {
+		return payloadOverflow;
+	}
+
+	/**
+	 * Returns the bytes payload buffer. Only the first {@link #getBytesLength()} bytes are valid
+	 * @return
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of valid bytes
+	 */
+	public int getBytesLength() {
+		return bytesLength;
+	}
+
+	/**
+	 * Returns true if the event carries a bytes payload
+	 * @return
+	 */
+	public boolean isBytesPayload() {
+		return bytesPayload;
+	}
+
+	/**
+	 * Returns true if the event carries any payload
+	 * @return
+	 */
+	public boolean hasPayload() {
+		return (bytesPayload || textPayload);
+	}
+
+	/**
+	 * Removes the payload, eg. when copying the message content failed. The buffers are kept for re-use
+	 */
+	public void clearPayload() {
+		this.textPayload = false;
+		this.charsLength = 0;
+		this.bytesPayload = false;
+		this.bytesLength = 0;
+		this.payloadOverflow = false;
+	}
+	
+	/**
+	 * Stores the offsets of an extracted field value. The value itself is not copied but referenced
+	 * as slice of the message text or the bytes payload respectively
+	 * @param field
+	 * @param start offset of the first value character
+	 * @param end offset following the last value character
+	 */
+	public void setField(int field, int start, int end) {
+		if(field >= fieldStarts.length) {
+			int[] starts = new int[field + 1];
+			int[] ends = new int[field + 1];
+			System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+			System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+			fieldStarts = starts;
+			fieldEnds = ends;
+		}
+		while(fieldCount <= field) {
+			fieldStarts[fieldCount] = -1;
+			fieldEnds[fieldCount] = -1;
+			fieldCount++;
+		}
+		fieldStarts[field] = start;
+		fieldEnds[field] = end;
+	}
+	
+	/**
+	 * Returns true if a value has been extracted for the referenced field
+	 * @param field
+	 * @return
+	 */
+	public boolean hasField(int field) {
+		return field < fieldCount && fieldStarts[field] >= 0;
+	}
+	
+	/**
+	 * Returns the offset of the first value character of the referenced field, -1 if not available
+	 * @param field
+	 * @return
+	 */
+	public int getFieldStart(int field) {
+		return (field < fieldCount ? fieldStarts[field] : -1);
+	}
+	
+	/**
+	 * Returns the offset following the last value character of the referenced field, -1 if not available
+	 * @param field
+	 * @return
+	 */
+	public int getFieldEnd(int field) {
+		return (field < fieldCount ? fieldEnds[field] : -1);
+	}
+	
+	/**
+	 * Returns the value of the referenced field. As this creates a new string, prefer working on the offsets
+	 * @param field
+	 * @return
+	 */
+	public String getFieldValue(int field) {
+		if(!hasField(field))
+			return null;
+		if(bytesPayload)
+			return new String(bytes, fieldStarts[field], fieldEnds[field] - fieldStarts[field], UTF8);
+		return new String(chars, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+	}
+	
+	/**
+	 * Appends the value of the referenced field - if available - to the provided buffer
+	 * @param field
+	 * @param buffer
+	 */
+	public void appendFieldValue(int field, StringBuilder buffer) {
+		if(!hasField(field))
+			return;
+		if(bytesPayload)
+			appendUtf8(bytes, fieldStarts[field], fieldEnds[field], buffer);
+		else
+			buffer.append(chars, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+	}
+	
+	/**
+	 * Computes a 64 bit FNV-1a hash over the code points of the referenced field value without creating a string.
+	 * Text and bytes payloads of the same value result in the same hash
+	 * @param field
+	 * @return the hash, 0 if the field is not available
+	 */
+	public long hashFieldValue(int field) {
+		if(!hasField(field))
+			return 0;
+		
+		long hash = FNV_OFFSET_BASIS;
+		int i = fieldStarts[field];
+		int end = fieldEnds[field];
+		if(bytesPayload) {
+			while(i < end) {
+				int b = bytes[i] & 0xFF;
+				int codePoint;
+				if(b < 0x80) {
+					codePoint = b;
+					i++;
+				} else if((b & 0xE0) == 0xC0 && i + 1 < end) {
+					codePoint = ((b & 0x1F) << 6) | (bytes[i+1] & 0x3F);
+					i += 2;
+				} else if((b & 0xF0) == 0xE0 && i + 2 < end) {
+					codePoint = ((b & 0x0F) << 12) | ((bytes[i+1] & 0x3F) << 6) | (bytes[i+2] & 0x3F);
+					i += 3;
+				} else if((b & 0xF8) == 0xF0 && i + 3 < end) {
+					codePoint = ((b & 0x07) << 18) | ((bytes[i+1] & 0x3F) << 12) | ((bytes[i+2] & 0x3F) << 6) | (bytes[i+3] & 0x3F);
+					i += 4;
+				} else {
+					codePoint = '?';
+					i++;
+				}
+				hash = (hash ^ codePoint) * FNV_PRIME;
+			}
+		} else {
+			while(i < end) {
+				int codePoint = Character.codePointAt(chars, i, end);
+				hash = (hash ^ codePoint) * FNV_PRIME;
+				i += Character.charCount(codePoint);
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * Decodes the utf-8 encoded bytes found within the given range and appends the characters to the buffer
+	 * without creating an intermediate string. Malformed sequences are replaced by '?'
+	 * @param src
+	 * @param start
+	 * @param end
+	 * @param buffer
+	 */
+	public static void appendUtf8(byte[] src, int start, int end, StringBuilder buffer) {
+		int i = start;
+		while(i < end) {
+			int b = src[i] & 0xFF;
+			if(b < 0x80) {
+				buffer.append((char)b);
+				i++;
+			} else if((b & 0xE0) == 0xC0 && i + 1 < end) {
+				buffer.append((char)(((b & 0x1F) << 6) | (src[i+1] & 0x3F)));
+				i += 2;
+			} else if((b & 0xF0) == 0xE0 && i + 2 < end) {
+				buffer.append((char)(((b & 0x0F) << 12) | ((src[i+1] & 0x3F) << 6) | (src[i+2] & 0x3F)));
+				i += 3;
+			} else if((b & 0xF8) == 0xF0 && i + 3 < end) {
+				buffer.appendCodePoint(((b & 0x07) << 18) | ((src[i+1] & 0x3F) << 12) | ((src[i+2] & 0x3F) << 6) | (src[i+3] & 0x3F));
+				i += 4;
+			} else {
+				buffer.append('?');
+				i++;
+			}
+		}
+	}
+	
+	/**
+	 * Removes all extracted fields. Must be called before the event is re-used for another message
+	 */
+	public void clearFields() {
+		fieldCount = 0;
 	}
 	
 	public final static EventFactory<JMSMessageEvent> EVENT_FACTORY = new EventFactory<JMSMessageEvent>() {
@@ -77,4 +576,20 @@ public class JMSMessageEvent implements Serializable {
 		}
 	};
 	
+	/**
+	 * Returns a factory creating events with preallocated payload buffers 
+	 * @param initialPayloadSize
+	 * @param maxPayloadSize
+	 * @param payloadOverflowPolicy
+	 * @return
+	 */
+	public static EventFactory<JMSMessageEvent> newEventFactory(final int initialPayloadSize, final int maxPayloadSize, final PayloadOverflowPolicy payloadOverflowPolicy) {
+		return new EventFactory<JMSMessageEvent>() {
+			
+			public JMSMessageEvent newInstance() {
+				return new JMSMessageEvent(initialPayloadSize, maxPayloadSize, payloadOverflowPolicy);
+			}
+		};
+	}
+	
 }
@@ -0,0 +1,187 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.flow;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.apache.log4j.Logger;
+
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.Util;
+import com.mnxfst.testing.consumer.jms.stats.ConsumerStatisticsCollector;
+
+/**
+ * Pauses message delivery while the analyzers lag behind. A timer periodically compares the ring buffer cursor
+ * with the trailing sequences of the pipeline: as soon as the occupancy reaches the high watermark, delivery is
+ * paused until the analyzers have drained the ring buffer down to the low watermark. Thus publishers are not left
+ * blocking on a full ring buffer at random while the broker keeps pushing up to the prefetch limit.<br/>
+ * Message listeners are paused by stopping the connection, which the provider does once all running listeners 
+ * have returned. Pull mode receivers poll {@link #isPaused()} instead and leave the connection running. Each
+ * controller runs its own timer thread, as stopping the connection blocks the timer until the listeners returned
+ * @author mnxfst
+ * @since 20.03.2012
+ */
+public class FlowController {
+
+	private static final Logger logger = Logger.getLogger(FlowController.class.getName());
+	
+	private final Sequencer ringBuffer;
+	private final Sequence[] trailingSequences;
+	/** stopped and started on pause and resume, null if the receivers check the pause flag */
+	private final Connection connection;
+	private final long highWatermark;
+	private final long lowWatermark;
+	private final long checkInterval;
+	private final ConsumerStatisticsCollector statisticsCollector;
+	private final TimerTask checkTask;
+	private Timer monitorTimer = null;
+	
+	private volatile boolean paused = false;
+	private long pausedSince = 0;
+	private boolean closed = false;
+	
+	/**
+	 * Initializes the flow controller
+	 * @param ringBuffer
+	 * @param trailingSequences sequences of the final pipeline stage
+	 * @param connection stopped while paused, null if the receivers check {@link #isPaused()} on their own
+	 * @param highWatermark fraction of the ring buffer which pauses delivery once occupied 
+	 * @param lowWatermark fraction of the ring buffer the occupancy must fall below for resuming delivery
+	 * @param checkInterval millis between two checks
+	 * @param statisticsCollector
+	 */
+	public FlowController(Sequencer ringBuffer, Sequence[] trailingSequences, Connection connection, double highWatermark, double lowWatermark, long checkInterval, ConsumerStatisticsCollector statisticsCollector) {
+		this.ringBuffer = ringBuffer;
+		this.trailingSequences = trailingSequences;
+		this.connection = connection;
+		this.highWatermark = Math.max(1, (long)(ringBuffer.getBufferSize() * highWatermark));
+		this.lowWatermark = (long)(ringBuffer.getBufferSize() * lowWatermark);
+		this.checkInterval = checkInterval;
+		this.statisticsCollector = statisticsCollector;
+		this.checkTask = new TimerTask() {
+			public void run() {
+				check();
+			}
+		};
+	}
+	
+	/**
+	 * Starts monitoring the ring buffer occupancy
+	 */
+	public synchronized void start() {
+		if(closed || monitorTimer != null)
+			return;
+		monitorTimer = new Timer("jms-flow-controller", true);
+		monitorTimer.schedule(checkTask, checkInterval, checkInterval);
+	}
+	
+	/**
+	 * Returns the number of events published but not yet passed by all analyzers
+	 * @return
+	 */
+	public long getOccupancy() {
+		return Math.max(0, ringBuffer.getCursor() - Util.getMinimumSequence(trailingSequences));
+	}
+	
+	/**
+	 * Pauses or resumes delivery depending on the current occupancy
+	 */
+	protected synchronized void check() {
+		if(closed)
+			return;
+		
+		long occupancy = getOccupancy();
+		try {
+			if(!paused && occupancy >= highWatermark) {
+				paused = true;
+				pausedSince = System.nanoTime();
+				statisticsCollector.flowControlPaused();
+				if(connection != null)
+					connection.stop();
+				if(logger.isDebugEnabled())
+					logger.debug("Paused delivery at ring buffer occupancy " + occupancy);
+			} else if(paused && occupancy <= lowWatermark) {
+				resume();
+				if(logger.isDebugEnabled())
+					logger.debug("Resumed delivery at ring buffer occupancy " + occupancy);
+			}
+		} catch(JMSException e) {
+			logger.error("Failed to " + (paused ? "pause" : "resume") + " delivery. Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Resumes delivery
+	 * @throws JMSException
+	 */
+	private void resume() throws JMSException {
+		paused = false;
+		statisticsCollector.flowControlResumed(System.nanoTime() - pausedSince);
+		if(connection != null)
+			connection.start();
+	}
+	
+	/**
+	 * Stops monitoring. Delivery is not resumed, the connection is left as is for shutting down
+	 */
+	public synchronized void close() {
+		closed = true;
+		checkTask.cancel();
+		if(monitorTimer != null)
+			monitorTimer.cancel();
+		if(paused) {
+			paused = false;
+			statisticsCollector.flowControlResumed(System.nanoTime() - pausedSince);
+		}
+	}
+	
+	/**
+	 * @return true if delivery is paused
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * @return occupancy in events which pauses delivery 
+	 */
+	public long getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * @return occupancy in events which resumes delivery
+	 */
+	public long getLowWatermark() {
+		return lowWatermark;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "flowControl[highWatermark=" + highWatermark + ", lowWatermark=" + lowWatermark + ", checkInterval=" + checkInterval + "ms, pauses=" + (connection != null ? "connection" : "receivers") + "]";
+	}
+	
+}
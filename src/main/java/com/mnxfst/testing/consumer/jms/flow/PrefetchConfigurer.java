@@ -0,0 +1,71 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.flow;
+
+import javax.jms.ConnectionFactory;
+
+/**
+ * Limits the number of messages a provider pushes to a consumer ahead of delivery. Prefetching is not covered
+ * by JMS, thus only providers known to this class are supported - currently ActiveMQ. The limit applies to
+ * consumers created after configuring the connection factory
+ * @author mnxfst
+ * @since 20.03.2012
+ */
+public class PrefetchConfigurer {
+
+	private static final boolean ACTIVEMQ_AVAILABLE = isClassAvailable("org.apache.activemq.ActiveMQConnectionFactory");
+	
+	/**
+	 * Applies the prefetch limit to all kinds of consumers created through the given connection factory
+	 * @param connectionFactory
+	 * @param prefetch
+	 * @return false if the provider is not supported
+	 */
+	public static boolean configure(ConnectionFactory connectionFactory, int prefetch) {
+		return ACTIVEMQ_AVAILABLE && ActiveMQPrefetch.configure(connectionFactory, prefetch);
+	}
+
+	/**
+	 * Checks whether the referenced class may be loaded
+	 * @param className
+	 * @return
+	 */
+	private static boolean isClassAvailable(String className) {
+		try {
+			Class.forName(className, false, PrefetchConfigurer.class.getClassLoader());
+			return true;
+		} catch(Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Keeps the ActiveMQ classes from being loaded unless they are available
+	 */
+	private static class ActiveMQPrefetch {
+		
+		static boolean configure(ConnectionFactory connectionFactory, int prefetch) {
+			if(!(connectionFactory instanceof org.apache.activemq.ActiveMQConnectionFactory))
+				return false;
+			((org.apache.activemq.ActiveMQConnectionFactory)connectionFactory).getPrefetchPolicy().setAll(prefetch);
+			return true;
+		}
+	}
+	
+}
@@ -0,0 +1,233 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+
+/**
+ * Reads the records written by a {@link JournalWriter} segment by segment. The reader is positioned on a record 
+ * through {@link #next()}, its header is available through the getters and its payload is copied straight into 
+ * an event. Not thread-safe
+ * @author mnxfst
+ * @since 23.03.2012
+ */
+public class JournalReader {
+
+	private final String name;
+	private final File[] segments;
+	
+	private int segmentIndex = -1;
+	private MappedByteBuffer segment = null;
+	
+	private byte type = JournalWriter.TYPE_END;
+	private int length = 0;
+	private long receivedMicros = 0;
+	private long jmsTimestamp = 0;
+	private long producerTimestamp = 0;
+	private long brokerInTime = 0;
+	private int payloadPosition = 0;
+	
+	/**
+	 * Opens all segments of the named journal found in the directory
+	 * @param directory
+	 * @param name
+	 * @throws IOException if no segment exists
+	 */
+	public JournalReader(File directory, String name) throws IOException {
+		this.name = name;
+		this.segments = listSegments(directory, name);
+		if(segments.length == 0)
+			throw new IOException("No segments of journal " + name + " found in " + directory);
+	}
+	
+	/**
+	 * Moves to the next record
+	 * @return false if all records have been read
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while(true) {
+			if(segment != null) {
+				if(type != JournalWriter.TYPE_END)
+					segment.position(payloadPosition + length);
+				if(segment.remaining() >= JournalWriter.HEADER_SIZE) {
+					int position = segment.position();
+					int recordLength = segment.getInt();
+					byte recordType = segment.get();
+					if(recordType != JournalWriter.TYPE_END) {
+						if(recordLength < 0 || recordLength > segment.remaining() - (JournalWriter.HEADER_SIZE - 5)) // timestamps and payload must fit
+							throw new IOException("Corrupt record at position " + position + " of journal segment " + segments[segmentIndex]);
+						type = recordType;
+						length = recordLength;
+						receivedMicros = segment.getLong();
+						jmsTimestamp = segment.getLong();
+						producerTimestamp = segment.getLong();
+						brokerInTime = segment.getLong();
+						payloadPosition = segment.position();
+						return true;
+					}
+				}
+			}
+			
+			// end of segment
+			type = JournalWriter.TYPE_END;
+			if(++segmentIndex >= segments.length) {
+				segment = null;
+				return false;
+			}
+			segment = map(segments[segmentIndex]);
+		}
+	}
+	
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile segmentFile = new RandomAccessFile(file, "r");
+		try {
+			// the mapping remains valid after closing the file
+			return segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segmentFile.length());
+		} finally {
+			segmentFile.close();
+		}
+	}
+	
+	/**
+	 * Copies the payload of the current record into the event
+	 * @param event
+	 */
+	public void copyPayload(JMSMessageEvent event) {
+		segment.position(payloadPosition);
+		if(type == JournalWriter.TYPE_TEXT) {
+			char[] chars = event.prepareChars(length / 2);
+			if(chars != null)
+				segment.asCharBuffer().get(chars, 0, event.getCharsLength());
+		} else {
+			byte[] bytes = event.prepareBytes(length);
+			if(bytes != null)
+				segment.get(bytes, 0, event.getBytesLength());
+		}
+	}
+	
+	/**
+	 * Lists the segments of the named journal in the order they have been written
+	 * @param directory
+	 * @param name
+	 * @return
+	 */
+	public static File[] listSegments(File directory, final String name) {
+		File[] segments = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && getSegmentIndex(file, name) >= 0;
+			}
+		});
+		if(segments == null)
+			return new File[0];
+		Arrays.sort(segments, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return getSegmentIndex(a, name) - getSegmentIndex(b, name);
+			}
+		});
+		return segments;
+	}
+	
+	/**
+	 * Returns the file of the referenced segment
+	 * @param directory
+	 * @param name
+	 * @param index
+	 * @return
+	 */
+	public static File getSegmentFile(File directory, String name, int index) {
+		return new File(directory, name + "." + String.format("%06d", index) + JournalWriter.SEGMENT_SUFFIX);
+	}
+	
+	/**
+	 * Returns the index of the segment, -1 if the file is no segment of the named journal
+	 * @param file
+	 * @param name
+	 * @return
+	 */
+	public static int getSegmentIndex(File file, String name) {
+		String fileName = file.getName();
+		if(!fileName.startsWith(name + ".") || !fileName.endsWith(JournalWriter.SEGMENT_SUFFIX))
+			return -1;
+		String index = fileName.substring(name.length() + 1, fileName.length() - JournalWriter.SEGMENT_SUFFIX.length());
+		if(index.isEmpty())
+			return -1;
+		for(int i = 0; i < index.length(); i++)
+			if(!Character.isDigit(index.charAt(i)))
+				return -1;
+		try {
+			return Integer.parseInt(index);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if the current record carries a text payload
+	 */
+	public boolean isTextPayload() {
+		return type == JournalWriter.TYPE_TEXT;
+	}
+
+	/**
+	 * @return payload length of the current record in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return receive time of the current record in microseconds since epoch
+	 */
+	public long getReceivedMicros() {
+		return receivedMicros;
+	}
+
+	public long getJmsTimestamp() {
+		return jmsTimestamp;
+	}
+
+	/**
+	 * @return producer timestamp of the current record in microseconds since epoch, 0 if unknown
+	 */
+	public long getProducerTimestamp() {
+		return producerTimestamp;
+	}
+
+	/**
+	 * @return broker in time of the current record in milliseconds since epoch, 0 if unknown
+	 */
+	public long getBrokerInTime() {
+		return brokerInTime;
+	}
+
+	public String getName() {
+		return name;
+	}
+	
+}
@@ -0,0 +1,270 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Util;
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.pipeline.MessageAnalyzerPipeline;
+import com.mnxfst.testing.consumer.jms.pipeline.RingBufferConfiguration;
+import com.mnxfst.testing.consumer.jms.stats.ConsumerStatisticsCollector;
+import com.mnxfst.testing.consumer.jms.stats.EpochClock;
+import com.mnxfst.testing.consumer.jms.stats.JMSConsumerStatistics;
+
+/**
+ * Feeds the records of a journal straight into the ring buffer, thus the analyzers may be run against a recorded 
+ * load without any broker. Records are replayed either at the pace they have been received - optionally sped up 
+ * or slowed down - or as fast as the pipeline accepts them. Each replayed event is stamped as received right now 
+ * and its recorded producer, broker and JMS timestamps are shifted by the same amount, thus the delivery latencies
+ * seen by the analyzers equal the recorded ones. The replay must be the only publisher of the ring buffer.
+ * <br/><br/>
+ * When run from the command line, all arguments are given as <i>key=value</i> and are passed on to the ring buffer 
+ * and pipeline just like the request parameters of the consumer, eg.
+ * <pre>
+ * JournalReplay journalDirectory=/tmp/journal replaySpeed=max jmsMsgAnalyzers=esp,espResults nodeId=replay measuringPointId=1
+ * </pre>
+ * @author mnxfst
+ * @since 23.03.2012
+ */
+public class JournalReplay implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(JournalReplay.class.getName());
+	
+	public static final String PARAMETER_JOURNAL_DIRECTORY = "journalDirectory";
+	public static final String PARAMETER_JOURNAL_NAME = "journalName";
+	public static final String PARAMETER_REPLAY_SPEED = "replaySpeed";
+	private static final String PARAMETER_JMS_MESSAGE_ANALYZERS = "jmsMsgAnalyzers";
+	private static final String DEFAULT_JOURNAL_NAME = "messages";
+	private static final String DEFAULT_JMS_MESSAGE_ANALYZER = "esp";
+	private static final String REPLAY_SPEED_MAX = "max";
+	
+	/** waits shorter than this are spun as parking is not precise enough */
+	private static final long SPIN_THRESHOLD_NANOS = 50000;
+	
+	private final JournalReader reader;
+	private final RingBuffer<JMSMessageEvent> ringBuffer;
+	private final ConsumerStatisticsCollector statisticsCollector;
+	private final double speed;
+	
+	private volatile boolean running = true;
+	private volatile long replayed = 0;
+	
+	/**
+	 * Initializes the replay
+	 * @param reader
+	 * @param ringBuffer
+	 * @param statisticsCollector may be null
+	 * @param speed factor applied to the recorded pace, a value of 0 or below replays as fast as possible
+	 */
+	public JournalReplay(JournalReader reader, RingBuffer<JMSMessageEvent> ringBuffer, ConsumerStatisticsCollector statisticsCollector, double speed) {
+		this.reader = reader;
+		this.ringBuffer = ringBuffer;
+		this.statisticsCollector = statisticsCollector;
+		this.speed = speed;
+	}
+	
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		
+		long startNanos = System.nanoTime();
+		long firstMicros = -1;
+		
+		try {
+			while(running && reader.next()) {
+				
+				if(speed > 0) {
+					if(firstMicros < 0)
+						firstMicros = reader.getReceivedMicros();
+					waitUntil(startNanos + (long)((reader.getReceivedMicros() - firstMicros) * 1000 / speed));
+				}
+				
+				long sequence = ringBuffer.next();
+				JMSMessageEvent event = ringBuffer.get(sequence);
+				copyToEvent(event, sequence);
+				ringBuffer.publish(sequence);
+				replayed++;
+				
+				if(statisticsCollector != null) {
+					statisticsCollector.incrementMessagesReceived();
+					statisticsCollector.incrementMessagesPublished();
+				}
+			}
+		} catch(IOException e) {
+			logger.error("Failed to read journal " + reader.getName() + ". Error: " + e.getMessage());
+		}
+		
+		logger.info("journalReplay[name=" + reader.getName() + "]: " + replayed + " records replayed within " + ((System.nanoTime() - startNanos) / 1000000) + "ms");
+	}
+	
+	/**
+	 * Copies the current record into the event and shifts its timestamps to the time of replay
+	 * @param event
+	 * @param sequence
+	 */
+	protected void copyToEvent(JMSMessageEvent event, long sequence) {
+		
+		long receivedNanos = System.nanoTime();
+		long shiftMicros = EpochClock.toEpochMicros(receivedNanos) - reader.getReceivedMicros();
+		
+		event.clearFields();
+		event.setSequence(sequence);
+		event.setTimestamp(System.currentTimeMillis());
+		event.setReceivedNanos(receivedNanos);
+		event.setSampleWeight(1);
+		event.setDestinationIndex(0);
+		event.setValidity(JMSMessageEvent.VALIDITY_UNSET);
+		// zero denotes an unknown timestamp and thus remains untouched
+		event.setJmsTimestamp(reader.getJmsTimestamp() != 0 ? reader.getJmsTimestamp() + shiftMicros / 1000 : 0);
+		event.setProducerTimestamp(reader.getProducerTimestamp() != 0 ? reader.getProducerTimestamp() + shiftMicros : 0);
+		event.setBrokerInTime(reader.getBrokerInTime() != 0 ? reader.getBrokerInTime() + shiftMicros / 1000 : 0);
+		reader.copyPayload(event);
+	}
+	
+	/**
+	 * Parks and finally spins until the given point in time has been reached
+	 * @param targetNanos
+	 */
+	private void waitUntil(long targetNanos) {
+		long remaining;
+		while(running && (remaining = targetNanos - System.nanoTime()) > 0) {
+			if(remaining > SPIN_THRESHOLD_NANOS)
+				LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+		}
+	}
+	
+	/**
+	 * Stops the replay after the current record
+	 */
+	public void stop() {
+		running = false;
+	}
+	
+	/**
+	 * @return number of records replayed so far
+	 */
+	public long getReplayed() {
+		return replayed;
+	}
+
+	/**
+	 * Replays a journal through the analyzers configured by the given key=value arguments
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		Map<String, List<String>> properties = new HashMap<String, List<String>>();
+		for(String arg : args) {
+			int idx = arg.indexOf('=');
+			if(idx < 1) {
+				System.err.println("Invalid argument: " + arg + ". Expected: key=value");
+				System.exit(1);
+			}
+			String key = arg.substring(0, idx).trim();
+			List<String> values = properties.get(key);
+			if(values == null) {
+				values = new ArrayList<String>();
+				properties.put(key, values);
+			}
+			values.add(arg.substring(idx + 1).trim());
+		}
+		
+		String journalDirectory = extractSingleString(PARAMETER_JOURNAL_DIRECTORY, properties);
+		if(journalDirectory == null || journalDirectory.isEmpty()) {
+			System.err.println("Usage: JournalReplay journalDirectory=<dir> [journalName=<name>] [replaySpeed=<factor>|max] [jmsMsgAnalyzers=<names>] [<key>=<value> ...]");
+			System.exit(1);
+		}
+		String journalName = extractSingleString(PARAMETER_JOURNAL_NAME, properties);
+		if(journalName == null || journalName.isEmpty())
+			journalName = DEFAULT_JOURNAL_NAME;
+		
+		double speed = 1;
+		String tmp = extractSingleString(PARAMETER_REPLAY_SPEED, properties);
+		if(tmp != null && !tmp.isEmpty()) {
+			if(tmp.equalsIgnoreCase(REPLAY_SPEED_MAX)) {
+				speed = 0;
+			} else {
+				try {
+					speed = Double.parseDouble(tmp);
+				} catch(NumberFormatException e) {
+					throw new AsyncInputConsumerException("Invalid replay speed: " + tmp);
+				}
+				if(speed <= 0)
+					throw new AsyncInputConsumerException("Invalid replay speed: " + tmp);
+			}
+		}
+		
+		Set<String> analyzerNames = new LinkedHashSet<String>();
+		List<String> values = properties.get(PARAMETER_JMS_MESSAGE_ANALYZERS);
+		if(values != null)
+			for(String value : values)
+				for(String name : value.split(","))
+					if(!name.trim().isEmpty())
+						analyzerNames.add(name.trim());
+		if(analyzerNames.isEmpty())
+			analyzerNames.add(DEFAULT_JMS_MESSAGE_ANALYZER);
+		
+		JournalReader reader = new JournalReader(new File(journalDirectory), journalName);
+		RingBufferConfiguration ringBufferConfiguration = RingBufferConfiguration.fromProperties(properties, 1);
+		logger.info("journalReplay[name=" + journalName + ", speed=" + (speed > 0 ? String.valueOf(speed) : REPLAY_SPEED_MAX) + "]: " + ringBufferConfiguration);
+		RingBuffer<JMSMessageEvent> ringBuffer = ringBufferConfiguration.createRingBuffer();
+		ConsumerStatisticsCollector statisticsCollector = new ConsumerStatisticsCollector(ringBuffer);
+		MessageAnalyzerPipeline pipeline = new MessageAnalyzerPipeline(ringBuffer, statisticsCollector);
+		pipeline.initialize(analyzerNames, properties);
+		
+		ExecutorService executor = Executors.newCachedThreadPool();
+		pipeline.start(executor);
+		try {
+			new JournalReplay(reader, ringBuffer, statisticsCollector, speed).run();
+			
+			// the analyzers are done once the final stage has caught up with the last replayed record
+			while(Util.getMinimumSequence(pipeline.getGatingSequences()) < ringBuffer.getCursor())
+				Thread.sleep(1);
+		} finally {
+			pipeline.shutdown();
+			executor.shutdownNow();
+		}
+		
+		JMSConsumerStatistics statistics = statisticsCollector.snapshot();
+		System.out.println("replayed: " + statistics.getMessagesPublished() + ", analyzed: " + statistics.getMessagesAnalyzed() + " (valid: " + statistics.getValidMessages() + ", invalid: " + statistics.getInvalidMessages() + ")" +
+				", processing latency [us]: mean " + statistics.getProcessingLatencyMean() + ", p50 " + statistics.getProcessingLatencyP50() + ", p99 " + statistics.getProcessingLatencyP99() + ", max " + statistics.getProcessingLatencyMax());
+	}
+	
+	private static String extractSingleString(String parameter, Map<String, List<String>> properties) {
+		List<String> values = properties.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0).trim() : null;
+	}
+	
+}
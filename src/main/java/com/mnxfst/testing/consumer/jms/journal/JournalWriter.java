@@ -0,0 +1,194 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.stats.EpochClock;
+
+/**
+ * Appends the payloads of received messages along with their timestamps to an append-only journal. The journal
+ * consists of memory mapped segments of fixed size, a new segment is started as soon as a record does not fit
+ * into the current one. Each record is length-prefixed:
+ * <pre>
+ * int    payload length in bytes
+ * byte   payload type: 1 = text (utf-16 chars), 2 = bytes
+ * long   receive time in microseconds since epoch
+ * long   JMSTimestamp
+ * long   producer timestamp in microseconds
+ * long   broker in time
+ * byte[] payload
+ * </pre>
+ * The unused tail of a segment is zeroed, thus a zero payload type marks its end. Segments are truncated to their
+ * used size when closed. Payloads are journaled as copied into the event, thus truncated or dropped payloads 
+ * remain so. The writer is thread-safe
+ * @author mnxfst
+ * @since 23.03.2012
+ */
+public class JournalWriter {
+
+	private static final Logger logger = Logger.getLogger(JournalWriter.class.getName());
+	
+	public static final byte TYPE_END = 0;
+	public static final byte TYPE_TEXT = 1;
+	public static final byte TYPE_BYTES = 2;
+	public static final int HEADER_SIZE = 4 + 1 + 8 * 4;
+	
+	public static final String SEGMENT_SUFFIX = ".journal";
+	
+	private final File directory;
+	private final String name;
+	private final int segmentSize;
+	
+	private int segmentIndex;
+	private RandomAccessFile segmentFile = null;
+	private MappedByteBuffer segment = null;
+	private long records = 0;
+	private long rejected = 0;
+	
+	/**
+	 * Opens a new journal segment following the existing ones - if any
+	 * @param directory
+	 * @param name common prefix of all segment files
+	 * @param segmentSize bytes per segment
+	 * @throws IOException
+	 */
+	public JournalWriter(File directory, String name, int segmentSize) throws IOException {
+		if(segmentSize <= HEADER_SIZE)
+			throw new IllegalArgumentException("Segment size must exceed the record header size of " + HEADER_SIZE + " bytes");
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Failed to create journal directory " + directory);
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		
+		File[] existing = JournalReader.listSegments(directory, name);
+		this.segmentIndex = (existing.length > 0 ? JournalReader.getSegmentIndex(existing[existing.length - 1], name) + 1 : 0);
+		openSegment();
+	}
+	
+	/**
+	 * Appends the payload and timestamps held by the event
+	 * @param event
+	 * @throws IOException
+	 */
+	public synchronized void append(JMSMessageEvent event) throws IOException {
+		if(segment == null)
+			throw new IOException("Journal " + name + " already closed");
+		if(!event.hasPayload())
+			return;
+		
+		boolean text = event.isTextPayload();
+		int length = (text ? event.getCharsLength() * 2 : event.getBytesLength());
+		if(HEADER_SIZE + length > segmentSize) {
+			if(rejected++ == 0)
+				logger.warn("Payload of " + length + " bytes exceeds the journal segment size of " + segmentSize + " bytes. Such payloads are not journaled");
+			return;
+		}
+		if(segment.remaining() < HEADER_SIZE + length)
+			rollover();
+		
+		segment.putInt(length);
+		segment.put(text ? TYPE_TEXT : TYPE_BYTES);
+		segment.putLong(EpochClock.toEpochMicros(event.getReceivedNanos()));
+		segment.putLong(event.getJmsTimestamp());
+		segment.putLong(event.getProducerTimestamp());
+		segment.putLong(event.getBrokerInTime());
+		if(text) {
+			segment.asCharBuffer().put(event.getChars(), 0, event.getCharsLength());
+			segment.position(segment.position() + length);
+		} else {
+			segment.put(event.getBytes(), 0, length);
+		}
+		records++;
+	}
+	
+	/**
+	 * Closes the current segment and starts the next one
+	 * @throws IOException
+	 */
+	private void rollover() throws IOException {
+		closeSegment();
+		segmentIndex++;
+		openSegment();
+	}
+	
+	private void openSegment() throws IOException {
+		File file = JournalReader.getSegmentFile(directory, name, segmentIndex);
+		segmentFile = new RandomAccessFile(file, "rw");
+		segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		if(logger.isDebugEnabled())
+			logger.debug("Opened journal segment " + file);
+	}
+	
+	/**
+	 * Forces the segment to disk and truncates it to its used size
+	 * @throws IOException
+	 */
+	private void closeSegment() throws IOException {
+		int used = segment.position();
+		segment.force();
+		segment = null;
+		try {
+			segmentFile.getChannel().truncate(used);
+		} catch(IOException e) {
+			// some platforms refuse to truncate mapped files, the zeroed tail marks the end anyway 
+			logger.debug("Failed to truncate journal segment: " + e.getMessage());
+		}
+		segmentFile.close();
+		segmentFile = null;
+	}
+	
+	/**
+	 * Flushes the current segment to disk
+	 */
+	public synchronized void flush() {
+		if(segment != null)
+			segment.force();
+	}
+	
+	/**
+	 * Closes the journal
+	 */
+	public synchronized void close() {
+		if(segment == null)
+			return;
+		try {
+			closeSegment();
+		} catch(IOException e) {
+			logger.error("Failed to close journal segment of " + name + ". Error: " + e.getMessage());
+		}
+		logger.info("journal[name=" + name + ", directory=" + directory + "]: " + records + " records written, " + rejected + " rejected");
+	}
+	
+	/**
+	 * @return number of records written
+	 */
+	public synchronized long getRecords() {
+		return records;
+	}
+	
+}
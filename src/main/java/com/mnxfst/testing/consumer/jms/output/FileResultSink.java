@@ -0,0 +1,245 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Appends utf-8 encoded records to a file. Records are collected in a direct buffer which is written through 
+ * a {@link FileChannel} at the end of a batch, when it is full or - as last resort for idle periods - by a timer. 
+ * The file is rolled over when exceeding a maximum size or age: the current file is renamed to 
+ * <i>&lt;file&gt;.&lt;n&gt;</i> using the lowest free index and a new file is started. All analyzer instances 
+ * writing to the same file share one sink, see {@link #open(File, int, long, long, long)}
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class FileResultSink implements IResultSink {
+
+	private static final Logger logger = Logger.getLogger(FileResultSink.class.getName());
+
+	private static final Map<File, FileResultSink> openSinks = new HashMap<File, FileResultSink>();
+	private static final Timer flushTimer = new Timer("result-sink-flush", true);
+	
+	private static final byte LINE_SEPARATOR = '\n';
+
+	private final File file;
+	private final ByteBuffer buffer;
+	/** maximum file size in bytes, 0 for no limit */
+	private final long maxFileSize;
+	/** maximum file age in millis, 0 for no limit */
+	private final long rolloverInterval;
+	private final TimerTask flushTask;
+
+	private FileChannel channel = null;
+	private long fileSize = 0;
+	private long fileOpened = 0;
+	private boolean dirty = false;
+	private int references = 0;
+
+	/**
+	 * Returns the sink writing to the given file, creates it if necessary. Each call must be paired with a 
+	 * call to {@link #close()}. The settings of the first call win
+	 * @param file
+	 * @param bufferSize
+	 * @param maxFileSize maximum file size in bytes, 0 for no limit
+	 * @param rolloverInterval maximum file age in millis, 0 for no limit
+	 * @param flushInterval interval in millis the buffer is flushed at if dirty, 0 to flush on batch end and full buffer only
+	 * @return
+	 * @throws IOException
+	 */
+	public static FileResultSink open(File file, int bufferSize, long maxFileSize, long rolloverInterval, long flushInterval) throws IOException {
+		file = file.getAbsoluteFile();
+		synchronized(openSinks) {
+			FileResultSink sink = openSinks.get(file);
+			if(sink == null) {
+				sink = new FileResultSink(file, bufferSize, maxFileSize, rolloverInterval, flushInterval);
+				openSinks.put(file, sink);
+			}
+			sink.references++;
+			return sink;
+		}
+	}
+	
+	private FileResultSink(File file, int bufferSize, long maxFileSize, long rolloverInterval, long flushInterval) throws IOException {
+		this.file = file;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.maxFileSize = maxFileSize;
+		this.rolloverInterval = rolloverInterval;
+		openChannel();
+		
+		if(flushInterval > 0) {
+			this.flushTask = new TimerTask() {
+				public void run() {
+					try {
+						flush();
+					} catch(IOException e) {
+						logger.error("Failed to flush results to " + FileResultSink.this.file + ". Error: " + e.getMessage());
+					}
+				}
+			};
+			flushTimer.schedule(flushTask, flushInterval, flushInterval);
+		} else {
+			this.flushTask = null;
+		}
+	}
+	
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.output.IResultSink#append(java.lang.CharSequence, boolean)
+	 */
+	public synchronized void append(CharSequence record, boolean endOfBatch) throws IOException {
+
+		// make sure the record fits as a whole, only records exceeding the buffer are written in pieces
+		if(buffer.remaining() < record.length() * 3 + 1)
+			writeBuffer(true);
+		
+		int length = record.length();
+		for(int i = 0; i < length; i++) {
+			if(buffer.remaining() < 4)
+				writeBuffer(false);
+			
+			char c = record.charAt(i);
+			if(c < 0x80) {
+				buffer.put((byte)c);
+			} else if(c < 0x800) {
+				buffer.put((byte)(0xc0 | (c >> 6)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(record.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, record.charAt(++i));
+				buffer.put((byte)(0xf0 | (cp >> 18)));
+				buffer.put((byte)(0x80 | ((cp >> 12) & 0x3f)));
+				buffer.put((byte)(0x80 | ((cp >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (cp & 0x3f)));
+			} else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				buffer.put((byte)'?'); // unpaired surrogate
+			} else {
+				buffer.put((byte)(0xe0 | (c >> 12)));
+				buffer.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+		if(!buffer.hasRemaining())
+			writeBuffer(false);
+		buffer.put(LINE_SEPARATOR);
+		dirty = true;
+
+		if(endOfBatch)
+			writeBuffer(true);
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.output.IResultSink#flush()
+	 */
+	public synchronized void flush() throws IOException {
+		if(dirty)
+			writeBuffer(true);
+	}
+
+	/**
+	 * Writes the buffer content to the channel
+	 * @param recordBoundary true if the buffer ends with a complete record, thus the file may be rolled over before 
+	 * @throws IOException
+	 */
+	private void writeBuffer(boolean recordBoundary) throws IOException {
+		if(channel == null)
+			throw new IOException("Result file " + file + " already closed");
+		
+		if(recordBoundary && fileSize > 0) {
+			if((maxFileSize > 0 && fileSize + buffer.position() > maxFileSize) || (rolloverInterval > 0 && System.currentTimeMillis() - fileOpened >= rolloverInterval))
+				rollover();
+		}
+		
+		buffer.flip();
+		while(buffer.hasRemaining())
+			fileSize += channel.write(buffer);
+		buffer.clear();
+		dirty = !recordBoundary;
+	}
+	
+	/**
+	 * Closes the current file, renames it to the next free index and opens a new one
+	 * @throws IOException
+	 */
+	private void rollover() throws IOException {
+		channel.close();
+		channel = null;
+		
+		int index = 1;
+		File rolledFile = new File(file.getPath() + "." + index);
+		while(rolledFile.exists())
+			rolledFile = new File(file.getPath() + "." + (++index));
+		if(!file.renameTo(rolledFile))
+			logger.error("Failed to rename result file " + file + " to " + rolledFile + ". Appending to " + file);
+		else if(logger.isDebugEnabled())
+			logger.debug("Rolled over result file " + file + " to " + rolledFile);
+		
+		openChannel();
+	}
+	
+	/**
+	 * Opens the result file for appending
+	 * @throws IOException
+	 */
+	private void openChannel() throws IOException {
+		if(file.getParentFile() != null && !file.getParentFile().exists())
+			file.getParentFile().mkdirs();
+		this.channel = new FileOutputStream(file, true).getChannel();
+		this.fileSize = channel.size();
+		this.fileOpened = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.output.IResultSink#close()
+	 */
+	public void close() {
+		synchronized(openSinks) {
+			if(--references > 0)
+				return;
+			openSinks.remove(file);
+		}
+		
+		if(flushTask != null)
+			flushTask.cancel();
+		
+		synchronized(this) {
+			try {
+				flush();
+			} catch(IOException e) {
+				logger.error("Failed to flush results to " + file + ". Error: " + e.getMessage());
+			}
+			try {
+				if(channel != null)
+					channel.close();
+			} catch(IOException e) {
+				logger.error("Failed to close result file " + file + ". Error: " + e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.output;
+
+import java.io.IOException;
+
+/**
+ * Destination for the result records written by the analyzers. Records are handed over without line separator
+ * and may be buffered by the sink until the end of a batch is signaled
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public interface IResultSink {
+
+	/**
+	 * Appends the record. The provided buffer may be re-used by the caller as soon as the method returns
+	 * @param record
+	 * @param endOfBatch flushes the buffered records if true
+	 * @throws IOException
+	 */
+	public void append(CharSequence record, boolean endOfBatch) throws IOException;
+	
+	/**
+	 * Writes all buffered records
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+	
+	/**
+	 * Flushes and releases the sink
+	 */
+	public void close();
+	
+}
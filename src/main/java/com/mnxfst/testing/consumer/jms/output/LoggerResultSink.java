@@ -0,0 +1,56 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.output;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes each record through log4j at level info. Used if no result file is configured, thus existing logging 
+ * configurations keep working
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class LoggerResultSink implements IResultSink {
+
+	private final Logger logger;
+	
+	public LoggerResultSink(Logger logger) {
+		this.logger = logger;
+	}
+	
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.output.IResultSink#append(java.lang.CharSequence, boolean)
+	 */
+	public void append(CharSequence record, boolean endOfBatch) {
+		logger.info(record.toString());
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.output.IResultSink#flush()
+	 */
+	public void flush() {
+	}
+
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.output.IResultSink#close()
+	 */
+	public void close() {
+	}
+
+}
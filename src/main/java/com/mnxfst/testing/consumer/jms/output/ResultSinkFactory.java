@@ -0,0 +1,126 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+
+/**
+ * Creates the {@link IResultSink} described by the analyzer configuration. If no result file is configured,
+ * records are written through log4j
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class ResultSinkFactory {
+
+	public static final String CFG_PROP_RESULT_FILE = "resultFile";
+	public static final String CFG_PROP_RESULT_BUFFER_SIZE = "resultBufferSize";
+	public static final String CFG_PROP_RESULT_FILE_MAX_SIZE = "resultFileMaxSize";
+	public static final String CFG_PROP_RESULT_FILE_ROLLOVER_INTERVAL = "resultFileRolloverInterval";
+	public static final String CFG_PROP_RESULT_FLUSH_INTERVAL = "resultFlushInterval";
+
+	public static final int DEFAULT_RESULT_BUFFER_SIZE = 64 * 1024;
+	public static final long DEFAULT_RESULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Creates the result sink. Supported options:
+	 * <ul>
+	 *   <li>resultFile: file to append the records to, log4j is used if missing</li>
+	 *   <li>resultBufferSize: size of the write buffer in bytes (default 64k)</li>
+	 *   <li>resultFileMaxSize: rolls the file over when exceeding the size in bytes, 0 for no limit (default)</li>
+	 *   <li>resultFileRolloverInterval: rolls the file over after the given number of seconds, 0 for no limit (default)</li>
+	 *   <li>resultFlushInterval: flushes buffered records of idle analyzers after the given number of millis (default 1000), 0 disables</li>
+	 * </ul>
+	 * @param configuration
+	 * @param fallbackLogger
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	public static IResultSink createResultSink(Map<String, List<String>> configuration, Logger fallbackLogger) throws AsyncInputConsumerException {
+		return createResultSink(configuration, CFG_PROP_RESULT_FILE, fallbackLogger);
+	}
+	
+	/**
+	 * Creates a result sink writing to the file named by the given parameter instead of <i>resultFile</i>. The
+	 * remaining options are shared with the default sink
+	 * @param configuration
+	 * @param resultFileParameter
+	 * @param fallbackLogger
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	public static IResultSink createResultSink(Map<String, List<String>> configuration, String resultFileParameter, Logger fallbackLogger) throws AsyncInputConsumerException {
+		
+		String resultFile = extractSingleString(resultFileParameter, configuration);
+		if(resultFile == null || resultFile.trim().isEmpty())
+			return new LoggerResultSink(fallbackLogger);
+		
+		long bufferSize = extractLong(CFG_PROP_RESULT_BUFFER_SIZE, configuration, DEFAULT_RESULT_BUFFER_SIZE);
+		if(bufferSize < 16 || bufferSize > Integer.MAX_VALUE)
+			throw new AsyncInputConsumerException("Invalid result buffer size: " + bufferSize);
+		long maxFileSize = extractLong(CFG_PROP_RESULT_FILE_MAX_SIZE, configuration, 0);
+		long rolloverInterval = extractLong(CFG_PROP_RESULT_FILE_ROLLOVER_INTERVAL, configuration, 0);
+		long flushInterval = extractLong(CFG_PROP_RESULT_FLUSH_INTERVAL, configuration, DEFAULT_RESULT_FLUSH_INTERVAL);
+		
+		try {
+			return FileResultSink.open(new File(resultFile.trim()), (int)bufferSize, maxFileSize, rolloverInterval * 1000, flushInterval);
+		} catch(IOException e) {
+			throw new AsyncInputConsumerException("Failed to open result file " + resultFile + ". Error: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Extracts a non-negative long value for the parameter referenced
+	 * @param parameter
+	 * @param queryParams
+	 * @param defaultValue returned if the parameter is missing
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	private static long extractLong(String parameter, Map<String, List<String>> queryParams, long defaultValue) throws AsyncInputConsumerException {
+		String tmp = extractSingleString(parameter, queryParams);
+		if(tmp == null || tmp.trim().isEmpty())
+			return defaultValue;
+		try {
+			long value = Long.parseLong(tmp.trim());
+			if(value >= 0)
+				return value;
+		} catch(NumberFormatException e) {
+			// handled below
+		}
+		throw new AsyncInputConsumerException("Invalid value for parameter '" + parameter + "': " + tmp);
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	private static String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+}
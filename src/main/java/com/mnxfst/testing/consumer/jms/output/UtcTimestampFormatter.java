@@ -0,0 +1,94 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.output;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Formats timestamps as <i>yyyy-MM-dd HH:mm:ss.SSS</i> in UTC. The date and time up to the seconds is rendered
+ * once per second and cached, subsequent calls within the same second only append the milliseconds. The 
+ * formatter writes directly into the provided buffer and does not allocate. It is not thread-safe, each writer
+ * must own an instance
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class UtcTimestampFormatter {
+
+	private final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+	/** rendered 'yyyy-MM-dd HH:mm:ss' of the cached second */
+	private final char[] secondPrefix = new char[19];
+	private long cachedSecond = Long.MIN_VALUE;
+	
+	/**
+	 * Appends the formatted timestamp to the buffer
+	 * @param timestamp millis since epoch
+	 * @param buffer
+	 * @return the buffer
+	 */
+	public StringBuilder format(long timestamp, StringBuilder buffer) {
+		
+		long second = floorDiv(timestamp, 1000);
+		if(second != cachedSecond) {
+			renderSecondPrefix(second * 1000);
+			cachedSecond = second;
+		}
+		
+		int millis = (int)(timestamp - second * 1000);
+		buffer.append(secondPrefix).append('.');
+		buffer.append((char)('0' + millis / 100));
+		buffer.append((char)('0' + (millis / 10) % 10));
+		buffer.append((char)('0' + millis % 10));
+		return buffer;
+	}
+
+	/**
+	 * Renders the date and time of the given second into the cached prefix
+	 * @param secondStart
+	 */
+	private void renderSecondPrefix(long secondStart) {
+		calendar.setTimeInMillis(secondStart);
+		int year = calendar.get(Calendar.YEAR);
+		secondPrefix[0] = (char)('0' + (year / 1000) % 10);
+		secondPrefix[1] = (char)('0' + (year / 100) % 10);
+		secondPrefix[2] = (char)('0' + (year / 10) % 10);
+		secondPrefix[3] = (char)('0' + year % 10);
+		secondPrefix[4] = '-';
+		putTwoDigits(5, calendar.get(Calendar.MONTH) + 1);
+		secondPrefix[7] = '-';
+		putTwoDigits(8, calendar.get(Calendar.DAY_OF_MONTH));
+		secondPrefix[10] = ' ';
+		putTwoDigits(11, calendar.get(Calendar.HOUR_OF_DAY));
+		secondPrefix[13] = ':';
+		putTwoDigits(14, calendar.get(Calendar.MINUTE));
+		secondPrefix[16] = ':';
+		putTwoDigits(17, calendar.get(Calendar.SECOND));
+	}
+	
+	private void putTwoDigits(int offset, int value) {
+		secondPrefix[offset] = (char)('0' + value / 10);
+		secondPrefix[offset + 1] = (char)('0' + value % 10);
+	}
+	
+	private static long floorDiv(long value, long divisor) {
+		long result = value / divisor;
+		return (value % divisor < 0) ? result - 1 : result;
+	}
+
+}
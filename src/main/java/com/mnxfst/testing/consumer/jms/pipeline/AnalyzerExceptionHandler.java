@@ -0,0 +1,62 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import org.apache.log4j.Logger;
+
+import com.lmax.disruptor.ExceptionHandler;
+
+/**
+ * Logs errors raised by an analyzer and continues with the next event. A single malformed message must not
+ * halt the event processor as the ring buffer would fill up and block all consumers
+ * @author mnxfst
+ * @since 13.03.2012
+ */
+public class AnalyzerExceptionHandler implements ExceptionHandler {
+
+	private static final Logger logger = Logger.getLogger(AnalyzerExceptionHandler.class.getName());
+
+	private final String analyzerName;
+
+	public AnalyzerExceptionHandler(String analyzerName) {
+		this.analyzerName = analyzerName;
+	}
+
+	/**
+	 * @see com.lmax.disruptor.ExceptionHandler#handleEventException(java.lang.Throwable, long, java.lang.Object)
+	 */
+	public void handleEventException(Throwable ex, long sequence, Object event) {
+		logger.error("analyzer[name="+analyzerName+"]: failed to process event [sequence="+sequence+"]. Error: " + ex.getMessage(), ex);
+	}
+
+	/**
+	 * @see com.lmax.disruptor.ExceptionHandler#handleOnStartException(java.lang.Throwable)
+	 */
+	public void handleOnStartException(Throwable ex) {
+		logger.error("analyzer[name="+analyzerName+"]: failed to start. Error: " + ex.getMessage(), ex);
+	}
+
+	/**
+	 * @see com.lmax.disruptor.ExceptionHandler#handleOnShutdownException(java.lang.Throwable)
+	 */
+	public void handleOnShutdownException(Throwable ex) {
+		logger.error("analyzer[name="+analyzerName+"]: failed to shut down. Error: " + ex.getMessage(), ex);
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.WorkHandler;
+import com.mnxfst.testing.consumer.jms.IMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+
+/**
+ * Runs an {@link IMessageAnalyzer} as member of a worker pool. Workers see distinct events only, therefore
+ * the end of a batch is signaled as soon as no further event has been published, which allows analyzers to
+ * defer their output until the ring buffer runs empty
+ * @author mnxfst
+ * @since 14.03.2012
+ */
+public class AnalyzerWorkHandler implements WorkHandler<JMSMessageEvent> {
+
+	private final IMessageAnalyzer analyzer;
+	private final Sequencer sequencer;
+
+	public AnalyzerWorkHandler(IMessageAnalyzer analyzer, Sequencer sequencer) {
+		this.analyzer = analyzer;
+		this.sequencer = sequencer;
+	}
+
+	/**
+	 * @see com.lmax.disruptor.WorkHandler#onEvent(java.lang.Object)
+	 */
+	public void onEvent(JMSMessageEvent event) throws Exception {
+		long sequence = event.getSequence();
+		analyzer.onEvent(event, sequence, sequence >= sequencer.getCursor());
+	}
+
+}
@@ -0,0 +1,477 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.log4j.Logger;
+
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.Util;
+import com.lmax.disruptor.WorkerPool;
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.IMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.IStatefulMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.analyzer.DeliveryLatencyAnalyzer;
+import com.mnxfst.testing.consumer.jms.analyzer.ESPMessageAnalyzer;
+import com.mnxfst.testing.consumer.jms.analyzer.ESPResultWriter;
+import com.mnxfst.testing.consumer.jms.analyzer.RequestIdGapDetector;
+import com.mnxfst.testing.consumer.jms.analyzer.WindowAggregationAnalyzer;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.runtime.ConsumerRuntime;
+import com.mnxfst.testing.consumer.jms.runtime.IPollingProcessor;
+import com.mnxfst.testing.consumer.jms.stats.ConsumerStatisticsCollector;
+import com.mnxfst.testing.consumer.jms.stats.StatisticsEventHandler;
+
+/**
+ * Wires the configured {@link IMessageAnalyzer analyzers} into the ring buffer. Each analyzer is run by its own
+ * {@link BatchEventProcessor}. Independent analyzers consume the ring buffer in parallel while an analyzer
+ * depending on others waits on a barrier built from their sequences and thus sees each event only after
+ * all of them have processed it. CPU intensive analyzers may be spread over a {@link WorkerPool} where each
+ * worker receives distinct events. Analyzers depending on a worker pool still see the events in sequence which
+ * makes them the place for writing ordered output. If a {@link ConsumerStatisticsCollector} is provided, a final
+ * statistics stage follows all analyzers. The analyzers are configured through:
+ * <ul>
+ *   <li><i>consumer.async.jms.message-analyzer.&lt;name&gt;.class</i> - analyzer implementation (optional for built-in analyzers, eg. <i>esp</i>)</li>
+ *   <li><i>consumer.async.jms.message-analyzer.&lt;name&gt;.dependsOn</i> - names of the analyzers whose output is required</li>
+ *   <li><i>consumer.async.jms.message-analyzer.&lt;name&gt;.workers</i> - number of analyzer instances run as worker pool (default: 1), stateful analyzers are limited to one</li>
+ * </ul>
+ * Built-in analyzers consuming the fields extracted by <i>esp</i> - <i>espResults</i>, <i>espWindows</i> and 
+ * <i>requestIds</i> - depend on it implicitly unless their class is replaced, thus <i>esp</i> must be activated along with them.
+ * If a {@link ConsumerRuntime} is provided, the analyzers are run by {@link PollingEventProcessor polling processors} 
+ * and {@link PollingWorkProcessor workers} on the threads of that runtime instead of occupying threads of their own.
+ * Any other property prefixed by <i>consumer.async.jms.message-analyzer.&lt;name&gt;.</i> overrides the global 
+ * property of the same name for that analyzer, eg. <i>consumer.async.jms.message-analyzer.esp.writeResults=false</i>
+ * @author mnxfst
+ * @since 13.03.2012
+ */
+public class MessageAnalyzerPipeline {
+
+	private static final Logger logger = Logger.getLogger(MessageAnalyzerPipeline.class.getName());
+
+	public static final String CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX = "consumer.async.jms.message-analyzer.";
+	public static final String CONFIG_PROPS_ANALYZER_CLASS_SUFFIX = ".class";
+	public static final String CONFIG_PROPS_ANALYZER_DEPENDS_ON_SUFFIX = ".dependsOn";
+	public static final String CONFIG_PROPS_ANALYZER_WORKERS_SUFFIX = ".workers";
+
+	/** analyzers which may be referenced by name only */
+	private static final Map<String, String> BUILT_IN_ANALYZERS = new HashMap<String, String>();
+
+	static {
+		BUILT_IN_ANALYZERS.put("esp", ESPMessageAnalyzer.class.getName());
+		BUILT_IN_ANALYZERS.put("espResults", ESPResultWriter.class.getName());
+		BUILT_IN_ANALYZERS.put("deliveryLatency", DeliveryLatencyAnalyzer.class.getName());
+		BUILT_IN_ANALYZERS.put("espWindows", WindowAggregationAnalyzer.class.getName());
+		BUILT_IN_ANALYZERS.put("requestIds", RequestIdGapDetector.class.getName());
+	}
+
+	/** built-in analyzers and the analyzer providing their input */
+	private static final Map<String, String> BUILT_IN_DEPENDENCIES = new HashMap<String, String>();
+
+	static {
+		BUILT_IN_DEPENDENCIES.put("espResults", "esp");
+		BUILT_IN_DEPENDENCIES.put("espWindows", "esp");
+		BUILT_IN_DEPENDENCIES.put("requestIds", "esp");
+	}
+
+	private final RingBuffer<JMSMessageEvent> ringBuffer;
+	private final ConsumerStatisticsCollector statisticsCollector;
+	/** null if each processor is run by a thread of its own */
+	private final ConsumerRuntime runtime;
+
+	/** analyzer instances by name, contains more than one instance if run by a worker pool */
+	private final Map<String, List<IMessageAnalyzer>> analyzers = new LinkedHashMap<String, List<IMessageAnalyzer>>();
+	private final Map<String, String[]> dependencies = new HashMap<String, String[]>();
+	private final Map<String, Sequence[]> analyzerSequences = new HashMap<String, Sequence[]>();
+	private final List<BatchEventProcessor<JMSMessageEvent>> eventProcessors = new ArrayList<BatchEventProcessor<JMSMessageEvent>>();
+	private final List<WorkerPool<JMSMessageEvent>> workerPools = new ArrayList<WorkerPool<JMSMessageEvent>>();
+	private final List<IPollingProcessor> pollingProcessors = new ArrayList<IPollingProcessor>();
+	/** sequences of the final stage, an event has passed the pipeline once all of them have reached its sequence */
+	private Sequence[] gatingSequences = new Sequence[0];
+
+	public MessageAnalyzerPipeline(RingBuffer<JMSMessageEvent> ringBuffer, ConsumerStatisticsCollector statisticsCollector) {
+		this(ringBuffer, statisticsCollector, null);
+	}
+
+	/**
+	 * Initializes the pipeline
+	 * @param ringBuffer
+	 * @param statisticsCollector may be null
+	 * @param runtime runtime the processors are polled by, null for running each processor by a thread of its own
+	 */
+	public MessageAnalyzerPipeline(RingBuffer<JMSMessageEvent> ringBuffer, ConsumerStatisticsCollector statisticsCollector, ConsumerRuntime runtime) {
+		this.ringBuffer = ringBuffer;
+		this.statisticsCollector = statisticsCollector;
+		this.runtime = runtime;
+	}
+
+	/**
+	 * Loads and initializes the referenced analyzers, wires them according to their dependencies and registers
+	 * the sequences of the final stage as gating sequences with the ring buffer
+	 * @param analyzerNames
+	 * @param properties
+	 * @throws AsyncInputConsumerException
+	 */
+	public void initialize(Set<String> analyzerNames, Map<String, List<String>> properties) throws AsyncInputConsumerException {
+
+		if(analyzerNames == null || analyzerNames.isEmpty())
+			throw new AsyncInputConsumerException("Missing required message analyzers");
+
+		for(String name : analyzerNames) {
+			
+			int workers = 1;
+			String tmp = extractSingleString(CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX + name + CONFIG_PROPS_ANALYZER_WORKERS_SUFFIX, properties);
+			if(tmp != null && !tmp.trim().isEmpty()) {
+				try {
+					workers = Integer.parseInt(tmp.trim());
+				} catch(NumberFormatException e) {
+					throw new AsyncInputConsumerException("Invalid number of workers for analyzer '"+name+"': " + tmp);
+				}
+				if(workers < 1)
+					throw new AsyncInputConsumerException("Invalid number of workers for analyzer '"+name+"': " + workers);
+			}
+			
+			Map<String, List<String>> analyzerProperties = getAnalyzerProperties(name, properties);
+			List<IMessageAnalyzer> instances = new ArrayList<IMessageAnalyzer>(workers);
+			for(int i = 0; i < workers; i++) {
+				IMessageAnalyzer analyzer = createAnalyzer(name, properties);
+				if(workers > 1 && analyzer instanceof IStatefulMessageAnalyzer)
+					throw new AsyncInputConsumerException("Analyzer '"+name+"' keeps state across events and thus cannot be run by " + workers + " workers");
+				// delivery latencies are reported through the statistics of this consumer only
+				if(statisticsCollector != null && analyzer instanceof DeliveryLatencyAnalyzer)
+					((DeliveryLatencyAnalyzer)analyzer).setDeliveryLatencyRegistry(statisticsCollector.getDeliveryLatencyRegistry());
+				analyzer.initialize(analyzerProperties);
+				instances.add(analyzer);
+			}
+			analyzers.put(name, instances);
+			dependencies.put(name, addBuiltInDependency(name, extractMultiValues(CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX + name + CONFIG_PROPS_ANALYZER_DEPENDS_ON_SUFFIX, properties), properties));
+		}
+
+		// wire analyzers: each one is connected as soon as all of its dependencies are
+		for(String name : analyzers.keySet())
+			wireAnalyzer(name, new HashSet<String>());
+
+		// the ring buffer must not wrap around analyzers no one else depends on
+		Set<String> dependedOn = new HashSet<String>();
+		for(String[] deps : dependencies.values())
+			for(String dep : deps)
+				dependedOn.add(dep);
+		List<Sequence> gatingSequences = new ArrayList<Sequence>();
+		for(String name : analyzers.keySet()) {
+			if(!dependedOn.contains(name))
+				for(Sequence sequence : analyzerSequences.get(name))
+					gatingSequences.add(sequence);
+		}
+		
+		// the statistics stage trails all analyzers and thus becomes the only gating sequence
+		if(statisticsCollector != null) {
+			Sequence[] analyzerSequences = gatingSequences.toArray(new Sequence[gatingSequences.size()]);
+			Sequence statisticsSequence = null;
+			if(runtime != null) {
+				PollingEventProcessor statisticsProcessor = new PollingEventProcessor("statistics", ringBuffer, analyzerSequences, new StatisticsEventHandler(statisticsCollector), new AnalyzerExceptionHandler("statistics"));
+				pollingProcessors.add(statisticsProcessor);
+				statisticsSequence = statisticsProcessor.getSequence();
+			} else {
+				BatchEventProcessor<JMSMessageEvent> statisticsProcessor = new BatchEventProcessor<JMSMessageEvent>(ringBuffer, ringBuffer.newBarrier(analyzerSequences), new StatisticsEventHandler(statisticsCollector));
+				statisticsProcessor.setExceptionHandler(new AnalyzerExceptionHandler("statistics"));
+				eventProcessors.add(statisticsProcessor);
+				statisticsSequence = statisticsProcessor.getSequence();
+			}
+			statisticsCollector.setTrailingSequence(statisticsSequence);
+			gatingSequences.clear();
+			gatingSequences.add(statisticsSequence);
+		}
+		this.gatingSequences = gatingSequences.toArray(new Sequence[gatingSequences.size()]);
+		ringBuffer.setGatingSequences(this.gatingSequences);
+
+		if(logger.isDebugEnabled()) {
+			for(String name : analyzers.keySet())
+				logger.debug("analyzer[name="+name+", class="+analyzers.get(name).get(0).getClass().getName()+", workers="+analyzers.get(name).size()+", dependsOn="+toString(dependencies.get(name))+", gating="+!dependedOn.contains(name)+"]");
+		}
+	}
+
+	/**
+	 * Adds the analyzer providing the input of a built-in analyzer to its configured dependencies. Analyzers whose
+	 * class has been replaced are left untouched
+	 * @param name
+	 * @param configuredDependencies
+	 * @param properties
+	 * @return
+	 */
+	protected String[] addBuiltInDependency(String name, String[] configuredDependencies, Map<String, List<String>> properties) {
+		
+		String required = BUILT_IN_DEPENDENCIES.get(name);
+		String analyzerClass = extractSingleString(CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX + name + CONFIG_PROPS_ANALYZER_CLASS_SUFFIX, properties);
+		if(required == null || (analyzerClass != null && !analyzerClass.trim().isEmpty()))
+			return configuredDependencies;
+		
+		for(String dependency : configuredDependencies)
+			if(dependency.equals(required))
+				return configuredDependencies;
+		String[] result = Arrays.copyOf(configuredDependencies, configuredDependencies.length + 1);
+		result[configuredDependencies.length] = required;
+		return result;
+	}
+
+	/**
+	 * Creates the processor - or worker pool - for the named analyzer after all of its dependencies have been wired. 
+	 * The sequences of the processors are stored for dependent analyzers
+	 * @param name
+	 * @param inProgress analyzers currently being wired, used for detecting cycles
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	protected Sequence[] wireAnalyzer(String name, Set<String> inProgress) throws AsyncInputConsumerException {
+
+		Sequence[] sequences = analyzerSequences.get(name);
+		if(sequences != null)
+			return sequences;
+
+		if(!inProgress.add(name))
+			throw new AsyncInputConsumerException("Cyclic dependency detected for analyzer '"+name+"'");
+
+		List<Sequence> dependentSequences = new ArrayList<Sequence>();
+		for(String dependency : dependencies.get(name)) {
+			if(!analyzers.containsKey(dependency))
+				throw new AsyncInputConsumerException("Analyzer '"+name+"' depends on '"+dependency+"' which is not activated");
+			for(Sequence sequence : wireAnalyzer(dependency, inProgress))
+				dependentSequences.add(sequence);
+		}
+
+		List<IMessageAnalyzer> instances = analyzers.get(name);
+		if(runtime != null) {
+			sequences = wirePollingAnalyzer(name, instances, dependentSequences.toArray(new Sequence[dependentSequences.size()]));
+			analyzerSequences.put(name, sequences);
+			inProgress.remove(name);
+			return sequences;
+		}
+
+		SequenceBarrier barrier = ringBuffer.newBarrier(dependentSequences.toArray(new Sequence[dependentSequences.size()]));
+		if(instances.size() > 1) {
+			AnalyzerWorkHandler[] workHandlers = new AnalyzerWorkHandler[instances.size()];
+			for(int i = 0; i < workHandlers.length; i++)
+				workHandlers[i] = new AnalyzerWorkHandler(instances.get(i), ringBuffer);
+			WorkerPool<JMSMessageEvent> workerPool = new WorkerPool<JMSMessageEvent>(ringBuffer, barrier, new AnalyzerExceptionHandler(name), workHandlers);
+			workerPools.add(workerPool);
+			sequences = workerPool.getWorkerSequences();
+		} else {
+			BatchEventProcessor<JMSMessageEvent> eventProcessor = new BatchEventProcessor<JMSMessageEvent>(ringBuffer, barrier, instances.get(0));
+			eventProcessor.setExceptionHandler(new AnalyzerExceptionHandler(name));
+			eventProcessors.add(eventProcessor);
+			sequences = new Sequence[]{eventProcessor.getSequence()};
+		}
+
+		analyzerSequences.put(name, sequences);
+		inProgress.remove(name);
+		return sequences;
+	}
+
+	/**
+	 * Creates the polling processor - or polling workers sharing a work sequence - for the named analyzer
+	 * @param name
+	 * @param instances
+	 * @param dependentSequences
+	 * @return sequences of the created processors
+	 */
+	protected Sequence[] wirePollingAnalyzer(String name, List<IMessageAnalyzer> instances, Sequence[] dependentSequences) {
+		if(instances.size() > 1) {
+			Sequence workSequence = new Sequence(ringBuffer.getCursor());
+			Sequence[] sequences = new Sequence[instances.size()];
+			for(int i = 0; i < sequences.length; i++) {
+				PollingWorkProcessor workProcessor = new PollingWorkProcessor(name + "-" + i, ringBuffer, dependentSequences, workSequence, new AnalyzerWorkHandler(instances.get(i), ringBuffer), new AnalyzerExceptionHandler(name));
+				pollingProcessors.add(workProcessor);
+				sequences[i] = workProcessor.getSequence();
+			}
+			return sequences;
+		}
+		PollingEventProcessor eventProcessor = new PollingEventProcessor(name, ringBuffer, dependentSequences, instances.get(0), new AnalyzerExceptionHandler(name));
+		pollingProcessors.add(eventProcessor);
+		return new Sequence[]{eventProcessor.getSequence()};
+	}
+
+	/**
+	 * Returns the properties for the named analyzer: all properties prefixed by the analyzer specific prefix 
+	 * override the global ones
+	 * @param name
+	 * @param properties
+	 * @return
+	 */
+	protected Map<String, List<String>> getAnalyzerProperties(String name, Map<String, List<String>> properties) {
+		String prefix = CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX + name + ".";
+		Map<String, List<String>> analyzerProperties = new HashMap<String, List<String>>(properties);
+		for(String key : properties.keySet()) {
+			if(key.startsWith(prefix) && key.length() > prefix.length())
+				analyzerProperties.put(key.substring(prefix.length()), properties.get(key));
+		}
+		return analyzerProperties;
+	}
+
+	/**
+	 * Instantiates the named analyzer
+	 * @param name
+	 * @param properties
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	protected IMessageAnalyzer createAnalyzer(String name, Map<String, List<String>> properties) throws AsyncInputConsumerException {
+
+		String analyzerClass = extractSingleString(CONFIG_PROPS_JMS_MESSAGE_ANALYZERS_PREFIX + name + CONFIG_PROPS_ANALYZER_CLASS_SUFFIX, properties);
+		if(analyzerClass == null || analyzerClass.trim().isEmpty())
+			analyzerClass = BUILT_IN_ANALYZERS.get(name);
+		if(analyzerClass == null || analyzerClass.trim().isEmpty())
+			throw new AsyncInputConsumerException("Missing required class for analyzer '"+name+"'");
+
+		try {
+			Object analyzer = Class.forName(analyzerClass.trim()).newInstance();
+			if(!(analyzer instanceof IMessageAnalyzer))
+				throw new AsyncInputConsumerException("Class '"+analyzerClass+"' of analyzer '"+name+"' does not implement " + IMessageAnalyzer.class.getName());
+			return (IMessageAnalyzer)analyzer;
+		} catch(ClassNotFoundException e) {
+			throw new AsyncInputConsumerException("Class '"+analyzerClass+"' of analyzer '"+name+"' not found");
+		} catch(InstantiationException e) {
+			throw new AsyncInputConsumerException("Failed to instantiate analyzer '"+name+"' of class '"+analyzerClass+"'. Error: " + e.getMessage());
+		} catch(IllegalAccessException e) {
+			throw new AsyncInputConsumerException("Failed to instantiate analyzer '"+name+"' of class '"+analyzerClass+"'. Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Submits all event processors and worker pools to the provided executor. Polling processors are registered 
+	 * with the runtime instead
+	 * @param executor
+	 */
+	public void start(ExecutorService executor) {
+		if(runtime != null)
+			runtime.register(pollingProcessors);
+		for(WorkerPool<JMSMessageEvent> workerPool : workerPools)
+			workerPool.start(executor);
+		for(BatchEventProcessor<JMSMessageEvent> eventProcessor : eventProcessors)
+			executor.submit(eventProcessor);
+	}
+
+	/**
+	 * Halts all event processors and worker pools and shuts down the analyzers
+	 */
+	public void shutdown() {
+		if(runtime != null)
+			runtime.unregister(pollingProcessors);
+		for(WorkerPool<JMSMessageEvent> workerPool : workerPools)
+			workerPool.halt();
+		for(BatchEventProcessor<JMSMessageEvent> eventProcessor : eventProcessors)
+			eventProcessor.halt();
+		for(List<IMessageAnalyzer> instances : analyzers.values())
+			for(IMessageAnalyzer analyzer : instances)
+				analyzer.shutdown();
+	}
+
+	/**
+	 * Waits until all events published so far have passed the pipeline
+	 * @param timeoutMillis
+	 * @return false if the timeout elapsed before
+	 */
+	public boolean drain(long timeoutMillis) {
+		long cursor = ringBuffer.getCursor();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(Util.getMinimumSequence(gatingSequences) < cursor) {
+			if(System.currentTimeMillis() >= deadline)
+				return false;
+			try {
+				Thread.sleep(1);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the sequences of the final pipeline stage
+	 * @return
+	 */
+	public Sequence[] getGatingSequences() {
+		return gatingSequences;
+	}
+
+	/**
+	 * Returns the number of threads required for running all event processors and workers, 0 if run by a runtime
+	 * @return
+	 */
+	public int getNumberOfEventProcessors() {
+		if(runtime != null)
+			return 0;
+		int count = eventProcessors.size();
+		for(String name : analyzers.keySet())
+			if(analyzers.get(name).size() > 1)
+				count = count + analyzers.get(name).size();
+		return count;
+	}
+
+	/**
+	 * Returns the values for the referenced parameter. Comma separated values are split up
+	 * @param parameter
+	 * @param queryParams
+	 * @return
+	 */
+	protected String[] extractMultiValues(String parameter, Map<String, List<String>> queryParams) {
+		List<String> result = new ArrayList<String>();
+		List<String> values = queryParams.get(parameter);
+		if(values != null) {
+			for(String v : values) {
+				if(v == null)
+					continue;
+				for(String s : v.split(","))
+					if(!s.trim().isEmpty())
+						result.add(s.trim());
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+	private static String toString(String[] values) {
+		StringBuffer result = new StringBuffer();
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0)
+				result.append(",");
+			result.append(values[i]);
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.Util;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.runtime.IPollingProcessor;
+
+/**
+ * Counterpart of the {@link com.lmax.disruptor.BatchEventProcessor} run by a {@link com.mnxfst.testing.consumer.jms.runtime.ConsumerRuntime}.
+ * Each poll hands the events published - or processed by all processors depended on - to the handler, at most
+ * {@link #MAX_BATCH_SIZE} at a time, thus a single busy processor cannot starve the others sharing its thread. 
+ * The end of a batch is signaled with the last event available 
+ * @author mnxfst
+ * @since 25.03.2012
+ */
+public class PollingEventProcessor implements IPollingProcessor {
+
+	public static final int MAX_BATCH_SIZE = 256;
+	
+	private final String name;
+	private final RingBuffer<JMSMessageEvent> ringBuffer;
+	/** empty if depending on the publishers only */
+	private final Sequence[] dependentSequences;
+	private final EventHandler<JMSMessageEvent> eventHandler;
+	private final ExceptionHandler exceptionHandler;
+	private final Sequence sequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+	
+	public PollingEventProcessor(String name, RingBuffer<JMSMessageEvent> ringBuffer, Sequence[] dependentSequences, EventHandler<JMSMessageEvent> eventHandler, ExceptionHandler exceptionHandler) {
+		this.name = name;
+		this.ringBuffer = ringBuffer;
+		this.dependentSequences = dependentSequences;
+		this.eventHandler = eventHandler;
+		this.exceptionHandler = exceptionHandler;
+	}
+	
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.runtime.IPollingProcessor#poll()
+	 */
+	public int poll() {
+		
+		long nextSequence = sequence.get() + 1;
+		long availableSequence = (dependentSequences.length == 0 ? ringBuffer.getCursor() : Util.getMinimumSequence(dependentSequences));
+		if(availableSequence < nextSequence)
+			return 0;
+		if(availableSequence - nextSequence >= MAX_BATCH_SIZE)
+			availableSequence = nextSequence + MAX_BATCH_SIZE - 1;
+		
+		for(long s = nextSequence; s <= availableSequence; s++) {
+			JMSMessageEvent event = ringBuffer.get(s);
+			try {
+				eventHandler.onEvent(event, s, s == availableSequence);
+			} catch(Exception e) {
+				exceptionHandler.handleEventException(e, s, event);
+			}
+		}
+		sequence.set(availableSequence);
+		return (int)(availableSequence - nextSequence + 1);
+	}
+	
+	/**
+	 * @return sequence of the last event processed
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+	
+	public String toString() {
+		return "pollingEventProcessor[name="+name+"]";
+	}
+	
+}
@@ -0,0 +1,110 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.Util;
+import com.lmax.disruptor.WorkHandler;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.runtime.IPollingProcessor;
+
+/**
+ * Counterpart of the workers of a {@link com.lmax.disruptor.WorkerPool} run by a {@link com.mnxfst.testing.consumer.jms.runtime.ConsumerRuntime}.
+ * All workers of a pool share a work sequence from which each one claims the next event to be processed. A worker 
+ * keeps its claim across polls until the event becomes available, meanwhile its sequence stays right in front of 
+ * the claimed one, thus the ring buffer cannot wrap around it
+ * @author mnxfst
+ * @since 25.03.2012
+ */
+public class PollingWorkProcessor implements IPollingProcessor {
+
+	private final String name;
+	private final RingBuffer<JMSMessageEvent> ringBuffer;
+	/** empty if depending on the publishers only */
+	private final Sequence[] dependentSequences;
+	private final Sequence workSequence;
+	private final WorkHandler<JMSMessageEvent> workHandler;
+	private final ExceptionHandler exceptionHandler;
+	private final Sequence sequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+	
+	private boolean processedSequence = true;
+	private long nextSequence = Sequencer.INITIAL_CURSOR_VALUE;
+	
+	/**
+	 * Initializes the worker
+	 * @param name
+	 * @param ringBuffer
+	 * @param dependentSequences
+	 * @param workSequence shared by all workers of the pool
+	 * @param workHandler
+	 * @param exceptionHandler
+	 */
+	public PollingWorkProcessor(String name, RingBuffer<JMSMessageEvent> ringBuffer, Sequence[] dependentSequences, Sequence workSequence, WorkHandler<JMSMessageEvent> workHandler, ExceptionHandler exceptionHandler) {
+		this.name = name;
+		this.ringBuffer = ringBuffer;
+		this.dependentSequences = dependentSequences;
+		this.workSequence = workSequence;
+		this.workHandler = workHandler;
+		this.exceptionHandler = exceptionHandler;
+	}
+	
+	/**
+	 * @see com.mnxfst.testing.consumer.jms.runtime.IPollingProcessor#poll()
+	 */
+	public int poll() {
+		
+		int processed = 0;
+		long availableSequence = (dependentSequences.length == 0 ? ringBuffer.getCursor() : Util.getMinimumSequence(dependentSequences));
+		while(processed < PollingEventProcessor.MAX_BATCH_SIZE) {
+			
+			if(processedSequence) {
+				processedSequence = false;
+				nextSequence = workSequence.incrementAndGet();
+				sequence.set(nextSequence - 1);
+			}
+			if(nextSequence > availableSequence)
+				break;
+			
+			JMSMessageEvent event = ringBuffer.get(nextSequence);
+			try {
+				workHandler.onEvent(event);
+			} catch(Exception e) {
+				exceptionHandler.handleEventException(e, nextSequence, event);
+			}
+			processedSequence = true;
+			processed++;
+		}
+		return processed;
+	}
+	
+	/**
+	 * @return sequence in front of the event claimed last
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+	
+	public String toString() {
+		return "pollingWorkProcessor[name="+name+"]";
+	}
+	
+}
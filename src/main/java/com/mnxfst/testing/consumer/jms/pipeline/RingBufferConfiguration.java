@@ -0,0 +1,303 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.pipeline;
+
+import java.util.List;
+import java.util.Map;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.ClaimStrategy;
+import com.lmax.disruptor.MultiThreadedClaimStrategy;
+import com.lmax.disruptor.MultiThreadedLowContentionClaimStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SingleThreadedClaimStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent.PayloadOverflowPolicy;
+
+/**
+ * Holds the ring buffer topology (size, wait and claim strategy) as well as the payload buffer sizing of the
+ * preallocated events as provided through the consumer properties and creates the {@link RingBuffer} accordingly
+ * @author mnxfst
+ * @since 12.03.2012
+ */
+public class RingBufferConfiguration {
+
+	public static final String REQUEST_PARAMETER_RING_BUFFER_SIZE = "ringBufferSize";
+	public static final String REQUEST_PARAMETER_WAIT_STRATEGY = "waitStrategy";
+	public static final String REQUEST_PARAMETER_CLAIM_STRATEGY = "claimStrategy";
+	public static final String REQUEST_PARAMETER_PAYLOAD_INITIAL_SIZE = "payloadInitialSize";
+	public static final String REQUEST_PARAMETER_PAYLOAD_MAX_SIZE = "payloadMaxSize";
+	public static final String REQUEST_PARAMETER_PAYLOAD_OVERFLOW_POLICY = "payloadOverflowPolicy";
+
+	public static final int DEFAULT_RING_BUFFER_SIZE = 1024 * 8;
+
+	/**
+	 * Supported wait strategies: trade cpu usage against latency
+	 */
+	public enum WaitStrategyType {
+		BUSY_SPIN("busyspin"), YIELDING("yielding"), SLEEPING("sleeping"), BLOCKING("blocking");
+
+		private final String name;
+
+		private WaitStrategyType(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Supported claim strategies: single threaded may only be used with exactly one publishing thread
+	 */
+	public enum ClaimStrategyType {
+		SINGLE_THREADED("single"), MULTI_THREADED("multi"), MULTI_THREADED_LOW_CONTENTION("multi-lowcontention");
+
+		private final String name;
+
+		private ClaimStrategyType(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private int ringBufferSize = DEFAULT_RING_BUFFER_SIZE;
+	private WaitStrategyType waitStrategyType = WaitStrategyType.SLEEPING;
+	private ClaimStrategyType claimStrategyType = ClaimStrategyType.SINGLE_THREADED;
+	/** chars/bytes preallocated per event, further growth happens lazily on first use */
+	private int payloadInitialSize = 0;
+	/** maximum payload size per event, 0 for no limit */
+	private int payloadMaxSize = 0;
+	private PayloadOverflowPolicy payloadOverflowPolicy = PayloadOverflowPolicy.TRUNCATE;
+
+	public RingBufferConfiguration() {
+	}
+
+	public RingBufferConfiguration(int ringBufferSize, WaitStrategyType waitStrategyType, ClaimStrategyType claimStrategyType) {
+		this.ringBufferSize = ringBufferSize;
+		this.waitStrategyType = waitStrategyType;
+		this.claimStrategyType = claimStrategyType;
+	}
+
+	/**
+	 * Reads the ring buffer topology from the provided properties. If no claim strategy is configured, a multi threaded
+	 * one is chosen as soon as there is more than one publishing thread
+	 * @param properties
+	 * @param numberOfPublishers number of threads publishing into the ring buffer concurrently
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	public static RingBufferConfiguration fromProperties(Map<String, List<String>> properties, int numberOfPublishers) throws AsyncInputConsumerException {
+
+		RingBufferConfiguration cfg = new RingBufferConfiguration();
+
+		String tmp = extractSingleString(REQUEST_PARAMETER_RING_BUFFER_SIZE, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			try {
+				cfg.ringBufferSize = Integer.parseInt(tmp.trim());
+			} catch(NumberFormatException e) {
+				throw new AsyncInputConsumerException("Invalid ring buffer size: " + tmp);
+			}
+			if(cfg.ringBufferSize < 1 || Integer.bitCount(cfg.ringBufferSize) != 1)
+				throw new AsyncInputConsumerException("Invalid ring buffer size: " + cfg.ringBufferSize + ". The size must be a positive power of 2");
+		}
+
+		tmp = extractSingleString(REQUEST_PARAMETER_WAIT_STRATEGY, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			cfg.waitStrategyType = null;
+			for(WaitStrategyType wst : WaitStrategyType.values())
+				if(normalize(wst.getName()).equals(normalize(tmp)))
+					cfg.waitStrategyType = wst;
+			if(cfg.waitStrategyType == null)
+				throw new AsyncInputConsumerException("Unsupported wait strategy: " + tmp);
+		}
+
+		tmp = extractSingleString(REQUEST_PARAMETER_CLAIM_STRATEGY, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			cfg.claimStrategyType = null;
+			for(ClaimStrategyType cst : ClaimStrategyType.values())
+				if(normalize(cst.getName()).equals(normalize(tmp)))
+					cfg.claimStrategyType = cst;
+			if(cfg.claimStrategyType == null)
+				throw new AsyncInputConsumerException("Unsupported claim strategy: " + tmp);
+			if(cfg.claimStrategyType == ClaimStrategyType.SINGLE_THREADED && numberOfPublishers > 1)
+				throw new AsyncInputConsumerException("Single threaded claim strategy cannot be used with " + numberOfPublishers + " publishing threads");
+		} else {
+			cfg.claimStrategyType = (numberOfPublishers > 1 ? ClaimStrategyType.MULTI_THREADED : ClaimStrategyType.SINGLE_THREADED);
+		}
+
+		cfg.payloadInitialSize = extractNonNegativeInt(REQUEST_PARAMETER_PAYLOAD_INITIAL_SIZE, properties, 0);
+		cfg.payloadMaxSize = extractNonNegativeInt(REQUEST_PARAMETER_PAYLOAD_MAX_SIZE, properties, 0);
+		if(cfg.payloadMaxSize > 0 && cfg.payloadInitialSize > cfg.payloadMaxSize)
+			throw new AsyncInputConsumerException("Initial payload size " + cfg.payloadInitialSize + " exceeds maximum payload size " + cfg.payloadMaxSize);
+
+		tmp = extractSingleString(REQUEST_PARAMETER_PAYLOAD_OVERFLOW_POLICY, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			cfg.payloadOverflowPolicy = null;
+			for(PayloadOverflowPolicy pop : PayloadOverflowPolicy.values())
+				if(normalize(pop.name()).equals(normalize(tmp)))
+					cfg.payloadOverflowPolicy = pop;
+			if(cfg.payloadOverflowPolicy == null)
+				throw new AsyncInputConsumerException("Unsupported payload overflow policy: " + tmp);
+		}
+
+		return cfg;
+	}
+
+	/**
+	 * Creates a new ring buffer according to the configured topology
+	 * @return
+	 */
+	public RingBuffer<JMSMessageEvent> createRingBuffer() {
+		return new RingBuffer<JMSMessageEvent>(JMSMessageEvent.newEventFactory(payloadInitialSize, payloadMaxSize, payloadOverflowPolicy), createClaimStrategy(), createWaitStrategy());
+	}
+
+	/**
+	 * Returns the configured claim strategy
+	 * @return
+	 */
+	protected ClaimStrategy createClaimStrategy() {
+		switch(claimStrategyType) {
+			case MULTI_THREADED:
+				return new MultiThreadedClaimStrategy(ringBufferSize);
+			case MULTI_THREADED_LOW_CONTENTION:
+				return new MultiThreadedLowContentionClaimStrategy(ringBufferSize);
+			default:
+				return new SingleThreadedClaimStrategy(ringBufferSize);
+		}
+	}
+
+	/**
+	 * Returns the configured wait strategy
+	 * @return
+	 */
+	protected WaitStrategy createWaitStrategy() {
+		switch(waitStrategyType) {
+			case BUSY_SPIN:
+				return new BusySpinWaitStrategy();
+			case YIELDING:
+				return new YieldingWaitStrategy();
+			case BLOCKING:
+				return new BlockingWaitStrategy();
+			default:
+				return new SleepingWaitStrategy();
+		}
+	}
+
+	/**
+	 * Removes all separators and converts the value to lower case, eg. 'BUSY_SPIN' and 'busy-spin' become 'busyspin'
+	 * @param value
+	 * @return
+	 */
+	private static String normalize(String value) {
+		return value.trim().toLowerCase().replace("_", "").replace("-", "");
+	}
+
+	/**
+	 * Extracts a non-negative integer value for the parameter referenced
+	 * @param parameter
+	 * @param queryParams
+	 * @param defaultValue returned if the parameter is missing
+	 * @return
+	 * @throws AsyncInputConsumerException
+	 */
+	private static int extractNonNegativeInt(String parameter, Map<String, List<String>> queryParams, int defaultValue) throws AsyncInputConsumerException {
+		String tmp = extractSingleString(parameter, queryParams);
+		if(tmp == null || tmp.trim().isEmpty())
+			return defaultValue;
+		try {
+			int value = Integer.parseInt(tmp.trim());
+			if(value >= 0)
+				return value;
+		} catch(NumberFormatException e) {
+			// handled below
+		}
+		throw new AsyncInputConsumerException("Invalid value for parameter '" + parameter + "': " + tmp);
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	private static String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+	/**
+	 * @return the ringBufferSize
+	 */
+	public int getRingBufferSize() {
+		return ringBufferSize;
+	}
+
+	/**
+	 * @return the waitStrategyType
+	 */
+	public WaitStrategyType getWaitStrategyType() {
+		return waitStrategyType;
+	}
+
+	/**
+	 * @return the claimStrategyType
+	 */
+	public ClaimStrategyType getClaimStrategyType() {
+		return claimStrategyType;
+	}
+
+	/**
+	 * @return the payloadInitialSize
+	 */
+	public int getPayloadInitialSize() {
+		return payloadInitialSize;
+	}
+
+	/**
+	 * @return the payloadMaxSize
+	 */
+	public int getPayloadMaxSize() {
+		return payloadMaxSize;
+	}
+
+	/**
+	 * @return the payloadOverflowPolicy
+	 */
+	public PayloadOverflowPolicy getPayloadOverflowPolicy() {
+		return payloadOverflowPolicy;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "ringBuffer[size="+ringBufferSize+", waitStrategy="+waitStrategyType.getName()+", claimStrategy="+claimStrategyType.getName()+
+				", payloadInitialSize="+payloadInitialSize+", payloadMaxSize="+payloadMaxSize+", payloadOverflowPolicy="+payloadOverflowPolicy.name().toLowerCase()+"]";
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+
+/**
+ * Runs the {@link IPollingProcessor polling processors} of any number of consumers on a bounded set of threads.
+ * Each processor is assigned to the thread running the least processors and polled by it in turn with all others 
+ * assigned to that thread. A thread finding no work backs off by spinning, yielding and finally parking for up to 
+ * {@link #MAX_IDLE_PARK_NANOS}. The runtime shared by all consumers of the JVM is sized to the number of available 
+ * cores unless configured otherwise through the system property <i>ptest.jms.runtime.threads</i>. It is halted once
+ * the last consumer using it has released it
+ * @author mnxfst
+ * @since 25.03.2012
+ */
+public class ConsumerRuntime {
+
+	private static final Logger logger = Logger.getLogger(ConsumerRuntime.class.getName());
+	
+	public static final String SYSTEM_PROPERTY_THREADS = "ptest.jms.runtime.threads";
+	public static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private static final int IDLE_SPINS = 100;
+	private static final int IDLE_YIELDS = 100;
+	
+	private static ConsumerRuntime sharedRuntime = null;
+	
+	private final String name;
+	private final RuntimeThread[] threads;
+	private volatile boolean running = true;
+	/** number of consumers using the shared runtime, guarded by the class */
+	private int references = 0;
+	
+	/**
+	 * Thread polling its assigned processors in turn
+	 */
+	private class RuntimeThread extends Thread {
+		
+		private final List<IPollingProcessor> processors = new CopyOnWriteArrayList<IPollingProcessor>();
+		/** number of completed passes over the processors */
+		private volatile long passes = 0;
+		
+		private RuntimeThread(String threadName) {
+			super(threadName);
+			setDaemon(true);
+		}
+		
+		public void run() {
+			int idle = 0;
+			long parkNanos = 1;
+			while(running) {
+				int processed = 0;
+				for(IPollingProcessor processor : processors) {
+					try {
+						processed = processed + processor.poll();
+					} catch(Throwable e) {
+						// processors handle analyzer errors on their own, thus this is a bug which must not stop the others 
+						logger.error("runtime[name="+name+"]: processor " + processor + " failed. Error: " + e.getMessage(), e);
+					}
+				}
+				passes++;
+				
+				if(processed > 0) {
+					idle = 0;
+					parkNanos = 1;
+				} else if(idle < IDLE_SPINS) {
+					idle++;
+				} else if(idle < IDLE_SPINS + IDLE_YIELDS) {
+					idle++;
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(parkNanos);
+					parkNanos = Math.min(parkNanos * 2, MAX_IDLE_PARK_NANOS);
+				}
+			}
+		}
+		
+		/**
+		 * Waits until the thread has completed a full pass started after the call
+		 */
+		private void awaitPass() {
+			long target = passes + 2;
+			while(isAlive() && passes < target) {
+				LockSupport.unpark(this);
+				LockSupport.parkNanos(MAX_IDLE_PARK_NANOS / 10);
+			}
+		}
+	}
+	
+	/**
+	 * Starts a runtime of the given number of threads
+	 * @param name prefix of the thread names
+	 * @param numberOfThreads
+	 */
+	public ConsumerRuntime(String name, int numberOfThreads) {
+		if(numberOfThreads < 1)
+			throw new IllegalArgumentException("Invalid number of runtime threads: " + numberOfThreads);
+		this.name = name;
+		this.threads = new RuntimeThread[numberOfThreads];
+		for(int i = 0; i < numberOfThreads; i++) {
+			threads[i] = new RuntimeThread(name + "-" + i);
+			threads[i].start();
+		}
+		logger.info("runtime[name="+name+", threads="+numberOfThreads+"] started");
+	}
+	
+	/**
+	 * Returns the runtime shared by all consumers of the JVM, starts it if necessary. Each call must be followed
+	 * by a call to {@link #release(long)} once the consumer is done with the runtime
+	 * @return
+	 * @throws AsyncInputConsumerException if the configured number of threads is invalid
+	 */
+	public static synchronized ConsumerRuntime getSharedRuntime() throws AsyncInputConsumerException {
+		if(sharedRuntime == null || !sharedRuntime.running) {
+			int numberOfThreads = Runtime.getRuntime().availableProcessors();
+			String tmp = System.getProperty(SYSTEM_PROPERTY_THREADS);
+			if(tmp != null && !tmp.trim().isEmpty()) {
+				try {
+					numberOfThreads = Integer.parseInt(tmp.trim());
+				} catch(NumberFormatException e) {
+					throw new AsyncInputConsumerException("Invalid number of runtime threads: " + tmp);
+				}
+				if(numberOfThreads < 1)
+					throw new AsyncInputConsumerException("Invalid number of runtime threads: " + numberOfThreads);
+			}
+			sharedRuntime = new ConsumerRuntime("jms-consumer-runtime", numberOfThreads);
+		}
+		sharedRuntime.references++;
+		return sharedRuntime;
+	}
+	
+	/**
+	 * Releases a runtime obtained through {@link #getSharedRuntime()}. The runtime is halted once released by all
+	 * consumers, the next consumer starts a new one
+	 * @param timeoutMillis time granted to each thread for finishing its pass
+	 */
+	public void release(long timeoutMillis) {
+		synchronized(ConsumerRuntime.class) {
+			if(--references > 0)
+				return;
+			if(sharedRuntime == this)
+				sharedRuntime = null;
+		}
+		halt(timeoutMillis);
+	}
+	
+	/**
+	 * Assigns the given processors to the runtime threads. Each processor is assigned to the thread running the least 
+	 * processors at that time
+	 * @param processors
+	 */
+	public synchronized void register(List<? extends IPollingProcessor> processors) {
+		if(!running)
+			throw new IllegalStateException("Runtime " + name + " already halted");
+		for(IPollingProcessor processor : processors) {
+			RuntimeThread target = threads[0];
+			for(RuntimeThread thread : threads)
+				if(thread.processors.size() < target.processors.size())
+					target = thread;
+			target.processors.add(processor);
+		}
+	}
+	
+	/**
+	 * Removes the given processors from the runtime. On return none of them is being polled anymore
+	 * @param processors
+	 */
+	public synchronized void unregister(List<? extends IPollingProcessor> processors) {
+		List<RuntimeThread> affected = new ArrayList<RuntimeThread>();
+		for(RuntimeThread thread : threads)
+			if(thread.processors.removeAll(processors))
+				affected.add(thread);
+		for(RuntimeThread thread : affected)
+			thread.awaitPass();
+	}
+	
+	/**
+	 * Stops all runtime threads after their current pass
+	 * @param timeoutMillis time granted to each thread for finishing its pass
+	 */
+	public void halt(long timeoutMillis) {
+		running = false;
+		for(RuntimeThread thread : threads) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(timeoutMillis);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		logger.info("runtime[name="+name+"] halted");
+	}
+	
+	/**
+	 * Returns the number of processors currently registered
+	 * @return
+	 */
+	public int getNumberOfProcessors() {
+		int count = 0;
+		for(RuntimeThread thread : threads)
+			count = count + thread.processors.size();
+		return count;
+	}
+	
+	/**
+	 * @return number of runtime threads
+	 */
+	public int getNumberOfThreads() {
+		return threads.length;
+	}
+	
+	public String toString() {
+		return "runtime[name="+name+", threads="+threads.length+", processors="+getNumberOfProcessors()+"]";
+	}
+	
+}
@@ -0,0 +1,36 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.runtime;
+
+/**
+ * Common interface to all event processors run by a {@link ConsumerRuntime}. Instead of occupying a thread of
+ * its own, a polling processor handles the events available at the time it is polled and returns immediately. 
+ * A processor is polled by a single thread at a time
+ * @author mnxfst
+ * @since 25.03.2012
+ */
+public interface IPollingProcessor {
+
+	/**
+	 * Processes the events available without waiting for further ones
+	 * @return number of events processed
+	 */
+	public int poll();
+	
+}
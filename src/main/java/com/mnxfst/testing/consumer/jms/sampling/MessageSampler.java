@@ -0,0 +1,248 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.sampling;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.Util;
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+
+/**
+ * Decides which received messages are published for analysis when the consumer is meant to keep up with the broker
+ * rather than to analyze every single payload. Skipped messages are counted but never copied into the ring buffer.
+ * Supported modes:
+ * <ul>
+ *   <li><i>nth</i>: every <i>samplingInterval</i>th message</li>
+ *   <li><i>random</i>: each message with probability <i>samplingRate</i></li>
+ *   <li><i>adaptive</i>: all messages while the ring buffer occupancy stays below <i>samplingThreshold</i>, above
+ *   the rate decreases linearly down to <i>samplingMinRate</i> at a full ring buffer</li>
+ * </ul>
+ * Sampled events carry the inverse of the rate they were sampled with as weight, thus results may be extrapolated.
+ * Decisions are derived from a shared counter by a mixing function instead of a synchronized random generator, 
+ * thus the sampler may be used by all receiving threads concurrently
+ * @author mnxfst
+ * @since 20.03.2012
+ */
+public class MessageSampler {
+
+	public static final String REQUEST_PARAMETER_SAMPLING = "sampling";
+	public static final String REQUEST_PARAMETER_SAMPLING_INTERVAL = "samplingInterval";
+	public static final String REQUEST_PARAMETER_SAMPLING_RATE = "samplingRate";
+	public static final String REQUEST_PARAMETER_SAMPLING_THRESHOLD = "samplingThreshold";
+	public static final String REQUEST_PARAMETER_SAMPLING_MIN_RATE = "samplingMinRate";
+
+	public static final double DEFAULT_SAMPLING_THRESHOLD = 0.5;
+	public static final double DEFAULT_SAMPLING_MIN_RATE = 0.01;
+
+	/** 2^-53, converts the upper 53 bits of a long into a double within [0, 1) */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	/**
+	 * Supported sampling modes
+	 */
+	public enum SamplingMode {
+		NTH("nth"), RANDOM("random"), ADAPTIVE("adaptive");
+
+		private final String name;
+
+		private SamplingMode(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private final SamplingMode mode;
+	private final int interval;
+	private final double rate;
+	private final double threshold;
+	private final double minRate;
+	private final AtomicLong counter = new AtomicLong(0);
+
+	private Sequencer ringBuffer = null;
+	private Sequence[] trailingSequences = null;
+
+	private MessageSampler(SamplingMode mode, int interval, double rate, double threshold, double minRate) {
+		this.mode = mode;
+		this.interval = interval;
+		this.rate = rate;
+		this.threshold = threshold;
+		this.minRate = minRate;
+	}
+
+	/**
+	 * Reads the sampling settings from the provided properties
+	 * @param properties
+	 * @return null if sampling is not enabled
+	 * @throws AsyncInputConsumerException
+	 */
+	public static MessageSampler fromProperties(Map<String, List<String>> properties) throws AsyncInputConsumerException {
+
+		String tmp = extractSingleString(REQUEST_PARAMETER_SAMPLING, properties);
+		if(tmp == null || tmp.trim().isEmpty() || tmp.trim().equalsIgnoreCase("none"))
+			return null;
+
+		SamplingMode mode = null;
+		for(SamplingMode m : SamplingMode.values())
+			if(m.getName().equalsIgnoreCase(tmp.trim()))
+				mode = m;
+		if(mode == null)
+			throw new AsyncInputConsumerException("Unsupported sampling mode: " + tmp + ". Supported: none, nth, random, adaptive");
+
+		switch(mode) {
+			case NTH: {
+				tmp = extractSingleString(REQUEST_PARAMETER_SAMPLING_INTERVAL, properties);
+				if(tmp == null || tmp.trim().isEmpty())
+					throw new AsyncInputConsumerException("Missing required sampling interval");
+				int interval = 0;
+				try {
+					interval = Integer.parseInt(tmp.trim());
+				} catch(NumberFormatException e) {
+					throw new AsyncInputConsumerException("Invalid sampling interval: " + tmp);
+				}
+				if(interval < 1)
+					throw new AsyncInputConsumerException("Invalid sampling interval: " + interval);
+				return new MessageSampler(mode, interval, 1.0 / interval, 0, 0);
+			}
+			case RANDOM: {
+				tmp = extractSingleString(REQUEST_PARAMETER_SAMPLING_RATE, properties);
+				if(tmp == null || tmp.trim().isEmpty())
+					throw new AsyncInputConsumerException("Missing required sampling rate");
+				double rate = parseFraction(REQUEST_PARAMETER_SAMPLING_RATE, tmp);
+				if(rate <= 0)
+					throw new AsyncInputConsumerException("Invalid sampling rate: " + rate);
+				return new MessageSampler(mode, 0, rate, 0, 0);
+			}
+			default: {
+				double threshold = DEFAULT_SAMPLING_THRESHOLD;
+				tmp = extractSingleString(REQUEST_PARAMETER_SAMPLING_THRESHOLD, properties);
+				if(tmp != null && !tmp.trim().isEmpty())
+					threshold = parseFraction(REQUEST_PARAMETER_SAMPLING_THRESHOLD, tmp);
+				if(threshold >= 1)
+					throw new AsyncInputConsumerException("Invalid sampling threshold: " + threshold);
+				double minRate = DEFAULT_SAMPLING_MIN_RATE;
+				tmp = extractSingleString(REQUEST_PARAMETER_SAMPLING_MIN_RATE, properties);
+				if(tmp != null && !tmp.trim().isEmpty())
+					minRate = parseFraction(REQUEST_PARAMETER_SAMPLING_MIN_RATE, tmp);
+				if(minRate <= 0)
+					throw new AsyncInputConsumerException("Invalid minimum sampling rate: " + minRate);
+				return new MessageSampler(mode, 0, 1, threshold, minRate);
+			}
+		}
+	}
+
+	/**
+	 * Provides the ring buffer the adaptive mode derives its rate from. Must be called before the first message arrives
+	 * @param ringBuffer
+	 * @param trailingSequences sequences of the final pipeline stage
+	 */
+	public void setRingBuffer(Sequencer ringBuffer, Sequence[] trailingSequences) {
+		this.ringBuffer = ringBuffer;
+		this.trailingSequences = trailingSequences;
+	}
+
+	/**
+	 * Returns the current sampling rate within (0, 1]
+	 * @return
+	 */
+	public double getRate() {
+		if(mode != SamplingMode.ADAPTIVE || ringBuffer == null)
+			return rate;
+
+		int bufferSize = ringBuffer.getBufferSize();
+		double occupancy = (double)Math.max(0, ringBuffer.getCursor() - Util.getMinimumSequence(trailingSequences)) / bufferSize;
+		if(occupancy <= threshold)
+			return 1;
+		double fill = Math.min(1, (occupancy - threshold) / (1 - threshold));
+		return 1 - fill * (1 - minRate);
+	}
+
+	/**
+	 * Decides whether the next message is to be published
+	 * @param rate as returned by {@link #getRate()}
+	 * @return
+	 */
+	public boolean sample(double rate) {
+		long count = counter.getAndIncrement();
+		if(mode == SamplingMode.NTH)
+			return count % interval == 0;
+		if(rate >= 1)
+			return true;
+		return (mix(count) >>> 11) * DOUBLE_UNIT < rate;
+	}
+
+	/**
+	 * Spreads the bits of consecutive counter values evenly (splitmix64 finalizer)
+	 * @param value
+	 * @return
+	 */
+	private static long mix(long value) {
+		long z = value * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static double parseFraction(String parameter, String value) throws AsyncInputConsumerException {
+		double fraction = 0;
+		try {
+			fraction = Double.parseDouble(value.trim());
+		} catch(NumberFormatException e) {
+			throw new AsyncInputConsumerException("Invalid value for parameter '" + parameter + "': " + value);
+		}
+		if(fraction < 0 || fraction > 1)
+			throw new AsyncInputConsumerException("Invalid value for parameter '" + parameter + "': " + value + ". Must be within [0, 1]");
+		return fraction;
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected static String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+	public SamplingMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		switch(mode) {
+			case NTH:
+				return "sampling[mode=" + mode.getName() + ", interval=" + interval + "]";
+			case RANDOM:
+				return "sampling[mode=" + mode.getName() + ", rate=" + rate + "]";
+			default:
+				return "sampling[mode=" + mode.getName() + ", threshold=" + threshold + ", minRate=" + minRate + "]";
+		}
+	}
+
+}
@@ -0,0 +1,304 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.shard;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+
+/**
+ * Generates the message selector assigning a share of a destination to one of several consumer nodes. Producers
+ * attach a numeric property to each message, each node receives <i>shardCount</i> and its own <i>shardIndex</i> 
+ * and selects the messages of its shard only. Two strategies are supported:
+ * <ul>
+ *   <li><i>modulo</i>: the property holds a bucket number in [0, shardBuckets). Node i selects the buckets b
+ *   with b % shardCount == i through equality clauses as selectors provide no portable modulo operator. Keep 
+ *   the number of buckets small, eg. equal to the shard count</li>
+ *   <li><i>range</i>: the range [shardRangeMin, shardRangeMax) - by default the full int range, which fits 
+ *   properties holding a 32 bit hash - is split into contiguous slices of equal size. The first and the last
+ *   shard are open-ended, thus values outside the range are still consumed</li>
+ * </ul>
+ * Messages lacking the property are not selected by any shard. The generated selector is combined with a 
+ * hand-written one and applies to queues as well as topic subscriptions
+ * @author mnxfst
+ * @since 19.03.2012
+ */
+public class ShardSelector {
+
+	public static final String REQUEST_PARAMETER_SHARD_COUNT = "shardCount";
+	public static final String REQUEST_PARAMETER_SHARD_INDEX = "shardIndex";
+	public static final String REQUEST_PARAMETER_SHARD_PROPERTY = "shardProperty";
+	public static final String REQUEST_PARAMETER_SHARD_STRATEGY = "shardStrategy";
+	public static final String REQUEST_PARAMETER_SHARD_BUCKETS = "shardBuckets";
+	public static final String REQUEST_PARAMETER_SHARD_RANGE_MIN = "shardRangeMin";
+	public static final String REQUEST_PARAMETER_SHARD_RANGE_MAX = "shardRangeMax";
+
+	/** upper bound for the equality clauses of a single modulo selector */
+	public static final int MAX_MODULO_CLAUSES = 256;
+
+	/** words which must not be used as property names within selectors */
+	private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+			"NULL", "TRUE", "FALSE", "NOT", "AND", "OR", "BETWEEN", "LIKE", "IN", "IS", "ESCAPE"));
+
+	/**
+	 * Supported sharding strategies
+	 */
+	public enum ShardStrategy {
+		MODULO("modulo"), RANGE("range");
+
+		private final String name;
+
+		private ShardStrategy(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private final String property;
+	private final int shardCount;
+	private final int shardIndex;
+	private final ShardStrategy strategy;
+	private final int buckets;
+	private final long rangeMin;
+	private final long rangeMax;
+
+	/**
+	 * Initializes a modulo based shard selector
+	 * @param property
+	 * @param shardCount
+	 * @param shardIndex
+	 * @param buckets number of distinct bucket values the producers assign
+	 */
+	public ShardSelector(String property, int shardCount, int shardIndex, int buckets) {
+		this(property, shardCount, shardIndex, ShardStrategy.MODULO, buckets, 0, 0);
+	}
+
+	/**
+	 * Initializes a range based shard selector
+	 * @param property
+	 * @param shardCount
+	 * @param shardIndex
+	 * @param rangeMin inclusive
+	 * @param rangeMax exclusive
+	 */
+	public ShardSelector(String property, int shardCount, int shardIndex, long rangeMin, long rangeMax) {
+		this(property, shardCount, shardIndex, ShardStrategy.RANGE, 0, rangeMin, rangeMax);
+	}
+
+	private ShardSelector(String property, int shardCount, int shardIndex, ShardStrategy strategy, int buckets, long rangeMin, long rangeMax) {
+		this.property = property;
+		this.shardCount = shardCount;
+		this.shardIndex = shardIndex;
+		this.strategy = strategy;
+		this.buckets = buckets;
+		this.rangeMin = rangeMin;
+		this.rangeMax = rangeMax;
+	}
+
+	/**
+	 * Reads the sharding settings from the provided properties
+	 * @param properties
+	 * @return null if no shard count is configured
+	 * @throws AsyncInputConsumerException
+	 */
+	public static ShardSelector fromProperties(Map<String, List<String>> properties) throws AsyncInputConsumerException {
+
+		String tmp = extractSingleString(REQUEST_PARAMETER_SHARD_COUNT, properties);
+		if(tmp == null || tmp.trim().isEmpty())
+			return null;
+		int shardCount = parseInt(REQUEST_PARAMETER_SHARD_COUNT, tmp);
+		if(shardCount < 1)
+			throw new AsyncInputConsumerException("Invalid shard count: " + shardCount);
+
+		tmp = extractSingleString(REQUEST_PARAMETER_SHARD_INDEX, properties);
+		if(tmp == null || tmp.trim().isEmpty())
+			throw new AsyncInputConsumerException("Missing required shard index");
+		int shardIndex = parseInt(REQUEST_PARAMETER_SHARD_INDEX, tmp);
+		if(shardIndex < 0 || shardIndex >= shardCount)
+			throw new AsyncInputConsumerException("Invalid shard index: " + shardIndex + ". The index must be within [0, " + shardCount + ")");
+
+		String property = extractSingleString(REQUEST_PARAMETER_SHARD_PROPERTY, properties);
+		if(property == null || property.trim().isEmpty())
+			throw new AsyncInputConsumerException("Missing required shard property");
+		property = property.trim();
+		if(!isValidIdentifier(property))
+			throw new AsyncInputConsumerException("Invalid shard property: " + property + ". The name must be a valid selector identifier");
+
+		ShardStrategy strategy = ShardStrategy.RANGE;
+		tmp = extractSingleString(REQUEST_PARAMETER_SHARD_STRATEGY, properties);
+		if(tmp != null && !tmp.trim().isEmpty()) {
+			strategy = null;
+			for(ShardStrategy s : ShardStrategy.values())
+				if(s.getName().equalsIgnoreCase(tmp.trim()))
+					strategy = s;
+			if(strategy == null)
+				throw new AsyncInputConsumerException("Unsupported shard strategy: " + tmp);
+		}
+
+		if(strategy == ShardStrategy.MODULO) {
+			int buckets = shardCount;
+			tmp = extractSingleString(REQUEST_PARAMETER_SHARD_BUCKETS, properties);
+			if(tmp != null && !tmp.trim().isEmpty())
+				buckets = parseInt(REQUEST_PARAMETER_SHARD_BUCKETS, tmp);
+			if(buckets < shardCount)
+				throw new AsyncInputConsumerException("Invalid number of shard buckets: " + buckets + ". At least one bucket per shard is required");
+			if((buckets + shardCount - 1) / shardCount > MAX_MODULO_CLAUSES)
+				throw new AsyncInputConsumerException("Too many shard buckets: " + buckets + ". At most " + MAX_MODULO_CLAUSES + " buckets per shard are supported");
+			return new ShardSelector(property, shardCount, shardIndex, buckets);
+		}
+
+		long rangeMin = Integer.MIN_VALUE;
+		long rangeMax = (long)Integer.MAX_VALUE + 1;
+		tmp = extractSingleString(REQUEST_PARAMETER_SHARD_RANGE_MIN, properties);
+		if(tmp != null && !tmp.trim().isEmpty())
+			rangeMin = parseLong(REQUEST_PARAMETER_SHARD_RANGE_MIN, tmp);
+		tmp = extractSingleString(REQUEST_PARAMETER_SHARD_RANGE_MAX, properties);
+		if(tmp != null && !tmp.trim().isEmpty())
+			rangeMax = parseLong(REQUEST_PARAMETER_SHARD_RANGE_MAX, tmp);
+		// the second condition catches overflows of the range width
+		if(rangeMax <= rangeMin || rangeMax - rangeMin <= 0)
+			throw new AsyncInputConsumerException("Invalid shard range: [" + rangeMin + ", " + rangeMax + ")");
+		if(rangeMax - rangeMin < shardCount)
+			throw new AsyncInputConsumerException("Shard range [" + rangeMin + ", " + rangeMax + ") is too small for " + shardCount + " shards");
+		return new ShardSelector(property, shardCount, shardIndex, rangeMin, rangeMax);
+	}
+
+	/**
+	 * Returns the selector choosing the messages of the configured shard
+	 * @return
+	 */
+	public String toSelector() {
+
+		StringBuilder selector = new StringBuilder();
+		if(strategy == ShardStrategy.MODULO) {
+			for(int bucket = shardIndex; bucket < buckets; bucket += shardCount) {
+				if(selector.length() > 0)
+					selector.append(" OR ");
+				selector.append(property).append(" = ").append(bucket);
+			}
+			return selector.toString();
+		}
+
+		long lower = getRangeLowerBound(shardIndex);
+		long upper = getRangeLowerBound(shardIndex + 1);
+		if(shardIndex > 0)
+			selector.append(property).append(" >= ").append(lower);
+		if(shardIndex < shardCount - 1) {
+			if(selector.length() > 0)
+				selector.append(" AND ");
+			selector.append(property).append(" < ").append(upper);
+		}
+		// a single shard selects all messages carrying the property
+		if(selector.length() == 0)
+			selector.append(property).append(" IS NOT NULL");
+		return selector.toString();
+	}
+
+	/**
+	 * Combines the shard selector with an additional, hand-written selector
+	 * @param messageSelector may be null
+	 * @return
+	 */
+	public String combine(String messageSelector) {
+		if(messageSelector == null || messageSelector.trim().isEmpty())
+			return toSelector();
+		return "(" + toSelector() + ") AND (" + messageSelector + ")";
+	}
+
+	/**
+	 * Returns the inclusive lower bound of the referenced shard's slice. Slices differ by one in size at most
+	 * @param shard
+	 * @return
+	 */
+	private long getRangeLowerBound(int shard) {
+		long width = rangeMax - rangeMin;
+		return rangeMin + (width / shardCount) * shard + Math.min(shard, width % shardCount);
+	}
+
+	/**
+	 * Checks whether the name may be used as identifier within a selector
+	 * @param name
+	 * @return
+	 */
+	protected static boolean isValidIdentifier(String name) {
+		if(name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0)))
+			return false;
+		for(int i = 1; i < name.length(); i++)
+			if(!Character.isJavaIdentifierPart(name.charAt(i)))
+				return false;
+		return !RESERVED_WORDS.contains(name.toUpperCase()) && !name.startsWith("JMS");
+	}
+
+	private static int parseInt(String parameter, String value) throws AsyncInputConsumerException {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch(NumberFormatException e) {
+			throw new AsyncInputConsumerException("Invalid value for parameter '" + parameter + "': " + value);
+		}
+	}
+
+	private static long parseLong(String parameter, String value) throws AsyncInputConsumerException {
+		try {
+			return Long.parseLong(value.trim());
+		} catch(NumberFormatException e) {
+			throw new AsyncInputConsumerException("Invalid value for parameter '" + parameter + "': " + value);
+		}
+	}
+
+	/**
+	 * Extracts a single value for the parameter referenced
+	 * @param values
+	 * @return
+	 */
+	protected static String extractSingleString(String parameter, Map<String, List<String>> queryParams) {
+		List<String> values = queryParams.get(parameter);
+		return (values != null && !values.isEmpty()) ? values.get(0) : null;
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	public ShardStrategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "shard[index=" + shardIndex + ", count=" + shardCount + ", strategy=" + strategy.getName() + ", selector=(" + toSelector() + ")]";
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Growable bit set for non-negative long indexes. Bits are kept in chunks of 64k bits (8 KB) which are 
+ * allocated on first use and looked up by their index, thus sparse or distant ranges only occupy memory where 
+ * bits are set. The chunk accessed last is cached as consecutive indexes mostly hit the same chunk. Not thread-safe
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class ChunkedBitSet {
+
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int WORDS_PER_CHUNK = CHUNK_SIZE >>> 6;
+	/** approximate number of bytes occupied by a map entry referencing a chunk */
+	private static final int CHUNK_ENTRY_OVERHEAD = 64;
+	
+	private final TreeMap<Long, long[]> chunks = new TreeMap<Long, long[]>();
+	private long lastChunkIndex = -1;
+	private long[] lastChunk = null;
+	private long cardinality = 0;
+	
+	/**
+	 * Sets the referenced bit
+	 * @param index
+	 * @return false if the bit was set already
+	 */
+	public boolean set(long index) {
+		if(index < 0)
+			throw new IndexOutOfBoundsException("Index out of range: " + index);
+		
+		long chunkIndex = index >>> CHUNK_BITS;
+		long[] chunk = getChunk(chunkIndex);
+		if(chunk == null) {
+			chunk = new long[WORDS_PER_CHUNK];
+			chunks.put(chunkIndex, chunk);
+			lastChunkIndex = chunkIndex;
+			lastChunk = chunk;
+		}
+		
+		int bit = (int)(index & (CHUNK_SIZE - 1));
+		long mask = 1L << (bit & 63);
+		if((chunk[bit >>> 6] & mask) != 0)
+			return false;
+		chunk[bit >>> 6] |= mask;
+		cardinality++;
+		return true;
+	}
+	
+	/**
+	 * Returns true if the referenced bit is set
+	 * @param index
+	 * @return
+	 */
+	public boolean get(long index) {
+		if(index < 0)
+			return false;
+		long[] chunk = getChunk(index >>> CHUNK_BITS);
+		if(chunk == null)
+			return false;
+		int bit = (int)(index & (CHUNK_SIZE - 1));
+		return (chunk[bit >>> 6] & (1L << (bit & 63))) != 0;
+	}
+	
+	/**
+	 * Returns the index of the next clear bit at or after the given index
+	 * @param from
+	 * @return
+	 */
+	public long nextClearBit(long from) {
+		long index = Math.max(0, from);
+		while(true) {
+			long chunkIndex = index >>> CHUNK_BITS;
+			long[] chunk = getChunk(chunkIndex);
+			if(chunk == null)
+				return index;
+			int bit = (int)(index & (CHUNK_SIZE - 1));
+			int word = bit >>> 6;
+			long inverted = ~chunk[word] & (-1L << (bit & 63));
+			while(inverted == 0 && ++word < WORDS_PER_CHUNK)
+				inverted = ~chunk[word];
+			if(inverted != 0)
+				return (chunkIndex << CHUNK_BITS) + (word << 6) + Long.numberOfTrailingZeros(inverted);
+			index = (chunkIndex + 1) << CHUNK_BITS;
+		}
+	}
+	
+	/**
+	 * Returns the index of the next set bit at or after the given index, -1 if there is none 
+	 * @param from
+	 * @return
+	 */
+	public long nextSetBit(long from) {
+		long index = Math.max(0, from);
+		Map.Entry<Long, long[]> entry;
+		while((entry = chunks.ceilingEntry(index >>> CHUNK_BITS)) != null) {
+			long chunkIndex = entry.getKey();
+			long[] chunk = entry.getValue();
+			// skip the gap up to the next allocated chunk
+			int bit = (chunkIndex == (index >>> CHUNK_BITS) ? (int)(index & (CHUNK_SIZE - 1)) : 0);
+			int word = bit >>> 6;
+			long bits = chunk[word] & (-1L << (bit & 63));
+			while(bits == 0 && ++word < WORDS_PER_CHUNK)
+				bits = chunk[word];
+			if(bits != 0)
+				return (chunkIndex << CHUNK_BITS) + (word << 6) + Long.numberOfTrailingZeros(bits);
+			index = (chunkIndex + 1) << CHUNK_BITS;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the number of set bits
+	 * @return
+	 */
+	public long cardinality() {
+		return cardinality;
+	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the allocated chunks
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return (long)chunks.size() * (WORDS_PER_CHUNK * 8 + CHUNK_ENTRY_OVERHEAD);
+	}
+	
+	/**
+	 * Returns the referenced chunk, null if not allocated
+	 * @param chunkIndex
+	 * @return
+	 */
+	private long[] getChunk(long chunkIndex) {
+		if(chunkIndex == lastChunkIndex)
+			return lastChunk;
+		long[] chunk = chunks.get(chunkIndex);
+		if(chunk != null) {
+			lastChunkIndex = chunkIndex;
+			lastChunk = chunk;
+		}
+		return chunk;
+	}
+	
+}
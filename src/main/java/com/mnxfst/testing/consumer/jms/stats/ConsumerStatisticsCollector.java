@@ -0,0 +1,291 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Sequencer;
+import com.mnxfst.testing.consumer.jms.destination.DestinationRegistry;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+import com.mnxfst.testing.consumer.jms.sampling.MessageSampler;
+
+/**
+ * Collects the statistics of a consumer while it is running. Counters are lock-free and may be updated by any
+ * number of listener threads, snapshots may be taken at any time without interrupting the consumption. If a
+ * {@link DestinationRegistry} is set, messages received and analyzed are counted per destination as well. Besides
+ * the events analyzed, the sums of their sample weights are kept as estimate of the messages they stand for
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class ConsumerStatisticsCollector {
+
+	/** sample weights are summed up in fixed point with the given number of units per message */
+	private static final long WEIGHT_SCALE = 1000;
+
+	private final AtomicLong messagesReceived = new AtomicLong(0);
+	private final AtomicLong messagesPublished = new AtomicLong(0);
+	private final AtomicLong messagesSkipped = new AtomicLong(0);
+	private final AtomicLong messagesAnalyzed = new AtomicLong(0);
+	private final AtomicLong validMessages = new AtomicLong(0);
+	private final AtomicLong invalidMessages = new AtomicLong(0);
+	private final AtomicLong estimatedMessagesAnalyzed = new AtomicLong(0);
+	private final AtomicLong estimatedValidMessages = new AtomicLong(0);
+	private final AtomicLong estimatedInvalidMessages = new AtomicLong(0);
+	private final AtomicLong flowControlPauses = new AtomicLong(0);
+	private final AtomicLong flowControlPausedNanos = new AtomicLong(0);
+	private volatile boolean flowControlPaused = false;
+	/** nanos between receiving a message and passing the last analyzer */
+	private final LatencyHistogram processingLatency = new LatencyHistogram();
+	private final DeliveryLatencyRegistry deliveryLatencyRegistry = new DeliveryLatencyRegistry();
+	
+	private final Sequencer ringBuffer;
+	private volatile MessageSampler messageSampler = null;
+	private volatile DestinationCounters destinationCounters = null;
+	/** sequence of the final pipeline stage, trails all analyzers */
+	private volatile Sequence trailingSequence = null;
+	
+	/**
+	 * Counters indexed by the destinations of a {@link DestinationRegistry}
+	 */
+	private static class DestinationCounters {
+		
+		private final DestinationRegistry registry;
+		private final AtomicLongArray messagesReceived;
+		private final AtomicLongArray messagesAnalyzed;
+		private final AtomicLongArray validMessages;
+		private final AtomicLongArray invalidMessages;
+		private final AtomicLongArray estimatedMessagesAnalyzed;
+		private final AtomicLongArray estimatedValidMessages;
+		private final AtomicLongArray estimatedInvalidMessages;
+		
+		private DestinationCounters(DestinationRegistry registry) {
+			this.registry = registry;
+			this.messagesReceived = new AtomicLongArray(registry.getMaxDestinations());
+			this.messagesAnalyzed = new AtomicLongArray(registry.getMaxDestinations());
+			this.validMessages = new AtomicLongArray(registry.getMaxDestinations());
+			this.invalidMessages = new AtomicLongArray(registry.getMaxDestinations());
+			this.estimatedMessagesAnalyzed = new AtomicLongArray(registry.getMaxDestinations());
+			this.estimatedValidMessages = new AtomicLongArray(registry.getMaxDestinations());
+			this.estimatedInvalidMessages = new AtomicLongArray(registry.getMaxDestinations());
+		}
+	}
+	
+	public ConsumerStatisticsCollector(Sequencer ringBuffer) {
+		this.ringBuffer = ringBuffer;
+	}
+
+	public void incrementMessagesReceived() {
+		messagesReceived.incrementAndGet();
+	}
+
+	public void incrementMessagesPublished() {
+		messagesPublished.incrementAndGet();
+	}
+
+	public void addMessagesReceived(int count) {
+		messagesReceived.addAndGet(count);
+	}
+
+	public void addMessagesPublished(int count) {
+		messagesPublished.addAndGet(count);
+	}
+
+	public void incrementMessagesSkipped() {
+		messagesSkipped.incrementAndGet();
+	}
+
+	public void addMessagesSkipped(int count) {
+		messagesSkipped.addAndGet(count);
+	}
+
+	/**
+	 * Counts messages received from the referenced destination, ignored unless a destination registry is set
+	 * @param destinationIndex
+	 * @param count
+	 */
+	public void addDestinationMessagesReceived(int destinationIndex, int count) {
+		DestinationCounters counters = destinationCounters;
+		if(counters != null)
+			counters.messagesReceived.addAndGet(destinationIndex, count);
+	}
+
+	/**
+	 * Counts a pause of delivery
+	 */
+	public void flowControlPaused() {
+		flowControlPauses.incrementAndGet();
+		flowControlPaused = true;
+	}
+	
+	/**
+	 * Records the end of a pause of delivery
+	 * @param pausedNanos duration of the pause
+	 */
+	public void flowControlResumed(long pausedNanos) {
+		flowControlPausedNanos.addAndGet(pausedNanos);
+		flowControlPaused = false;
+	}
+
+	/**
+	 * Counts an event which passed all analyzers
+	 * @param validity result of the analysis, {@link JMSMessageEvent#VALIDITY_UNSET} if the event has not been marked by any analyzer
+	 * @param sampleWeight number of received messages the event stands for
+	 * @param processingNanos time between receiving the message and completing its analysis
+	 * @param destinationIndex index of the destination the message has been received from
+	 */
+	public void messageAnalyzed(byte validity, double sampleWeight, long processingNanos, int destinationIndex) {
+		long weight = Math.round(sampleWeight * WEIGHT_SCALE);
+		messagesAnalyzed.incrementAndGet();
+		estimatedMessagesAnalyzed.addAndGet(weight);
+		if(validity == JMSMessageEvent.VALIDITY_VALID) {
+			validMessages.incrementAndGet();
+			estimatedValidMessages.addAndGet(weight);
+		} else if(validity == JMSMessageEvent.VALIDITY_INVALID) {
+			invalidMessages.incrementAndGet();
+			estimatedInvalidMessages.addAndGet(weight);
+		}
+		processingLatency.record(processingNanos);
+		
+		DestinationCounters counters = destinationCounters;
+		if(counters != null) {
+			counters.messagesAnalyzed.incrementAndGet(destinationIndex);
+			counters.estimatedMessagesAnalyzed.addAndGet(destinationIndex, weight);
+			if(validity == JMSMessageEvent.VALIDITY_VALID) {
+				counters.validMessages.incrementAndGet(destinationIndex);
+				counters.estimatedValidMessages.addAndGet(destinationIndex, weight);
+			} else if(validity == JMSMessageEvent.VALIDITY_INVALID) {
+				counters.invalidMessages.incrementAndGet(destinationIndex);
+				counters.estimatedInvalidMessages.addAndGet(destinationIndex, weight);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the sequence of the final pipeline stage used for computing the ring buffer occupancy
+	 * @param trailingSequence
+	 */
+	public void setTrailingSequence(Sequence trailingSequence) {
+		this.trailingSequence = trailingSequence;
+	}
+
+	/**
+	 * Sets the sampler the current sampling rate is read from
+	 * @param messageSampler
+	 */
+	public void setMessageSampler(MessageSampler messageSampler) {
+		this.messageSampler = messageSampler;
+	}
+
+	/**
+	 * Sets the registry of the destinations statistics are kept for
+	 * @param destinationRegistry
+	 */
+	public void setDestinationRegistry(DestinationRegistry destinationRegistry) {
+		this.destinationCounters = new DestinationCounters(destinationRegistry);
+	}
+
+	/**
+	 * Discards the processing and delivery latencies recorded so far, eg. after warming up. Counters are kept
+	 */
+	public void resetLatencies() {
+		processingLatency.reset();
+		deliveryLatencyRegistry.reset();
+	}
+
+	/**
+	 * Returns the delivery latency histograms of this consumer
+	 * @return
+	 */
+	public DeliveryLatencyRegistry getDeliveryLatencyRegistry() {
+		return deliveryLatencyRegistry;
+	}
+
+	/**
+	 * Returns the current statistics
+	 * @return
+	 */
+	public JMSConsumerStatistics snapshot() {
+		JMSConsumerStatistics stats = new JMSConsumerStatistics();
+		stats.setTimestamp(System.currentTimeMillis());
+		stats.setMessagesReceived(messagesReceived.get());
+		stats.setMessagesPublished(messagesPublished.get());
+		stats.setMessagesAnalyzed(messagesAnalyzed.get());
+		MessageSampler sampler = messageSampler;
+		if(sampler != null) {
+			stats.setMessagesSkipped(messagesSkipped.get());
+			stats.setSamplingMode(sampler.getMode().getName());
+			stats.setSamplingRate(sampler.getRate());
+		}
+		stats.setValidMessages(validMessages.get());
+		stats.setInvalidMessages(invalidMessages.get());
+		stats.setEstimatedMessagesAnalyzed(toMessages(estimatedMessagesAnalyzed.get()));
+		stats.setEstimatedValidMessages(toMessages(estimatedValidMessages.get()));
+		stats.setEstimatedInvalidMessages(toMessages(estimatedInvalidMessages.get()));
+		stats.setRingBufferSize(ringBuffer.getBufferSize());
+		
+		Sequence trailing = trailingSequence;
+		if(trailing != null)
+			stats.setRingBufferOccupancy(Math.max(0, ringBuffer.getCursor() - trailing.get()));
+		
+		stats.setFlowControlPaused(flowControlPaused);
+		stats.setFlowControlPauses(flowControlPauses.get());
+		stats.setFlowControlPausedMillis(TimeUnit.NANOSECONDS.toMillis(flowControlPausedNanos.get()));
+		
+		stats.setProcessingLatencyMean(TimeUnit.NANOSECONDS.toMicros((long)processingLatency.getMean()));
+		stats.setProcessingLatencyP50(TimeUnit.NANOSECONDS.toMicros(processingLatency.getValueAtPercentile(50)));
+		stats.setProcessingLatencyP90(TimeUnit.NANOSECONDS.toMicros(processingLatency.getValueAtPercentile(90)));
+		stats.setProcessingLatencyP99(TimeUnit.NANOSECONDS.toMicros(processingLatency.getValueAtPercentile(99)));
+		stats.setProcessingLatencyP999(TimeUnit.NANOSECONDS.toMicros(processingLatency.getValueAtPercentile(99.9)));
+		stats.setProcessingLatencyMax(TimeUnit.NANOSECONDS.toMicros(processingLatency.getMax()));
+		stats.setDeliveryLatencies(deliveryLatencyRegistry.getSummaries());
+		
+		DestinationCounters counters = destinationCounters;
+		if(counters != null) {
+			Map<String, DestinationStatistics> destinations = new TreeMap<String, DestinationStatistics>();
+			for(int i = 0; i < counters.registry.size(); i++) {
+				DestinationStatistics destination = new DestinationStatistics();
+				destination.setMessagesReceived(counters.messagesReceived.get(i));
+				destination.setMessagesAnalyzed(counters.messagesAnalyzed.get(i));
+				destination.setValidMessages(counters.validMessages.get(i));
+				destination.setInvalidMessages(counters.invalidMessages.get(i));
+				destination.setEstimatedMessagesAnalyzed(toMessages(counters.estimatedMessagesAnalyzed.get(i)));
+				destination.setEstimatedValidMessages(toMessages(counters.estimatedValidMessages.get(i)));
+				destination.setEstimatedInvalidMessages(toMessages(counters.estimatedInvalidMessages.get(i)));
+				destinations.put(counters.registry.getName(i), destination);
+			}
+			stats.setDestinations(destinations);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Converts a sum of scaled sample weights into a number of messages
+	 * @param weight
+	 * @return
+	 */
+	private static long toMessages(long weight) {
+		return (weight + WEIGHT_SCALE / 2) / WEIGHT_SCALE;
+	}
+	
+}
@@ -0,0 +1,148 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery latency histograms (in microseconds) per node and measuring point. Each consumer owns a registry
+ * through its {@link ConsumerStatisticsCollector}, thus the histograms live as long as the consumer and analyzers
+ * of the same consumer reporting for the same node and measuring point aggregate into them. Each entry tracks the hops producer to broker, broker to consumer and producer to consumer. As
+ * the timestamps originate from different hosts, the results depend on their clocks being synchronized 
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class DeliveryLatencyRegistry {
+
+	public static final String HOP_PRODUCER_TO_BROKER = "producerToBroker";
+	public static final String HOP_BROKER_TO_CONSUMER = "brokerToConsumer";
+	public static final String HOP_PRODUCER_TO_CONSUMER = "producerToConsumer";
+	
+	private final ConcurrentMap<String, DeliveryLatencies> registry = new ConcurrentHashMap<String, DeliveryLatencies>();
+	
+	/**
+	 * Histograms of a single node and measuring point
+	 */
+	public static class DeliveryLatencies {
+		
+		private final LatencyHistogram producerToBroker = new LatencyHistogram();
+		private final LatencyHistogram brokerToConsumer = new LatencyHistogram();
+		private final LatencyHistogram producerToConsumer = new LatencyHistogram();
+
+		/**
+		 * Records the latencies of a single message. Hops with a missing timestamp are skipped
+		 * @param producerMicros time the message was sent at in microseconds since epoch, 0 if unknown
+		 * @param brokerInMillis time the message arrived at the broker in milliseconds since epoch, 0 if unknown
+		 * @param receivedMicros time the message was received at in microseconds since epoch
+		 */
+		public void record(long producerMicros, long brokerInMillis, long receivedMicros) {
+			if(producerMicros > 0)
+				producerToConsumer.record(receivedMicros - producerMicros);
+			if(brokerInMillis > 0) {
+				brokerToConsumer.record(receivedMicros - brokerInMillis * 1000);
+				if(producerMicros > 0)
+					producerToBroker.record(brokerInMillis * 1000 - producerMicros);
+			}
+		}
+
+		/**
+		 * Discards the latencies recorded so far
+		 */
+		public void reset() {
+			producerToBroker.reset();
+			brokerToConsumer.reset();
+			producerToConsumer.reset();
+		}
+
+		/**
+		 * @return the producerToBroker
+		 */
+		public LatencyHistogram getProducerToBroker() {
+			return producerToBroker;
+		}
+
+		/**
+		 * @return the brokerToConsumer
+		 */
+		public LatencyHistogram getBrokerToConsumer() {
+			return brokerToConsumer;
+		}
+
+		/**
+		 * @return the producerToConsumer
+		 */
+		public LatencyHistogram getProducerToConsumer() {
+			return producerToConsumer;
+		}
+	}
+	
+	/**
+	 * Returns the histograms of the given node and measuring point, creates them if necessary
+	 * @param nodeId
+	 * @param measuringPointId
+	 * @return
+	 */
+	public DeliveryLatencies getDeliveryLatencies(String nodeId, String measuringPointId) {
+		String key = nodeId + "/" + measuringPointId;
+		DeliveryLatencies latencies = registry.get(key);
+		if(latencies == null) {
+			latencies = new DeliveryLatencies();
+			DeliveryLatencies existing = registry.putIfAbsent(key, latencies);
+			if(existing != null)
+				latencies = existing;
+		}
+		return latencies;
+	}
+	
+	/**
+	 * Summarizes all registered histograms. The keys are built as <i>&lt;nodeId&gt;/&lt;measuringPointId&gt;/&lt;hop&gt;</i>,
+	 * values are provided in microseconds
+	 * @return
+	 */
+	public Map<String, LatencySummary> getSummaries() {
+		Map<String, LatencySummary> summaries = new TreeMap<String, LatencySummary>();
+		for(Map.Entry<String, DeliveryLatencies> entry : registry.entrySet()) {
+			DeliveryLatencies latencies = entry.getValue();
+			summaries.put(entry.getKey() + "/" + HOP_PRODUCER_TO_BROKER, LatencySummary.summarize(latencies.getProducerToBroker(), TimeUnit.MICROSECONDS, TimeUnit.MICROSECONDS));
+			summaries.put(entry.getKey() + "/" + HOP_BROKER_TO_CONSUMER, LatencySummary.summarize(latencies.getBrokerToConsumer(), TimeUnit.MICROSECONDS, TimeUnit.MICROSECONDS));
+			summaries.put(entry.getKey() + "/" + HOP_PRODUCER_TO_CONSUMER, LatencySummary.summarize(latencies.getProducerToConsumer(), TimeUnit.MICROSECONDS, TimeUnit.MICROSECONDS));
+		}
+		return summaries;
+	}
+	
+	/**
+	 * Discards the latencies recorded so far while keeping the histograms referenced by the analyzers
+	 */
+	public void reset() {
+		for(DeliveryLatencies latencies : registry.values())
+			latencies.reset();
+	}
+	
+	/**
+	 * Drops all histograms
+	 */
+	public void clear() {
+		registry.clear();
+	}
+	
+}
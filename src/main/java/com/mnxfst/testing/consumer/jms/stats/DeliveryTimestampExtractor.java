@@ -0,0 +1,114 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+import org.apache.log4j.Logger;
+
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+
+/**
+ * Copies the delivery timestamps of a message into the event: the JMSTimestamp, an optional timestamp property set
+ * by the producer and - for ActiveMQ - the time the message arrived at the broker. The producer property takes 
+ * precedence over the JMSTimestamp as it may provide a higher resolution
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class DeliveryTimestampExtractor {
+
+	private static final Logger logger = Logger.getLogger(DeliveryTimestampExtractor.class.getName());
+	
+	private static final boolean ACTIVEMQ_AVAILABLE = isClassAvailable("org.apache.activemq.command.ActiveMQMessage");
+	
+	/** name of the producer timestamp property, null if not provided */
+	private final String producerTimestampProperty;
+	private final TimeUnit producerTimestampUnit;
+	
+	public DeliveryTimestampExtractor(String producerTimestampProperty, TimeUnit producerTimestampUnit) {
+		this.producerTimestampProperty = producerTimestampProperty;
+		this.producerTimestampUnit = producerTimestampUnit;
+	}
+	
+	/**
+	 * Copies the timestamps of the message into the event
+	 * @param message
+	 * @param event
+	 * @throws JMSException
+	 */
+	public void extract(Message message, JMSMessageEvent event) throws JMSException {
+		
+		long jmsTimestamp = message.getJMSTimestamp();
+		event.setJmsTimestamp(jmsTimestamp);
+		
+		long producerMicros = jmsTimestamp * 1000;
+		if(producerTimestampProperty != null && message.propertyExists(producerTimestampProperty)) {
+			try {
+				producerMicros = producerTimestampUnit.toMicros(message.getLongProperty(producerTimestampProperty));
+			} catch(NumberFormatException e) {
+				if(logger.isDebugEnabled())
+					logger.debug("Invalid producer timestamp: " + message.getObjectProperty(producerTimestampProperty));
+			} catch(MessageFormatException e) {
+				if(logger.isDebugEnabled())
+					logger.debug("Invalid producer timestamp: " + message.getObjectProperty(producerTimestampProperty));
+			}
+		}
+		event.setProducerTimestamp(producerMicros);
+		event.setBrokerInTime(ACTIVEMQ_AVAILABLE ? ActiveMQTimestamps.getBrokerInTime(message) : 0);
+	}
+	
+	/**
+	 * Parses the unit of the producer timestamp property: ms, us or ns
+	 * @param unit
+	 * @return null if not supported
+	 */
+	public static TimeUnit parseTimeUnit(String unit) {
+		if(unit == null || unit.trim().isEmpty() || unit.trim().equalsIgnoreCase("ms"))
+			return TimeUnit.MILLISECONDS;
+		if(unit.trim().equalsIgnoreCase("us"))
+			return TimeUnit.MICROSECONDS;
+		if(unit.trim().equalsIgnoreCase("ns"))
+			return TimeUnit.NANOSECONDS;
+		return null;
+	}
+	
+	private static boolean isClassAvailable(String className) {
+		try {
+			Class.forName(className);
+			return true;
+		} catch(Throwable e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Keeps the ActiveMQ classes from being loaded unless they are available
+	 */
+	private static class ActiveMQTimestamps {
+		
+		static long getBrokerInTime(Message message) {
+			return (message instanceof org.apache.activemq.command.ActiveMQMessage) ? ((org.apache.activemq.command.ActiveMQMessage)message).getBrokerInTime() : 0;
+		}
+	}
+
+}
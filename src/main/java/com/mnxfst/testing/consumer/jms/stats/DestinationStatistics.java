@@ -0,0 +1,149 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.io.Serializable;
+
+/**
+ * Counters of a single destination at the time the statistics have been taken
+ * @author mnxfst
+ * @since 26.03.2012
+ */
+public class DestinationStatistics implements Serializable {
+
+	private static final long serialVersionUID = -2054177372712932641L;
+
+	private long messagesReceived = 0;
+	private long messagesAnalyzed = 0;
+	private long validMessages = 0;
+	private long invalidMessages = 0;
+	private long estimatedMessagesAnalyzed = 0;
+	private long estimatedValidMessages = 0;
+	private long estimatedInvalidMessages = 0;
+	
+	public DestinationStatistics() {		
+	}
+
+	/**
+	 * @return the messagesReceived
+	 */
+	public long getMessagesReceived() {
+		return messagesReceived;
+	}
+
+	/**
+	 * @param messagesReceived the messagesReceived to set
+	 */
+	public void setMessagesReceived(long messagesReceived) {
+		this.messagesReceived = messagesReceived;
+	}
+
+	/**
+	 * @return the messagesAnalyzed
+	 */
+	public long getMessagesAnalyzed() {
+		return messagesAnalyzed;
+	}
+
+	/**
+	 * @param messagesAnalyzed the messagesAnalyzed to set
+	 */
+	public void setMessagesAnalyzed(long messagesAnalyzed) {
+		this.messagesAnalyzed = messagesAnalyzed;
+	}
+
+	/**
+	 * @return the validMessages
+	 */
+	public long getValidMessages() {
+		return validMessages;
+	}
+
+	/**
+	 * @param validMessages the validMessages to set
+	 */
+	public void setValidMessages(long validMessages) {
+		this.validMessages = validMessages;
+	}
+
+	/**
+	 * @return the invalidMessages
+	 */
+	public long getInvalidMessages() {
+		return invalidMessages;
+	}
+
+	/**
+	 * @param invalidMessages the invalidMessages to set
+	 */
+	public void setInvalidMessages(long invalidMessages) {
+		this.invalidMessages = invalidMessages;
+	}
+	
+	/**
+	 * @return the estimatedMessagesAnalyzed
+	 */
+	public long getEstimatedMessagesAnalyzed() {
+		return estimatedMessagesAnalyzed;
+	}
+
+	/**
+	 * @param estimatedMessagesAnalyzed the estimatedMessagesAnalyzed to set
+	 */
+	public void setEstimatedMessagesAnalyzed(long estimatedMessagesAnalyzed) {
+		this.estimatedMessagesAnalyzed = estimatedMessagesAnalyzed;
+	}
+
+	/**
+	 * @return the estimatedValidMessages
+	 */
+	public long getEstimatedValidMessages() {
+		return estimatedValidMessages;
+	}
+
+	/**
+	 * @param estimatedValidMessages the estimatedValidMessages to set
+	 */
+	public void setEstimatedValidMessages(long estimatedValidMessages) {
+		this.estimatedValidMessages = estimatedValidMessages;
+	}
+
+	/**
+	 * @return the estimatedInvalidMessages
+	 */
+	public long getEstimatedInvalidMessages() {
+		return estimatedInvalidMessages;
+	}
+
+	/**
+	 * @param estimatedInvalidMessages the estimatedInvalidMessages to set
+	 */
+	public void setEstimatedInvalidMessages(long estimatedInvalidMessages) {
+		this.estimatedInvalidMessages = estimatedInvalidMessages;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "received=" + messagesReceived + ", analyzed=" + messagesAnalyzed + ", valid=" + validMessages + ", invalid=" + invalidMessages + 
+				", estimated[analyzed=" + estimatedMessagesAnalyzed + ", valid=" + estimatedValidMessages + ", invalid=" + estimatedInvalidMessages + "]";
+	}
+	
+}
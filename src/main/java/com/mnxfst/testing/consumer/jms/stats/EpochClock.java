@@ -0,0 +1,53 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+/**
+ * Provides wall clock time with microsecond resolution. The clock is anchored once to {@link System#currentTimeMillis()}
+ * and advanced by {@link System#nanoTime()}, thus it is monotonic but drifts from the system clock when that one 
+ * is adjusted. Precision is sufficient for comparing with timestamps taken by producers on other hosts
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public final class EpochClock {
+
+	private static final long ANCHOR_MICROS = System.currentTimeMillis() * 1000;
+	private static final long ANCHOR_NANOS = System.nanoTime();
+	
+	private EpochClock() {		
+	}
+	
+	/**
+	 * Returns the current time in microseconds since epoch
+	 * @return
+	 */
+	public static long currentTimeMicros() {
+		return toEpochMicros(System.nanoTime());
+	}
+	
+	/**
+	 * Converts a value taken from {@link System#nanoTime()} into microseconds since epoch
+	 * @param nanoTime
+	 * @return
+	 */
+	public static long toEpochMicros(long nanoTime) {
+		return ANCHOR_MICROS + (nanoTime - ANCHOR_NANOS) / 1000;
+	}
+	
+}
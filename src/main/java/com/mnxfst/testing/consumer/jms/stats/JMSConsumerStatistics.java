@@ -0,0 +1,428 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mnxfst.testing.consumer.async.AsyncInputConsumerStatistics;
+
+/**
+ * Snapshot of the statistics collected by the {@link ConsumerStatisticsCollector} 
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class JMSConsumerStatistics extends AsyncInputConsumerStatistics {
+
+	private static final long serialVersionUID = -3571929473520174235L;
+
+	private long timestamp = 0;
+	private long messagesReceived = 0;
+	private long messagesPublished = 0;
+	private long messagesSkipped = 0;
+	private String samplingMode = null;
+	private double samplingRate = 1;
+	private long messagesAnalyzed = 0;
+	private long validMessages = 0;
+	private long invalidMessages = 0;
+	private long estimatedMessagesAnalyzed = 0;
+	private long estimatedValidMessages = 0;
+	private long estimatedInvalidMessages = 0;
+	private long ringBufferSize = 0;
+	private long ringBufferOccupancy = 0;
+	private boolean flowControlPaused = false;
+	private long flowControlPauses = 0;
+	private long flowControlPausedMillis = 0;
+	private long processingLatencyMean = 0;
+	private long processingLatencyP50 = 0;
+	private long processingLatencyP90 = 0;
+	private long processingLatencyP99 = 0;
+	private long processingLatencyP999 = 0;
+	private long processingLatencyMax = 0;
+
+	/** delivery latencies in microseconds, see {@link DeliveryLatencyRegistry#getSummaries()} */
+	private Map<String, LatencySummary> deliveryLatencies = new HashMap<String, LatencySummary>();
+	/** counters by destination name */
+	private Map<String, DestinationStatistics> destinations = new HashMap<String, DestinationStatistics>();
+
+	public JMSConsumerStatistics() {		
+	}
+
+	/**
+	 * @return time the snapshot was taken at
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @param timestamp the timestamp to set
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return number of messages delivered to the consumer
+	 */
+	public long getMessagesReceived() {
+		return messagesReceived;
+	}
+
+	/**
+	 * @param messagesReceived the messagesReceived to set
+	 */
+	public void setMessagesReceived(long messagesReceived) {
+		this.messagesReceived = messagesReceived;
+	}
+
+	/**
+	 * @return number of events published into the ring buffer
+	 */
+	public long getMessagesPublished() {
+		return messagesPublished;
+	}
+
+	/**
+	 * @param messagesPublished the messagesPublished to set
+	 */
+	public void setMessagesPublished(long messagesPublished) {
+		this.messagesPublished = messagesPublished;
+	}
+
+	/**
+	 * @return number of supported messages skipped by the sampling
+	 */
+	public long getMessagesSkipped() {
+		return messagesSkipped;
+	}
+
+	/**
+	 * @param messagesSkipped the messagesSkipped to set
+	 */
+	public void setMessagesSkipped(long messagesSkipped) {
+		this.messagesSkipped = messagesSkipped;
+	}
+
+	/**
+	 * @return sampling mode, null if all messages are analyzed
+	 */
+	public String getSamplingMode() {
+		return samplingMode;
+	}
+
+	/**
+	 * @param samplingMode the samplingMode to set
+	 */
+	public void setSamplingMode(String samplingMode) {
+		this.samplingMode = samplingMode;
+	}
+
+	/**
+	 * @return sampling rate at the time of the snapshot. The overall rate for extrapolating results is 
+	 * published / (published + skipped)
+	 */
+	public double getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * @param samplingRate the samplingRate to set
+	 */
+	public void setSamplingRate(double samplingRate) {
+		this.samplingRate = samplingRate;
+	}
+
+	/**
+	 * @return number of events passed through all analyzers
+	 */
+	public long getMessagesAnalyzed() {
+		return messagesAnalyzed;
+	}
+
+	/**
+	 * @param messagesAnalyzed the messagesAnalyzed to set
+	 */
+	public void setMessagesAnalyzed(long messagesAnalyzed) {
+		this.messagesAnalyzed = messagesAnalyzed;
+	}
+
+	/**
+	 * @return number of events marked as valid by the analyzers
+	 */
+	public long getValidMessages() {
+		return validMessages;
+	}
+
+	/**
+	 * @param validMessages the validMessages to set
+	 */
+	public void setValidMessages(long validMessages) {
+		this.validMessages = validMessages;
+	}
+
+	/**
+	 * @return number of events marked as invalid by the analyzers
+	 */
+	public long getInvalidMessages() {
+		return invalidMessages;
+	}
+
+	/**
+	 * @param invalidMessages the invalidMessages to set
+	 */
+	public void setInvalidMessages(long invalidMessages) {
+		this.invalidMessages = invalidMessages;
+	}
+
+	/**
+	 * @return number of received messages the analyzed events stand for, the sum of their sample weights
+	 */
+	public long getEstimatedMessagesAnalyzed() {
+		return estimatedMessagesAnalyzed;
+	}
+
+	/**
+	 * @param estimatedMessagesAnalyzed the estimatedMessagesAnalyzed to set
+	 */
+	public void setEstimatedMessagesAnalyzed(long estimatedMessagesAnalyzed) {
+		this.estimatedMessagesAnalyzed = estimatedMessagesAnalyzed;
+	}
+
+	/**
+	 * @return number of received messages the valid events stand for
+	 */
+	public long getEstimatedValidMessages() {
+		return estimatedValidMessages;
+	}
+
+	/**
+	 * @param estimatedValidMessages the estimatedValidMessages to set
+	 */
+	public void setEstimatedValidMessages(long estimatedValidMessages) {
+		this.estimatedValidMessages = estimatedValidMessages;
+	}
+
+	/**
+	 * @return number of received messages the invalid events stand for
+	 */
+	public long getEstimatedInvalidMessages() {
+		return estimatedInvalidMessages;
+	}
+
+	/**
+	 * @param estimatedInvalidMessages the estimatedInvalidMessages to set
+	 */
+	public void setEstimatedInvalidMessages(long estimatedInvalidMessages) {
+		this.estimatedInvalidMessages = estimatedInvalidMessages;
+	}
+
+	/**
+	 * @return capacity of the ring buffer
+	 */
+	public long getRingBufferSize() {
+		return ringBufferSize;
+	}
+
+	/**
+	 * @param ringBufferSize the ringBufferSize to set
+	 */
+	public void setRingBufferSize(long ringBufferSize) {
+		this.ringBufferSize = ringBufferSize;
+	}
+
+	/**
+	 * @return number of events published but not yet processed by all analyzers
+	 */
+	public long getRingBufferOccupancy() {
+		return ringBufferOccupancy;
+	}
+
+	/**
+	 * @param ringBufferOccupancy the ringBufferOccupancy to set
+	 */
+	public void setRingBufferOccupancy(long ringBufferOccupancy) {
+		this.ringBufferOccupancy = ringBufferOccupancy;
+	}
+
+	/**
+	 * @return true if delivery is currently paused by the flow control
+	 */
+	public boolean isFlowControlPaused() {
+		return flowControlPaused;
+	}
+
+	/**
+	 * @param flowControlPaused the flowControlPaused to set
+	 */
+	public void setFlowControlPaused(boolean flowControlPaused) {
+		this.flowControlPaused = flowControlPaused;
+	}
+
+	/**
+	 * @return number of times delivery has been paused by the flow control
+	 */
+	public long getFlowControlPauses() {
+		return flowControlPauses;
+	}
+
+	/**
+	 * @param flowControlPauses the flowControlPauses to set
+	 */
+	public void setFlowControlPauses(long flowControlPauses) {
+		this.flowControlPauses = flowControlPauses;
+	}
+
+	/**
+	 * @return total time in millis delivery has been paused by the flow control, excluding the current pause
+	 */
+	public long getFlowControlPausedMillis() {
+		return flowControlPausedMillis;
+	}
+
+	/**
+	 * @param flowControlPausedMillis the flowControlPausedMillis to set
+	 */
+	public void setFlowControlPausedMillis(long flowControlPausedMillis) {
+		this.flowControlPausedMillis = flowControlPausedMillis;
+	}
+
+	/**
+	 * @return mean time in microseconds between receiving a message and completing its analysis
+	 */
+	public long getProcessingLatencyMean() {
+		return processingLatencyMean;
+	}
+
+	/**
+	 * @param processingLatencyMean the processingLatencyMean to set
+	 */
+	public void setProcessingLatencyMean(long processingLatencyMean) {
+		this.processingLatencyMean = processingLatencyMean;
+	}
+
+	/**
+	 * @return median processing latency in microseconds
+	 */
+	public long getProcessingLatencyP50() {
+		return processingLatencyP50;
+	}
+
+	/**
+	 * @param processingLatencyP50 the processingLatencyP50 to set
+	 */
+	public void setProcessingLatencyP50(long processingLatencyP50) {
+		this.processingLatencyP50 = processingLatencyP50;
+	}
+
+	/**
+	 * @return 90th percentile of the processing latency in microseconds
+	 */
+	public long getProcessingLatencyP90() {
+		return processingLatencyP90;
+	}
+
+	/**
+	 * @param processingLatencyP90 the processingLatencyP90 to set
+	 */
+	public void setProcessingLatencyP90(long processingLatencyP90) {
+		this.processingLatencyP90 = processingLatencyP90;
+	}
+
+	/**
+	 * @return 99th percentile of the processing latency in microseconds
+	 */
+	public long getProcessingLatencyP99() {
+		return processingLatencyP99;
+	}
+
+	/**
+	 * @param processingLatencyP99 the processingLatencyP99 to set
+	 */
+	public void setProcessingLatencyP99(long processingLatencyP99) {
+		this.processingLatencyP99 = processingLatencyP99;
+	}
+
+	/**
+	 * @return 99.9th percentile of the processing latency in microseconds
+	 */
+	public long getProcessingLatencyP999() {
+		return processingLatencyP999;
+	}
+
+	/**
+	 * @param processingLatencyP999 the processingLatencyP999 to set
+	 */
+	public void setProcessingLatencyP999(long processingLatencyP999) {
+		this.processingLatencyP999 = processingLatencyP999;
+	}
+
+	/**
+	 * @return maximum processing latency in microseconds
+	 */
+	public long getProcessingLatencyMax() {
+		return processingLatencyMax;
+	}
+
+	/**
+	 * @param processingLatencyMax the processingLatencyMax to set
+	 */
+	public void setProcessingLatencyMax(long processingLatencyMax) {
+		this.processingLatencyMax = processingLatencyMax;
+	}
+
+	/**
+	 * @return the deliveryLatencies
+	 */
+	public Map<String, LatencySummary> getDeliveryLatencies() {
+		return deliveryLatencies;
+	}
+
+	/**
+	 * @param deliveryLatencies the deliveryLatencies to set
+	 */
+	public void setDeliveryLatencies(Map<String, LatencySummary> deliveryLatencies) {
+		this.deliveryLatencies = deliveryLatencies;
+	}
+
+	/**
+	 * @return the destinations
+	 */
+	public Map<String, DestinationStatistics> getDestinations() {
+		return destinations;
+	}
+
+	/**
+	 * @param destinations the destinations to set
+	 */
+	public void setDestinations(Map<String, DestinationStatistics> destinations) {
+		this.destinations = destinations;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "statistics[received="+messagesReceived+", published="+messagesPublished+(samplingMode != null ? ", skipped="+messagesSkipped+", sampling[mode="+samplingMode+", rate="+samplingRate+"]" : "")+", analyzed="+messagesAnalyzed+", valid="+validMessages+", invalid="+invalidMessages+
+				(samplingMode != null ? ", estimated[analyzed="+estimatedMessagesAnalyzed+", valid="+estimatedValidMessages+", invalid="+estimatedInvalidMessages+"]" : "")+
+				", ringBuffer="+ringBufferOccupancy+"/"+ringBufferSize+", flowControl[paused="+flowControlPaused+", pauses="+flowControlPauses+", pausedTime="+flowControlPausedMillis+"ms], latency[mean="+processingLatencyMean+"us, p50="+processingLatencyP50+"us, p90="+processingLatencyP90+"us, p99="+processingLatencyP99+
+				"us, p99.9="+processingLatencyP999+"us, max="+processingLatencyMax+"us], deliveryLatencies="+deliveryLatencies+", destinations="+destinations+"]";
+	}
+
+}
@@ -0,0 +1,159 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with a bounded relative error. Values are mapped onto log-linear
+ * buckets: each power of two is split into 2^subBucketBits linear sub-buckets, thus the reported values deviate
+ * by less than 1/2^subBucketBits (about 3% for the default of 5 bits) from the recorded ones. Recording and 
+ * reading may happen concurrently, readers see a consistent view per bucket only
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class LatencyHistogram {
+
+	public static final int DEFAULT_SUB_BUCKET_BITS = 5;
+	
+	private final int subBucketBits;
+	private final int subBucketCount;
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount = new AtomicLong(0);
+	private final AtomicLong totalSum = new AtomicLong(0);
+	private final AtomicLong maxValue = new AtomicLong(0);
+	
+	public LatencyHistogram() {
+		this(DEFAULT_SUB_BUCKET_BITS);
+	}
+	
+	public LatencyHistogram(int subBucketBits) {
+		if(subBucketBits < 1 || subBucketBits > 16)
+			throw new IllegalArgumentException("Invalid number of sub bucket bits: " + subBucketBits);
+		this.subBucketBits = subBucketBits;
+		this.subBucketCount = 1 << subBucketBits;
+		this.counts = new AtomicLongArray((64 - subBucketBits) * subBucketCount);
+	}
+	
+	/**
+	 * Records the given value, negative values are recorded as 0
+	 * @param value
+	 */
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		counts.incrementAndGet(bucketIndex(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+		
+		long max = maxValue.get();
+		while(value > max && !maxValue.compareAndSet(max, value))
+			max = maxValue.get();
+	}
+	
+	/**
+	 * Returns the bucket the value belongs to: values below the sub bucket count have buckets of their own, above
+	 * the width of a bucket doubles with each power of two 
+	 * @param value
+	 * @return
+	 */
+	private int bucketIndex(long value) {
+		if(value < subBucketCount)
+			return (int)value;
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - subBucketBits;
+		return ((shift + 1) << subBucketBits) + (int)((value >>> shift) - subBucketCount);
+	}
+	
+	/**
+	 * Returns the highest value mapped onto the referenced bucket
+	 * @param index
+	 * @return
+	 */
+	private long highestValue(int index) {
+		if(index < subBucketCount)
+			return index;
+		int shift = (index >> subBucketBits) - 1;
+		long top = subBucketCount + (index & (subBucketCount - 1));
+		return ((top + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Returns the value below or equal to which the given percentage of all recorded values fall
+	 * @param percentile eg. 99.9
+	 * @return 0 if no value has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for(int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total = total + snapshot[i];
+		}
+		if(total == 0)
+			return 0;
+		
+		long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+		long cumulative = 0;
+		for(int i = 0; i < snapshot.length; i++) {
+			cumulative = cumulative + snapshot[i];
+			if(cumulative >= target)
+				return Math.min(highestValue(i), maxValue.get());
+		}
+		return maxValue.get();
+	}
+	
+	/**
+	 * Returns the number of recorded values
+	 * @return
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+	
+	/**
+	 * Returns the highest recorded value
+	 * @return
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+	
+	/**
+	 * Returns the mean of all recorded values
+	 * @return
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return (count > 0 ? (double)totalSum.get() / count : 0);
+	}
+	
+	/**
+	 * Discards all recorded values. Values recorded concurrently may be partially kept
+	 */
+	public void reset() {
+		for(int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+	
+}
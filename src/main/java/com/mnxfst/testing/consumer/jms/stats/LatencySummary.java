@@ -0,0 +1,110 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Percentiles of a {@link LatencyHistogram} at the time the summary was taken
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class LatencySummary implements Serializable {
+
+	private static final long serialVersionUID = 6118250923464811512L;
+
+	private long count = 0;
+	private long mean = 0;
+	private long p50 = 0;
+	private long p99 = 0;
+	private long p999 = 0;
+	private long max = 0;
+	
+	public LatencySummary() {		
+	}
+	
+	/**
+	 * Summarizes the given histogram
+	 * @param histogram
+	 * @param unit unit of the recorded values
+	 * @param reportingUnit unit of the summary
+	 * @return
+	 */
+	public static LatencySummary summarize(LatencyHistogram histogram, TimeUnit unit, TimeUnit reportingUnit) {
+		LatencySummary summary = new LatencySummary();
+		summary.count = histogram.getCount();
+		summary.mean = reportingUnit.convert((long)histogram.getMean(), unit);
+		summary.p50 = reportingUnit.convert(histogram.getValueAtPercentile(50), unit);
+		summary.p99 = reportingUnit.convert(histogram.getValueAtPercentile(99), unit);
+		summary.p999 = reportingUnit.convert(histogram.getValueAtPercentile(99.9), unit);
+		summary.max = reportingUnit.convert(histogram.getMax(), unit);
+		return summary;
+	}
+
+	/**
+	 * @return the count
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean
+	 */
+	public long getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the median
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * @return the 99th percentile
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * @return the 99.9th percentile
+	 */
+	public long getP999() {
+		return p999;
+	}
+
+	/**
+	 * @return the max
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "[count="+count+", mean="+mean+", p50="+p50+", p99="+p99+", p99.9="+p999+", max="+max+"]";
+	}
+	
+}
@@ -0,0 +1,148 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map of long keys to long counters. Keys and counters are held in primitive arrays, thus
+ * counting does not allocate. The number of keys is bounded: as soon as the map is full, new keys are rejected.
+ * Clearing keeps the arrays for re-use. Not thread-safe
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class LongCounterMap {
+
+	private final long[] keys;
+	private final long[] counters;
+	private final boolean[] used;
+	private final int mask;
+	private final int maxSize;
+	private int size = 0;
+	
+	/**
+	 * Initializes the map
+	 * @param maxSize maximum number of keys
+	 */
+	public LongCounterMap(int maxSize) {
+		if(maxSize < 1)
+			throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+		// keep the load factor below 0.5
+		int capacity = Integer.highestOneBit(maxSize) << 2;
+		this.keys = new long[capacity];
+		this.counters = new long[capacity];
+		this.used = new boolean[capacity];
+		this.mask = capacity - 1;
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Adds the delta to the counter of the given key
+	 * @param key
+	 * @param delta
+	 * @return false if the key is new and the map is full
+	 */
+	public boolean add(long key, long delta) {
+		int slot = slot(key);
+		if(!used[slot]) {
+			if(size >= maxSize)
+				return false;
+			used[slot] = true;
+			keys[slot] = key;
+			counters[slot] = 0;
+			size++;
+		}
+		counters[slot] += delta;
+		return true;
+	}
+	
+	/**
+	 * Adds all counters of the other map
+	 * @param other
+	 * @return sum of the counters rejected as the map is full
+	 */
+	public long addAll(LongCounterMap other) {
+		long rejected = 0;
+		for(int i = 0; i < other.keys.length; i++)
+			if(other.used[i] && !add(other.keys[i], other.counters[i]))
+				rejected += other.counters[i];
+		return rejected;
+	}
+	
+	/**
+	 * Returns the counter of the given key, 0 if not contained
+	 * @param key
+	 * @return
+	 */
+	public long get(long key) {
+		int slot = slot(key);
+		return used[slot] ? counters[slot] : 0;
+	}
+	
+	/**
+	 * Returns the slot holding the key or the free slot the key belongs to 
+	 * @param key
+	 * @return
+	 */
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int)(h ^ (h >>> 32)) & mask;
+		while(used[slot] && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+	
+	/**
+	 * Removes all keys
+	 */
+	public void clear() {
+		if(size > 0) {
+			Arrays.fill(used, false);
+			size = 0;
+		}
+	}
+	
+	/**
+	 * Returns the number of slots, used for iterating: see {@link #isUsed(int)}, {@link #keyAt(int)} and {@link #counterAt(int)}
+	 * @return
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+	
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+	
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+	
+	public long counterAt(int slot) {
+		return counters[slot];
+	}
+	
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return size;
+	}
+	
+}
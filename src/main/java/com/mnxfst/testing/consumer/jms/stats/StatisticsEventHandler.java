@@ -0,0 +1,46 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import com.lmax.disruptor.EventHandler;
+import com.mnxfst.testing.consumer.jms.event.JMSMessageEvent;
+
+/**
+ * Final stage of the analyzer pipeline: sees each event after all analyzers have processed it and records
+ * the outcome with the {@link ConsumerStatisticsCollector}
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class StatisticsEventHandler implements EventHandler<JMSMessageEvent> {
+
+	private final ConsumerStatisticsCollector statisticsCollector;
+	
+	public StatisticsEventHandler(ConsumerStatisticsCollector statisticsCollector) {
+		this.statisticsCollector = statisticsCollector;
+	}
+	
+	/**
+	 * @see com.lmax.disruptor.EventHandler#onEvent(java.lang.Object, long, boolean)
+	 */
+	public void onEvent(JMSMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+		if(event.hasPayload())
+			statisticsCollector.messageAnalyzed(event.getValidity(), event.getSampleWeight(), System.nanoTime() - event.getReceivedNanos(), event.getDestinationIndex());
+	}
+
+}
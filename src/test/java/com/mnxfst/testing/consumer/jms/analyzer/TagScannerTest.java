@@ -0,0 +1,133 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link TagScanner}
+ * @author mnxfst
+ * @since 15.03.2012
+ */
+public class TagScannerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final String[] TAGS = new String[]{"pub:Id", "pub:domainSign", "pub:title", "pub:materialGroup"};
+	private static final String MESSAGE = "<pub:PublishProductRequest><pub:sourceParameter><pub:Id>1-2-3-4-5-6</pub:Id>" +
+			"<pub:domainSign> OTTO </pub:domainSign></pub:sourceParameter><pub:title>die lange Hose</pub:title>" +
+			"<pub:characteristicList><pub:value>f\u00e4llt klein aus</pub:value></pub:characteristicList>" +
+			"<pub:materialGroup>stoff</pub:materialGroup></pub:PublishProductRequest>";
+
+	@Test
+	public void testScanChars() {
+		TagScanner scanner = new TagScanner(TAGS);
+		assertTrue(scanner.scan(MESSAGE.toCharArray(), MESSAGE.length()));
+		assertEquals("1-2-3-4-5-6", value(scanner, 0, MESSAGE));
+		assertEquals(" OTTO ", value(scanner, 1, MESSAGE));
+		assertEquals("die lange Hose", value(scanner, 2, MESSAGE));
+		assertEquals("stoff", value(scanner, 3, MESSAGE));
+	}
+
+	@Test
+	public void testScanBytes() {
+		// the umlaut occupies two bytes, thus the offsets of the following tag differ from the char offsets
+		byte[] bytes = MESSAGE.getBytes(UTF8);
+		TagScanner scanner = new TagScanner(TAGS);
+		assertTrue(scanner.scan(bytes, bytes.length));
+		assertEquals("1-2-3-4-5-6", value(scanner, 0, bytes));
+		assertEquals("die lange Hose", value(scanner, 2, bytes));
+		assertEquals("stoff", value(scanner, 3, bytes));
+		assertEquals(MESSAGE.indexOf("stoff") + 1, scanner.getValueStart(3));
+	}
+
+	@Test
+	public void testRequiredValueIgnoresCaseAndWhitespace() {
+		TagScanner scanner = new TagScanner(TAGS);
+		scanner.setRequiredValue(1, "otto");
+		assertTrue(scanner.scan(MESSAGE.toCharArray(), MESSAGE.length()));
+		byte[] bytes = MESSAGE.getBytes(UTF8);
+		assertTrue(scanner.scan(bytes, bytes.length));
+	}
+
+	@Test
+	public void testRequiredValueMismatchStopsScanning() {
+		TagScanner scanner = new TagScanner(TAGS);
+		scanner.setRequiredValue(1, "other");
+		assertFalse(scanner.scan(MESSAGE.toCharArray(), MESSAGE.length()));
+		assertEquals("1-2-3-4-5-6", value(scanner, 0, MESSAGE));
+		// tags following the mismatching one are not looked for anymore
+		assertEquals(-1, scanner.getValueStart(2));
+		assertEquals(-1, scanner.getValueEnd(3));
+	}
+
+	@Test
+	public void testExtractAlwaysAfterMismatch() {
+		TagScanner scanner = new TagScanner(TAGS);
+		scanner.setRequiredValue(1, "other");
+		scanner.setExtractAlways(3);
+		byte[] bytes = MESSAGE.getBytes(UTF8);
+		assertFalse(scanner.scan(bytes, bytes.length));
+		assertEquals(-1, scanner.getValueStart(2));
+		assertEquals("stoff", value(scanner, 3, bytes));
+	}
+
+	@Test
+	public void testMissingAndEmptyTags() {
+		TagScanner scanner = new TagScanner(new String[]{"pub:Id", "pub:brand"});
+		assertFalse(scanner.scan(MESSAGE.toCharArray(), MESSAGE.length()));
+		assertEquals("1-2-3-4-5-6", value(scanner, 0, MESSAGE));
+		assertEquals(-1, scanner.getValueStart(1));
+		
+		String empty = "<a><pub:Id></pub:Id></a>";
+		assertFalse(scanner.scan(empty.toCharArray(), empty.length()));
+	}
+
+	@Test
+	public void testFirstOccurrenceWinsAndLengthIsRespected() {
+		String message = "<pub:Id>first</pub:Id><pub:Id>second</pub:Id>";
+		TagScanner scanner = new TagScanner(new String[]{"pub:Id"});
+		assertTrue(scanner.scan(message.toCharArray(), message.length()));
+		assertEquals("first", value(scanner, 0, message));
+		
+		// the closing tag lies beyond the valid length
+		assertFalse(scanner.scan(message.toCharArray(), message.indexOf("</pub:Id>")));
+		assertEquals(-1, scanner.getValueEnd(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyTagName() {
+		new TagScanner(new String[]{"pub:Id", ""});
+	}
+
+	private static String value(TagScanner scanner, int tag, String message) {
+		return message.substring(scanner.getValueStart(tag), scanner.getValueEnd(tag));
+	}
+
+	private static String value(TagScanner scanner, int tag, byte[] message) {
+		return new String(message, scanner.getValueStart(tag), scanner.getValueEnd(tag) - scanner.getValueStart(tag), UTF8);
+	}
+
+}
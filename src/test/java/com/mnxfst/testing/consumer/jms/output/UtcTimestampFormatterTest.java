@@ -0,0 +1,85 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.output;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link UtcTimestampFormatter}
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class UtcTimestampFormatterTest {
+
+	@Test
+	public void testFormat() {
+		UtcTimestampFormatter formatter = new UtcTimestampFormatter();
+		assertEquals("1970-01-01 00:00:00.000", format(formatter, 0));
+		assertEquals("2012-03-16 09:05:07.042", format(formatter, 1331888707042L));
+		assertEquals("2012-12-31 23:59:59.999", format(formatter, 1356998399999L));
+	}
+
+	@Test
+	public void testSecondPrefixRollover() {
+		UtcTimestampFormatter formatter = new UtcTimestampFormatter();
+		// within the cached second only the millis change, the next one renders a new prefix
+		assertEquals("2012-03-16 09:05:07.000", format(formatter, 1331888707000L));
+		assertEquals("2012-03-16 09:05:07.999", format(formatter, 1331888707999L));
+		assertEquals("2012-03-16 09:05:08.000", format(formatter, 1331888708000L));
+		// rolls over minute, hour, day and year at once
+		assertEquals("2012-12-31 23:59:59.999", format(formatter, 1356998399999L));
+		assertEquals("2013-01-01 00:00:00.000", format(formatter, 1356998400000L));
+		// going back in time must not reuse the cached prefix
+		assertEquals("2012-12-31 23:59:59.500", format(formatter, 1356998399500L));
+	}
+
+	@Test
+	public void testNegativeTimestamps() {
+		UtcTimestampFormatter formatter = new UtcTimestampFormatter();
+		assertEquals("1969-12-31 23:59:59.999", format(formatter, -1));
+		assertEquals("1969-12-31 23:59:59.000", format(formatter, -1000));
+		assertEquals("1969-12-31 23:59:58.999", format(formatter, -1001));
+	}
+
+	@Test
+	public void testMatchesSimpleDateFormat() {
+		SimpleDateFormat reference = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		reference.setTimeZone(TimeZone.getTimeZone("UTC"));
+		UtcTimestampFormatter formatter = new UtcTimestampFormatter();
+		for(long timestamp = 1331888700000L; timestamp < 1331888700000L + 5000; timestamp += 7)
+			assertEquals(reference.format(timestamp), format(formatter, timestamp));
+	}
+
+	@Test
+	public void testAppendsToBuffer() {
+		StringBuilder buffer = new StringBuilder("ts=");
+		new UtcTimestampFormatter().format(1331888707042L, buffer).append(';');
+		assertEquals("ts=2012-03-16 09:05:07.042;", buffer.toString());
+	}
+
+	private static String format(UtcTimestampFormatter formatter, long timestamp) {
+		return formatter.format(timestamp, new StringBuilder()).toString();
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.shard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mnxfst.testing.consumer.exception.AsyncInputConsumerException;
+
+/**
+ * Test case for {@link ShardSelector}
+ * @author mnxfst
+ * @since 19.03.2012
+ */
+public class ShardSelectorTest {
+
+	@Test
+	public void testRangeEdges() {
+		// 10 values split into 4, 3 and 3: the first and the last shard are open-ended
+		assertEquals("shard < 4", new ShardSelector("shard", 3, 0, 0, 10).toSelector());
+		assertEquals("shard >= 4 AND shard < 7", new ShardSelector("shard", 3, 1, 0, 10).toSelector());
+		assertEquals("shard >= 7", new ShardSelector("shard", 3, 2, 0, 10).toSelector());
+		// one value per shard
+		assertEquals("shard >= -1 AND shard < 0", new ShardSelector("shard", 3, 1, -2, 1).toSelector());
+	}
+
+	@Test
+	public void testDefaultRangeCoversIntValues() throws AsyncInputConsumerException {
+		assertEquals("shard < 0", ShardSelector.fromProperties(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "shard")).toSelector());
+		assertEquals("shard >= 0", ShardSelector.fromProperties(properties("shardCount", "2", "shardIndex", "1", "shardProperty", "shard")).toSelector());
+		assertEquals("shard >= -1073741824 AND shard < 0", ShardSelector.fromProperties(properties("shardCount", "4", "shardIndex", "1", "shardProperty", "shard")).toSelector());
+	}
+
+	@Test
+	public void testSingleShard() {
+		assertEquals("shard IS NOT NULL", new ShardSelector("shard", 1, 0, 0, 10).toSelector());
+		assertEquals("shard = 0", new ShardSelector("shard", 1, 0, 1).toSelector());
+	}
+
+	@Test
+	public void testModulo() {
+		assertEquals("bucket = 1 OR bucket = 4 OR bucket = 7", new ShardSelector("bucket", 3, 1, 8).toSelector());
+		assertEquals("bucket = 2 OR bucket = 5", new ShardSelector("bucket", 3, 2, 8).toSelector());
+		assertEquals("bucket = 0", new ShardSelector("bucket", 3, 0, 3).toSelector());
+	}
+
+	@Test
+	public void testCombine() {
+		ShardSelector selector = new ShardSelector("shard", 2, 1, 0, 10);
+		assertEquals("shard >= 5", selector.combine(null));
+		assertEquals("shard >= 5", selector.combine(" "));
+		assertEquals("(shard >= 5) AND (type = 'a')", selector.combine("type = 'a'"));
+	}
+
+	@Test
+	public void testFromProperties() throws AsyncInputConsumerException {
+		assertNull(ShardSelector.fromProperties(new HashMap<String, List<String>>()));
+		
+		ShardSelector selector = ShardSelector.fromProperties(properties("shardCount", "3", "shardIndex", "2", "shardProperty", " shard ", "shardStrategy", "MODULO", "shardBuckets", "6"));
+		assertEquals(ShardSelector.ShardStrategy.MODULO, selector.getStrategy());
+		assertEquals("shard", selector.getProperty());
+		assertEquals("shard = 2 OR shard = 5", selector.toSelector());
+		
+		selector = ShardSelector.fromProperties(properties("shardCount", "2", "shardIndex", "1", "shardProperty", "shard", "shardRangeMin", "-10", "shardRangeMax", "10"));
+		assertEquals(ShardSelector.ShardStrategy.RANGE, selector.getStrategy());
+		assertEquals("shard >= 0", selector.toSelector());
+	}
+
+	@Test
+	public void testInvalidProperties() {
+		assertInvalid(properties("shardCount", "0", "shardIndex", "0", "shardProperty", "shard"));
+		assertInvalid(properties("shardCount", "2", "shardProperty", "shard"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "2", "shardProperty", "shard"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "-1", "shardProperty", "shard"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "x", "shardProperty", "shard"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "1shard"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "and"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "JMSXGroupSeq"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "shard", "shardStrategy", "hash"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "shard", "shardStrategy", "modulo", "shardBuckets", "1"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "shard", "shardStrategy", "modulo", "shardBuckets", "1000"));
+		// empty, too small and overflowing ranges
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "shard", "shardRangeMin", "5", "shardRangeMax", "5"));
+		assertInvalid(properties("shardCount", "3", "shardIndex", "0", "shardProperty", "shard", "shardRangeMin", "0", "shardRangeMax", "2"));
+		assertInvalid(properties("shardCount", "2", "shardIndex", "0", "shardProperty", "shard", "shardRangeMin", String.valueOf(Long.MIN_VALUE), "shardRangeMax", String.valueOf(Long.MAX_VALUE)));
+	}
+
+	private static void assertInvalid(Map<String, List<String>> properties) {
+		try {
+			ShardSelector.fromProperties(properties);
+			fail("Invalid properties accepted: " + properties);
+		} catch(AsyncInputConsumerException e) {
+			// expected
+		}
+	}
+
+	private static Map<String, List<String>> properties(String... keysAndValues) {
+		Map<String, List<String>> properties = new HashMap<String, List<String>>();
+		for(int i = 0; i < keysAndValues.length; i += 2) {
+			List<String> values = new ArrayList<String>();
+			values.add(keysAndValues[i + 1]);
+			properties.put(keysAndValues[i], values);
+		}
+		return properties;
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link ChunkedBitSet}
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class ChunkedBitSetTest {
+
+	/** number of bits per chunk */
+	private static final long CHUNK = 1 << 16;
+
+	@Test
+	public void testSetAndGet() {
+		ChunkedBitSet bits = new ChunkedBitSet();
+		assertFalse(bits.get(0));
+		assertTrue(bits.set(0));
+		assertFalse(bits.set(0));
+		assertTrue(bits.set(63));
+		assertTrue(bits.set(64));
+		assertTrue(bits.get(0));
+		assertTrue(bits.get(63));
+		assertTrue(bits.get(64));
+		assertFalse(bits.get(1));
+		assertFalse(bits.get(-1));
+		assertEquals(3, bits.cardinality());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testNegativeIndex() {
+		new ChunkedBitSet().set(-1);
+	}
+
+	@Test
+	public void testNextClearBitAcrossChunks() {
+		ChunkedBitSet bits = new ChunkedBitSet();
+		assertEquals(0, bits.nextClearBit(-5));
+		// fill the first chunk completely, the next clear bit is the first one of the following chunk
+		for(long i = 0; i < CHUNK; i++)
+			bits.set(i);
+		assertEquals(CHUNK, bits.nextClearBit(0));
+		assertEquals(CHUNK, bits.nextClearBit(CHUNK - 1));
+		// continue into an allocated chunk whose first bits are set as well
+		bits.set(CHUNK);
+		bits.set(CHUNK + 1);
+		assertEquals(CHUNK + 2, bits.nextClearBit(0));
+		// word boundary within a chunk
+		for(long i = CHUNK + 2; i < CHUNK + 64; i++)
+			bits.set(i);
+		assertEquals(CHUNK + 64, bits.nextClearBit(CHUNK));
+	}
+
+	@Test
+	public void testNextSetBitAcrossChunks() {
+		ChunkedBitSet bits = new ChunkedBitSet();
+		assertEquals(-1, bits.nextSetBit(0));
+		bits.set(CHUNK - 1);
+		bits.set(CHUNK);
+		bits.set(5 * CHUNK + 3);
+		assertEquals(CHUNK - 1, bits.nextSetBit(0));
+		assertEquals(CHUNK, bits.nextSetBit(CHUNK));
+		// skips the unallocated chunks in between
+		assertEquals(5 * CHUNK + 3, bits.nextSetBit(CHUNK + 1));
+		assertEquals(5 * CHUNK + 3, bits.nextSetBit(5 * CHUNK));
+		assertEquals(-1, bits.nextSetBit(5 * CHUNK + 4));
+		// an allocated chunk without bits at or after the index
+		assertEquals(-1, bits.nextSetBit(6 * CHUNK - 1));
+	}
+
+	@Test
+	public void testGapsAcrossChunkBoundary() {
+		// walks the gaps the way the request id gap detector does
+		ChunkedBitSet bits = new ChunkedBitSet();
+		for(long i = CHUNK - 10; i < CHUNK + 10; i++)
+			if(i != CHUNK - 1 && i != CHUNK)
+				bits.set(i);
+		long from = bits.nextClearBit(CHUNK - 10);
+		assertEquals(CHUNK - 1, from);
+		long to = bits.nextSetBit(from) - 1;
+		assertEquals(CHUNK, to);
+		assertEquals(CHUNK + 10, bits.nextClearBit(to + 1));
+	}
+
+	@Test
+	public void testDistantIndexes() {
+		// distant indexes occupy a single chunk each
+		ChunkedBitSet bits = new ChunkedBitSet();
+		bits.set(3);
+		long memory = bits.getMemoryUsage();
+		bits.set(1L << 40);
+		bits.set(Long.MAX_VALUE - 1);
+		assertEquals(3 * memory, bits.getMemoryUsage());
+		assertEquals(1L << 40, bits.nextSetBit(4));
+		assertEquals((1L << 40) + 1, bits.nextClearBit(1L << 40));
+		assertEquals(Long.MAX_VALUE - 1, bits.nextSetBit((1L << 40) + 1));
+		assertTrue(bits.get(1L << 40));
+		assertEquals(3, bits.cardinality());
+	}
+
+}
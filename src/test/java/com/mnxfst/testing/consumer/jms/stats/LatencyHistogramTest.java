@@ -0,0 +1,122 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link LatencyHistogram}
+ * @author mnxfst
+ * @since 16.03.2012
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(0.0, histogram.getMean(), 0.0);
+	}
+
+	@Test
+	public void testSmallValuesAreExact() {
+		// values below the sub bucket count (32) and within the first power of two above have buckets of their own
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long value = 0; value < 64; value++) {
+			histogram.record(value);
+			histogram.record(1000000);
+			assertEquals(value, histogram.getValueAtPercentile(0.0001));
+			histogram.reset();
+		}
+	}
+
+	@Test
+	public void testBucketBoundaries() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 64 and 65 share a bucket of width 2 which reports its highest value unless the max is lower 
+		histogram.record(64);
+		assertEquals(64, histogram.getValueAtPercentile(100));
+		histogram.record(65);
+		histogram.record(1000);
+		assertEquals(65, histogram.getValueAtPercentile(50));
+		
+		histogram.reset();
+		histogram.record(66);
+		histogram.record(1000);
+		assertEquals(67, histogram.getValueAtPercentile(50));
+		
+		// 128 starts a power of two with buckets of width 4
+		histogram.reset();
+		histogram.record(127);
+		histogram.record(128);
+		histogram.record(1000);
+		assertEquals(127, histogram.getValueAtPercentile(33));
+		assertEquals(131, histogram.getValueAtPercentile(66));
+	}
+
+	@Test
+	public void testRelativeError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			histogram.reset();
+			histogram.record(value);
+			histogram.record(Long.MAX_VALUE);
+			long reported = histogram.getValueAtPercentile(50);
+			assertTrue("value " + value + " reported as " + reported, reported >= value && reported - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long value = 1; value <= 100; value++)
+			histogram.record(value);
+		assertEquals(100, histogram.getCount());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0.0001);
+		assertEquals(1, histogram.getValueAtPercentile(0));
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals(91, histogram.getValueAtPercentile(90));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		// the highest bucket reaches beyond the max
+		assertEquals(100, histogram.getValueAtPercentile(100));
+		assertEquals(100, histogram.getValueAtPercentile(150));
+	}
+
+	@Test
+	public void testExtremeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+		assertEquals(Long.MAX_VALUE, histogram.getMax());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSubBucketBits() {
+		new LatencyHistogram(0);
+	}
+
+}
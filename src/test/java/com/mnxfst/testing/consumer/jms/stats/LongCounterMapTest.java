@@ -0,0 +1,133 @@
+/*
+ *  ptest-server and client provides you with a performance test utility
+ *  Copyright (C) 2012  Christian Kreutzfeldt <mnxfst@googlemail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.mnxfst.testing.consumer.jms.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link LongCounterMap}
+ * @author mnxfst
+ * @since 17.03.2012
+ */
+public class LongCounterMapTest {
+
+	@Test
+	public void testAddAndGet() {
+		LongCounterMap map = new LongCounterMap(4);
+		assertEquals(0, map.get(42));
+		assertTrue(map.add(42, 1));
+		assertTrue(map.add(42, 2));
+		assertTrue(map.add(0, 5));
+		assertTrue(map.add(Long.MIN_VALUE, -1));
+		assertEquals(3, map.get(42));
+		assertEquals(5, map.get(0));
+		assertEquals(-1, map.get(Long.MIN_VALUE));
+		assertEquals(0, map.get(43));
+		assertEquals(3, map.size());
+	}
+
+	@Test
+	public void testManyKeys() {
+		// enough keys to force collisions being resolved by probing
+		LongCounterMap map = new LongCounterMap(1000);
+		for(long key = 0; key < 1000; key++)
+			assertTrue(map.add(key * 1024, key));
+		for(long key = 0; key < 1000; key++)
+			assertEquals(key, map.get(key * 1024));
+		assertEquals(1000, map.size());
+	}
+
+	@Test
+	public void testFullMapRejectsNewKeysOnly() {
+		LongCounterMap map = new LongCounterMap(2);
+		assertTrue(map.add(1, 1));
+		assertTrue(map.add(2, 1));
+		assertFalse(map.add(3, 1));
+		assertTrue(map.add(1, 1));
+		assertEquals(2, map.get(1));
+		assertEquals(0, map.get(3));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testClear() {
+		LongCounterMap map = new LongCounterMap(2);
+		map.add(1, 7);
+		map.add(2, 7);
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(0, map.get(1));
+		// counters of re-used slots start from zero
+		assertTrue(map.add(3, 1));
+		assertTrue(map.add(1, 1));
+		assertEquals(1, map.get(1));
+		assertEquals(1, map.get(3));
+	}
+
+	@Test
+	public void testAddAll() {
+		LongCounterMap map = new LongCounterMap(2);
+		map.add(1, 1);
+		LongCounterMap other = new LongCounterMap(4);
+		other.add(1, 2);
+		other.add(2, 3);
+		assertEquals(0, map.addAll(other));
+		assertEquals(3, map.get(1));
+		assertEquals(3, map.get(2));
+		
+		// the map is full now, the counters of new keys are reported as rejected
+		other.clear();
+		other.add(2, 1);
+		other.add(3, 4);
+		other.add(4, 5);
+		assertEquals(9, map.addAll(other));
+		assertEquals(4, map.get(2));
+		assertEquals(0, map.get(3));
+	}
+
+	@Test
+	public void testIteration() {
+		LongCounterMap map = new LongCounterMap(8);
+		for(long key = 10; key < 15; key++)
+			map.add(key, key * 2);
+		long keySum = 0;
+		long counterSum = 0;
+		int keys = 0;
+		for(int slot = 0; slot < map.capacity(); slot++) {
+			if(!map.isUsed(slot))
+				continue;
+			keys++;
+			keySum += map.keyAt(slot);
+			counterSum += map.counterAt(slot);
+		}
+		assertEquals(5, keys);
+		assertEquals(60, keySum);
+		assertEquals(120, counterSum);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxSize() {
+		new LongCounterMap(0);
+	}
+
+}